@@ -1,6 +1,9 @@
 package main.java.agent;
 
 import main.java.environment.Environment;
+import main.java.environment.PositionHistory;
+import main.java.misc.ChangeTracker;
+import main.java.misc.Tracked;
 import main.java.misc.Vector2D;
 import main.java.projectile.ProjectileFactory;
 
@@ -8,7 +11,7 @@ import java.awt.geom.Point2D;
 import java.util.UUID;
 
 
-public abstract class Agent {
+public abstract class Agent implements Tracked {
 
 	public static enum Team {
 		ENEMY("0xFDE7CE"), // all NPCAgents
@@ -30,6 +33,7 @@ public abstract class Agent {
 	}
 
 	private UUID id = UUID.randomUUID();
+	private final int netID;
 	private double angle = 0;
 	private Vector2D velocity = new Vector2D(0.0, 0.0);
 	private transient Environment environment;
@@ -39,6 +43,11 @@ public abstract class Agent {
 
 	private ProjectileFactory gun;
 
+	/** records the tick of each change to the replicated fields below */
+	private final ChangeTracker changes;
+	/** the positions at the end of recent ticks, for lag compensation */
+	private final PositionHistory history = new PositionHistory(Environment.HISTORY_TICKS);
+
 	/* Gameplay Attributes */
 	/** current health value, reaching zero will trigger despawning */
 	private int health;
@@ -52,6 +61,7 @@ public abstract class Agent {
 		Team team, double size, int health, double haste
 	) {
 		this.environment = environment;
+		this.netID = environment.nextNetID();
 		this.position = (Point2D.Double) position.clone();
 		this.team = team;
 		this.size = size;
@@ -59,6 +69,7 @@ public abstract class Agent {
 		this.maxHealth = health;
 		this.haste = haste;
 		this.gun = gun;
+		this.changes = new ChangeTracker(environment.getCurrentTick());
 	}
 
 	/******************************
@@ -68,12 +79,20 @@ public abstract class Agent {
 		return id;
 	}
 
+	@Override
+	public final int getNetID() {
+		return netID;
+	}
+
 	public final double getAngle() {
 		return angle;
 	}
 
 	public final void setAngle(double angle) {
-		this.angle = angle;
+		if (this.angle != angle) {
+			this.angle = angle;
+			markChanged(ChangeTracker.ANGLE);
+		}
 	}
 
 	public final Vector2D getVelocity() {
@@ -102,12 +121,14 @@ public abstract class Agent {
 		double maxY = Math.sin(angleFromOrigin) * getEnvironment().getRadius();
 		
 		if (Math.abs(x) > Math.abs(maxX) || Math.abs(y) > Math.abs(maxY)) {
-			position.setLocation(maxX, maxY);
+			x = maxX;
+			y = maxY;
 		}
-		else {
+
+		if (position.getX() != x || position.getY() != y) {
 			position.setLocation(x, y);
+			markChanged(ChangeTracker.POSITION);
 		}
-
 	}
 
 	public final ProjectileFactory getGun() {
@@ -123,7 +144,10 @@ public abstract class Agent {
 	}
 
 	public final void setTeam(Team team) {
-		this.team = team;
+		if (this.team != team) {
+			this.team = team;
+			markChanged(ChangeTracker.TEAM);
+		}
 	}
 
 	public final double getSize() {
@@ -131,7 +155,10 @@ public abstract class Agent {
 	}
 
 	public final void setSize(double size) {
-		this.size = size;
+		if (this.size != size) {
+			this.size = size;
+			markChanged(ChangeTracker.SIZE);
+		}
 	}
 
 	public final int getHealth() {
@@ -139,7 +166,7 @@ public abstract class Agent {
 	}
 
 	public final void setHealth(int health) {
-		this.health = health;
+		int oldHealth = this.health;
 
 		// if given health exceeds maxHealth, increase to maxHealth
 		this.health = (health > maxHealth) ? maxHealth : health;
@@ -147,6 +174,10 @@ public abstract class Agent {
 		// ensure that the health is not negative
 		this.health = Math.max(this.health, 0);
 
+		if (this.health != oldHealth) {
+			markChanged(ChangeTracker.HEALTH);
+		}
+
 		if (health <= 0) {
 			despawn();
 		}
@@ -160,10 +191,15 @@ public abstract class Agent {
 		if (maxHealth <= 0) {
 			throw new IllegalArgumentException("maxHealth must have a positive value");
 		}
+		int changedFields = (this.maxHealth != maxHealth) ? ChangeTracker.MAX_HEALTH : 0;
 		this.maxHealth = maxHealth;
 
 		// if current health exceeds maxHealth, reduce to maxHealth
-		this.health = (health > maxHealth) ? maxHealth : health;
+		if (health > maxHealth) {
+			health = maxHealth;
+			changedFields |= ChangeTracker.HEALTH;
+		}
+		markChanged(changedFields);
 	}
 
 	public final double getHaste() {
@@ -177,10 +213,26 @@ public abstract class Agent {
 	public String getHexColor() {
 		return getTeam().getColor();
 	};
+
+	@Override
+	public final ChangeTracker getChanges() {
+		return changes;
+	}
+
+	public final PositionHistory getPositionHistory() {
+		return history;
+	}
 	/******************************
 	 * end of getters and setters *
 	 ******************************/
 
+	/** Stamps the given ChangeTracker fields with the tick in progress. */
+	protected final void markChanged(int fields) {
+		if (fields != 0) {
+			changes.mark(fields, environment.getCurrentTick());
+		}
+	}
+
 	/** Give experience points to agent. If the agent is a player agent, it should
 	 * accumulate the points. If it is an NPC, it should not do anything. */
 	public abstract void awardPoints(int pointsAwarded);
@@ -0,0 +1,85 @@
+package main.java.agent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * The input of one player, coalesced as it arrives, so that a tick reads it in
+ * constant time however many messages the client sent. Connection threads offer
+ * inputs and the simulation thread takes them, without locks or allocation.
+ *
+ * The state is one long: the directions held in the latest input, whether any
+ * input since the last take fired or aimed, whether there was any input at all,
+ * and the client's sequence number of the latest numbered input in the upper 32
+ * bits. The aim is kept apart and only the latest is read.
+ */
+public final class InputSlot {
+	public static final int UP = 1;
+	public static final int DOWN = 1 << 1;
+	public static final int LEFT = 1 << 2;
+	public static final int RIGHT = 1 << 3;
+	private static final int DIRECTIONS = UP | DOWN | LEFT | RIGHT;
+	/** Latched until taken, so that a click between two ticks still fires. */
+	private static final int FIRING = 1 << 4;
+	private static final int AIMED = 1 << 5;
+	/** Set by every input, so that directions only count on the tick after they arrive. */
+	private static final int FRESH = 1 << 6;
+	private static final long FLAGS = 0xFFFFFFFFL;
+
+	private final AtomicLong state = new AtomicLong();
+	private volatile double angle;
+
+	/**
+	 * Coalesces an input into the slot. Called by the connection's thread.
+	 * @param sequence the client's number of the input, or -1 to keep the last one.
+	 */
+	public void offer(long sequence, int directions, boolean firing, boolean aimed, double angle) {
+		if (aimed) {
+			// Written first, so whoever sees AIMED sees this angle or a later one.
+			this.angle = angle;
+		}
+		long current;
+		long next;
+		do {
+			current = state.get();
+			long latest = sequence < 0 ? current >>> 32 : sequence & FLAGS;
+			next = latest << 32 | FRESH | directions & DIRECTIONS
+				| current & (FIRING | AIMED) | (firing ? FIRING : 0) | (aimed ? AIMED : 0);
+		} while (!state.compareAndSet(current, next));
+	}
+
+	/**
+	 * Returns the input coalesced since the last take, and clears it, keeping only
+	 * the sequence number. Called by the simulation thread once a tick.
+	 */
+	public long take() {
+		long current;
+		do {
+			current = state.get();
+		} while ((current & FLAGS) != 0 && !state.compareAndSet(current, current & ~FLAGS));
+		return current;
+	}
+
+	/** Returns the latest aim offered. */
+	public double getAngle() {
+		return angle;
+	}
+
+	/** Returns the directions of a taken state, or none if no input arrived since the last take. */
+	public static int getDirections(long state) {
+		return (state & FRESH) != 0 ? (int) state & DIRECTIONS : 0;
+	}
+
+	public static boolean isFiring(long state) {
+		return (state & FIRING) != 0;
+	}
+
+	public static boolean isAimed(long state) {
+		return (state & AIMED) != 0;
+	}
+
+	/** Returns the sequence number of the latest input of a taken state. */
+	public static long getSequence(long state) {
+		return state >>> 32;
+	}
+}
@@ -1,13 +1,12 @@
 package main.java.agent;
 
 import main.java.environment.Environment;
+import main.java.misc.ChangeTracker;
 import main.java.projectile.ProjectileFactory;
 import main.java.web.ClientInput;
 
 import java.awt.geom.Point2D;
 
-import java.util.Queue;
-import java.util.LinkedList;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -44,7 +43,12 @@ public class PlayerAgent extends Agent {
 		}
 	};
 
-	Queue<ClientInput> eventInbox;
+	/** The client's input since the last tick. */
+	private final InputSlot input = new InputSlot();
+	/** The client's sequence number of the latest input applied, echoed in its state frames. */
+	private long inputSequence;
+	/** The round trip to the client in milliseconds, or NaN if unknown. */
+	private volatile double latency = Double.NaN;
 
 	public PlayerAgent(
 		Environment environment, Point2D.Double position, String name
@@ -69,7 +73,6 @@ public class PlayerAgent extends Agent {
 
 		this.name = name;
 		this.pointsUntilLevelUp = levelToPoints(level + 1);
-		this.eventInbox = new LinkedList<ClientInput>();
 
 		this.getGun().setOwner(this);
 	}
@@ -79,7 +82,10 @@ public class PlayerAgent extends Agent {
 	}
 
 	public final void setName(String name) {
-		this.name = name;
+		if (!name.equals(this.name)) {
+			this.name = name;
+			markChanged(ChangeTracker.NAME);
+		}
 	}
 
 	public final int getLevel() {
@@ -112,6 +118,9 @@ public class PlayerAgent extends Agent {
 			this.points += pointsAwarded;
 			pointsUntilLevelUp -= pointsAwarded;
 		}
+		if (pointsAwarded != 0) {
+			markChanged(ChangeTracker.POINTS);
+		}
 	}
 
 	private void upgrade(int level) {
@@ -150,60 +159,51 @@ public class PlayerAgent extends Agent {
 		getEnvironment().despawnPlayerAgent(this);
 	}
 	
+	/** Coalesces a client's input into what the next tick applies. The event can be reused afterwards. */
 	public void addPlayerEvent(ClientInput event) {
-		eventInbox.add(event);
+		int directions = (event.isUp() ? InputSlot.UP : 0) | (event.isDown() ? InputSlot.DOWN : 0)
+			| (event.isLeft() ? InputSlot.LEFT : 0) | (event.isRight() ? InputSlot.RIGHT : 0);
+		input.offer(event.hasSequence() ? event.getSequence() : -1,
+			directions, event.isFiring(), event.hasAngle(), event.getAngle());
 	}
 
-	public Queue<ClientInput> getPlayerEvents() {
-		return new LinkedList<ClientInput>(eventInbox);
+	/** Returns the client's sequence number of the latest input that a tick applied, or 0 if none. */
+	public long getInputSequence() {
+		return inputSequence;
 	}
 
-	@Override
-	public void update() {
-		/** number of inputs for the left direction */
-		int countLeft = 0;
-		/** number of inputs for the right direction */
-		int countRight = 0;
-		/** number of inputs for the up direction */
-		int countUp = 0;
-		/** number of inputs for the down direction */
-		int countDown = 0;
+	/** Returns the round trip to the client in milliseconds, or NaN if it has not been measured. */
+	public double getLatency() {
+		return latency;
+	}
 
-		/** combined horizontal inputs */
-		int horizontalInput = 0;
-		/** combined vertical inputs */
-		int verticalInput = 0;
+	/** Sets the measured round trip to the client, by which hit tests of its shots are rewound. */
+	public void setLatency(double latency) {
+		this.latency = latency;
+	}
 
-		while (!eventInbox.isEmpty()) {
-			ClientInput event = eventInbox.poll();
-			
-			if (event.getAngle() != null) {
-				setAngle(event.getAngle());
-			}
+	@Override
+	public void update() {
+		long state = input.take();
+		inputSequence = InputSlot.getSequence(state);
 
-			if (event.isLeft()) {
-				countLeft++;
-			}
-			if (event.isRight()) {
-				countRight++;
-			}
-			if (event.isUp()) {
-				countUp++;
-			}
-			if (event.isDown()) {
-				countDown++;
-			}
-			
-			if (event.isFiring()) {
-				getGun().fireProjectile();
-			}
+		if (InputSlot.isAimed(state)) {
+			setAngle(input.getAngle());
+		}
+		if (InputSlot.isFiring(state)) {
+			getGun().fireProjectile();
 		}
 
-		horizontalInput = countRight - countLeft;
-		verticalInput = countUp - countDown;
+		int directions = InputSlot.getDirections(state);
+		/** combined horizontal inputs */
+		int horizontalInput = ((directions & InputSlot.RIGHT) != 0 ? 1 : 0)
+			- ((directions & InputSlot.LEFT) != 0 ? 1 : 0);
+		/** combined vertical inputs */
+		int verticalInput = ((directions & InputSlot.UP) != 0 ? 1 : 0)
+			- ((directions & InputSlot.DOWN) != 0 ? 1 : 0);
 
 		if (verticalInput != 0 || horizontalInput != 0) {
-			move(Math.atan2(verticalInput, horizontalInput));
+			move(StrictMath.atan2(verticalInput, horizontalInput));
 		} else {
 			move();
 		}
@@ -252,39 +252,47 @@ public class PlayerAgent extends Agent {
 		timer.scheduleAtFixedRate(healTask, 0, 100);
 	}
 
+	/**
+	 * Accelerates by the haste towards the input angle, up to the maximum speed,
+	 * and moves by the resulting velocity. This and move() are the whole of a
+	 * player's movement. game.js follows them from the velocity in each state frame
+	 * to predict its own player; the prediction is only approximate, and the next
+	 * frame corrects it.
+	 */
 	private void move(double inputAngle) {
 		// x component of velocity
-		double x = getVelocity().getMagnitude() * Math.cos(getVelocity().getAngle());
+		double x = getVelocity().getMagnitude() * StrictMath.cos(getVelocity().getAngle());
 		// y component of velocity
-		double y = getVelocity().getMagnitude() * Math.sin(getVelocity().getAngle());
+		double y = getVelocity().getMagnitude() * StrictMath.sin(getVelocity().getAngle());
 
 		// increase velocity componentwise by haste
-		x += getHaste() * Math.cos(inputAngle);
-		y += getHaste() * Math.sin(inputAngle);
+		x += getHaste() * StrictMath.cos(inputAngle);
+		y += getHaste() * StrictMath.sin(inputAngle);
 
 		// update velocity angle following the above increase
-		getVelocity().setAngle(Math.atan2(y, x));
+		getVelocity().setAngle(StrictMath.atan2(y, x));
 
-		getVelocity().setMagnitude(Math.sqrt(x * x + y * y));
+		getVelocity().setMagnitude(StrictMath.sqrt(x * x + y * y));
 
 		if (getVelocity().getMagnitude() >= getHaste() * MAX_SPEED_MULTIPLE) {
 			getVelocity().setMagnitude(getHaste() * MAX_SPEED_MULTIPLE);
 		}
 
-		x = getVelocity().getMagnitude() * Math.cos(getVelocity().getAngle());
-		y = getVelocity().getMagnitude() * Math.sin(getVelocity().getAngle());
+		x = getVelocity().getMagnitude() * StrictMath.cos(getVelocity().getAngle());
+		y = getVelocity().getMagnitude() * StrictMath.sin(getVelocity().getAngle());
 
 		x += getPosition().getX();
 		y += getPosition().getY();
 		setPosition(x, y);
 	}
 
+	/** Decelerates by a third of the haste, and moves by the resulting velocity. */
 	private void move() {
 		getVelocity().setMagnitude(getVelocity().getMagnitude() - getHaste() / 3.0);
 
 		if (getVelocity().getMagnitude() > 0.0) {
-			double x = getVelocity().getMagnitude() * Math.cos(getVelocity().getAngle());
-			double y = getVelocity().getMagnitude() * Math.sin(getVelocity().getAngle());
+			double x = getVelocity().getMagnitude() * StrictMath.cos(getVelocity().getAngle());
+			double y = getVelocity().getMagnitude() * StrictMath.sin(getVelocity().getAngle());
 			
 			x += getPosition().getX();
 			y += getPosition().getY();
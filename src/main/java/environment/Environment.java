@@ -6,18 +6,23 @@ import main.java.agent.PlayerAgent;
 import main.java.agent.Pulsar;
 import main.java.agent.Scout;
 
+import main.java.misc.Tracked;
 import main.java.projectile.Projectile;
 
 import java.awt.geom.Point2D;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.Random;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class Environment {
@@ -27,8 +32,14 @@ public class Environment {
 	private static final int NPC_PLAYER_RATIO = 50;
 	/** The ideal ratio of Scouts to Pulsars */
 	private static final int SCOUT_PULSAR_RATIO = 25;
-	/** The frame rate, in Hz */
-	private static final int FRAME_RATE = 40;
+	/** The simulation rate, in Hz. State frames are published from these ticks. */
+	public static final int TICK_RATE = 40;
+	/** Cell width of the spatial indexes, in pixels */
+	private static final double GRID_CELL_SIZE = 500;
+	/** The number of ticks of positions each agent remembers for lag compensation */
+	public static final int HISTORY_TICKS = 32;
+	/** The default of the most a player's shots are rewound by, in milliseconds */
+	public static final double DEFAULT_MAX_REWIND = 250;
 	/** A random number generator **/
 	private static final Random random = new Random();
 	
@@ -36,13 +47,29 @@ public class Environment {
 	private boolean gameplayOccurring = true;
 	private boolean verbose = true;
 
+	/** The number of the last completed tick */
+	private volatile long tick = 0;
+	private final CopyOnWriteArrayList<TickListener> tickListeners = new CopyOnWriteArrayList<>();
+	/** Changes queued by other threads, which the simulation thread makes before the next tick */
+	private final ConcurrentLinkedQueue<Runnable> tickTasks = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger nextNetID = new AtomicInteger(1);
+
 	private Set<PlayerAgent> activePlayerAgents;
 	private Set<NPCAgent> activeNPCAgents;
 	private Set<Projectile> activeProjectiles;
 
-	private Set<PlayerAgent> recentlyDespawnedPlayerAgents;
-	private Set<NPCAgent> recentlyDespawnedNPCAgents;
-	private Set<Projectile> recentlyDespawnedProjectiles;
+	/** Positions of active entities at the end of the last tick. Agents are indexed as
+	 *  soon as they have moved, so that projectiles are tested against them. */
+	private final SpatialGrid<PlayerAgent> playerAgentGrid = new SpatialGrid<>(RADIUS, GRID_CELL_SIZE);
+	private final SpatialGrid<NPCAgent> npcAgentGrid = new SpatialGrid<>(RADIUS, GRID_CELL_SIZE);
+	private final SpatialGrid<Projectile> projectileGrid = new SpatialGrid<>(RADIUS, GRID_CELL_SIZE);
+	/** Agents spawned since the agents were last indexed, which projectiles can already hit */
+	private final CopyOnWriteArrayList<Agent> unindexedAgents = new CopyOnWriteArrayList<>();
+	/** The largest agent indexed, and the farthest any agent moved in each recent tick, indexed by tick */
+	private double maxAgentSize = 0;
+	private final double[] maxSteps = new double[HISTORY_TICKS];
+	/** The most a player's shots are rewound by, in ticks */
+	private volatile int maxRewindTicks = toTicks(DEFAULT_MAX_REWIND);
 
 	private Set<PlayerAgent> redPlayers;
 	private Set<PlayerAgent> bluePlayers;
@@ -60,29 +87,143 @@ public class Environment {
 		activeNPCAgents = Collections.newSetFromMap(new ConcurrentHashMap<NPCAgent, Boolean>());
 		activeProjectiles = Collections.newSetFromMap(new ConcurrentHashMap<Projectile, Boolean>());
 		
-		recentlyDespawnedPlayerAgents = Collections.newSetFromMap(new ConcurrentHashMap<PlayerAgent, Boolean>());
-		recentlyDespawnedNPCAgents = Collections.newSetFromMap(new ConcurrentHashMap<NPCAgent, Boolean>());
-		recentlyDespawnedProjectiles = Collections.newSetFromMap(new ConcurrentHashMap<Projectile, Boolean>());
-
 		redPlayers = Collections.newSetFromMap(new ConcurrentHashMap<PlayerAgent, Boolean>());
 		bluePlayers = Collections.newSetFromMap(new ConcurrentHashMap<PlayerAgent, Boolean>());
 
 
-		// call update at FRAME_RATE
+		// call update at TICK_RATE
 		timer.schedule(new TimerTask() {
 			@Override
 			public void run() {
 				if (gameplayOccurring) {
 					update();
+				} else {
+					// Queued changes are still made while the game is paused.
+					runTickTasks();
 				}
 			}
-		}, 0, 1000 / FRAME_RATE);
+		}, 0, 1000 / TICK_RATE);
 	}
 
 	public double getRadius(){
 		return RADIUS;
 	}
 
+	/** Returns a new compact ID for an entity of this environment. */
+	public int nextNetID() {
+		return nextNetID.getAndIncrement();
+	}
+
+	/** Returns the number of the last completed tick, or 0 before the first tick. */
+	public long getTick() {
+		return tick;
+	}
+
+	/** Returns the number of the tick in progress. Changes made now are part of
+	 *  this tick's state, so entities stamp their ChangeTrackers with it. */
+	public long getCurrentTick() {
+		return tick + 1;
+	}
+
+	/** Returns every active entity with a replicated field that changed after the given tick,
+	 *  including entities spawned after it. */
+	public List<Tracked> changedSince(long tick) {
+		List<Tracked> changed = new ArrayList<>();
+		addChangedSince(activePlayerAgents, tick, changed);
+		addChangedSince(activeNPCAgents, tick, changed);
+		addChangedSince(activeProjectiles, tick, changed);
+		return changed;
+	}
+
+	private static void addChangedSince(Set<? extends Tracked> entities, long tick, List<Tracked> changed) {
+		for (Tracked entity : entities) {
+			if (entity.getChanges().changedSince(tick)) {
+				changed.add(entity);
+			}
+		}
+	}
+
+	/** Adds every PlayerAgent within the radius of a point to the collection, and returns it.
+	 *  Positions are as of the end of the last tick, so despawns since then are not reflected.
+	 *  Call only from the simulation thread, e.g. from a TickListener, or from threads
+	 *  that a TickListener waits for. */
+	public <C extends Collection<? super PlayerAgent>> C getPlayerAgentsWithin(
+		Point2D.Double center, double radius, C out
+	) {
+		return playerAgentGrid.query(center.getX(), center.getY(), radius, out);
+	}
+
+	/** Like getPlayerAgentsWithin, for NPCAgents. */
+	public <C extends Collection<? super NPCAgent>> C getNPCAgentsWithin(
+		Point2D.Double center, double radius, C out
+	) {
+		return npcAgentGrid.query(center.getX(), center.getY(), radius, out);
+	}
+
+	/** Like getPlayerAgentsWithin, for projectiles. */
+	public <C extends Collection<? super Projectile>> C getProjectilesWithin(
+		Point2D.Double center, double radius, C out
+	) {
+		return projectileGrid.query(center.getX(), center.getY(), radius, out);
+	}
+
+	/** Returns the most a player's shots are rewound by, in milliseconds. */
+	public double getMaxRewind() {
+		return maxRewindTicks * 1000.0 / TICK_RATE;
+	}
+
+	/** Sets the most a player's shots are rewound by, in milliseconds. It is rounded to
+	 *  whole ticks, and limited to the ticks agents remember. 0 turns lag compensation off. */
+	public void setMaxRewind(double maxRewind) {
+		maxRewindTicks = Math.max(0, Math.min(HISTORY_TICKS - 1, toTicks(maxRewind)));
+	}
+
+	/** Returns how many ticks the targets of a shooter's projectiles are rewound by:
+	 *  the round trip to a player, within the maximum rewind, and none for NPCAgents. */
+	public int getRewindTicks(Agent shooter) {
+		if (!(shooter instanceof PlayerAgent)) {
+			return 0;
+		}
+		double latency = ((PlayerAgent) shooter).getLatency();
+		if (!(latency > 0)) {
+			return 0;
+		}
+		return Math.min(maxRewindTicks, toTicks(latency));
+	}
+
+	private static int toTicks(double millis) {
+		return (int) Math.round(millis * TICK_RATE / 1000);
+	}
+
+	/** Registers a listener to be called at the end of every tick. */
+	public void addTickListener(TickListener listener) {
+		tickListeners.add(listener);
+	}
+
+	public void removeTickListener(TickListener listener) {
+		tickListeners.remove(listener);
+	}
+
+	/** Queues a change to the world, which the simulation thread makes at the start of the next tick. */
+	public void runAtTickStart(Runnable task) {
+		tickTasks.add(task);
+	}
+
+	/** Runs the tasks queued so far. Those they queue in turn wait for the next tick. */
+	private void runTickTasks() {
+		for (int i = tickTasks.size(); i > 0; i--) {
+			Runnable task = tickTasks.poll();
+			if (task == null) {
+				break;
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace(System.err);
+			}
+		}
+	}
+
 	public Set<PlayerAgent> getActivePlayerAgents() {
 		return this.activePlayerAgents;
 	}
@@ -95,27 +236,6 @@ public class Environment {
 		return this.activeProjectiles;
 	}
 	
-	/** Gets the player agents who were despawned since the last time this method was called. */
-	public synchronized Set<PlayerAgent> getRecentlyDespawnedPlayerAgents() {
-		Set<PlayerAgent> agents = new HashSet<>(recentlyDespawnedPlayerAgents);
-		recentlyDespawnedPlayerAgents.clear();
-		return agents;
-	}
-
-	/** Gets the NPC agents that were despawned since the last time this method was called. */
-	public synchronized Set<NPCAgent> getRecentlyDespawnedNPCAgents() {
-		Set<NPCAgent> agents = new HashSet<>(recentlyDespawnedNPCAgents);
-		recentlyDespawnedNPCAgents.clear();
-		return agents;
-	}
-
-	/** Gets the projectiles that were despawned since the last time this method was called. */
-	public synchronized Set<Projectile> getRecentlyDespawnedProjectiles() {
-		Set<Projectile> projectiles = new HashSet<>(recentlyDespawnedProjectiles);
-		recentlyDespawnedProjectiles.clear();
-		return projectiles;
-	}
-
 	public Agent.Team getSmallestTeam(){
 		if (redPlayers.size() < bluePlayers.size()) {
 			return Agent.Team.RED;
@@ -144,8 +264,8 @@ public class Environment {
 
 	/** Despawns a NPCAgent */
 	public void despawnNPCAgent(NPCAgent agent) {
+		agent.getChanges().markDespawned(getCurrentTick());
 		activeNPCAgents.remove(agent);
-		recentlyDespawnedNPCAgents.add(agent);
 		// agent = null;
 		if (verbose) {
 			System.out.println("[ENVIRO] Despawned NPC: " +
@@ -156,22 +276,31 @@ public class Environment {
 	/** Despawns a PlayerAgent */
 	public void despawnPlayerAgent(PlayerAgent agent) {
 		if (agent != null) {
+			despawnPlayerAgents(Collections.singletonList(agent));
+		}
+	}
+
+	/** Despawns several PlayerAgents, thinning out the NPCAgents once for all of them. */
+	public void despawnPlayerAgents(Collection<PlayerAgent> agents) {
+		if (agents.isEmpty()) {
+			return;
+		}
+		for (PlayerAgent agent : agents) {
+			agent.getChanges().markDespawned(getCurrentTick());
 			activePlayerAgents.remove(agent);
-			recentlyDespawnedPlayerAgents.add(agent);
 			removePlayerFromTeam(agent);
-			decimate();
 			if (verbose) {
 				System.out.println("[ENVIRO] Despawned Player: \"" +
 					agent.getName() + "\"");
 			}
 		}
-
+		decimate();
 	}
 
 	/** Despawns a projectile */
 	public void despawnProjectile(Projectile projectile) {
+		projectile.getChanges().markDespawned(getCurrentTick());
 		activeProjectiles.remove(projectile);
-		recentlyDespawnedProjectiles.add(projectile);
 	}
 
 	/** Spawns a playable character entity. */
@@ -180,6 +309,7 @@ public class Environment {
 		PlayerAgent player = new PlayerAgent(this, point, name,
 			getSmallestTeam());
 		activePlayerAgents.add(player);
+		unindexedAgents.add(player);
 		addPlayerToTeam(player);		
 		updateEnvironmentLevel();
 		if (verbose) {
@@ -195,6 +325,7 @@ public class Environment {
 		PlayerAgent player = new PlayerAgent(this, point, "Player" +
 			String.format("%04d", random.nextInt(10000)), getSmallestTeam());
 		activePlayerAgents.add(player);
+		unindexedAgents.add(player);
 		addPlayerToTeam(player);
 		if (verbose) {
 			System.out.println("[ENVIRO] Spawned Player: \"" +
@@ -218,6 +349,7 @@ public class Environment {
 	public Scout spawnScout(Point2D.Double point, int level) {
 		Scout agent = new Scout(this, point, level);
 		activeNPCAgents.add(agent);
+		unindexedAgents.add(agent);
 		if (verbose) {
 			System.out.println("[ENVIRO] Spawned NPC: Level " + level +
 				" Scout at (" + (int)point.getX() + ", " + (int)point.getY() +
@@ -240,6 +372,7 @@ public class Environment {
 	public Pulsar spawnPulsar(Point2D.Double point, int level) {
 		Pulsar agent = new Pulsar(this, point, level);
 		activeNPCAgents.add(agent);
+		unindexedAgents.add(agent);
 		if (verbose) {
 			System.out.println("[ENVIRO] Spawned NPC: Level " + level +
 				" Pulsar at (" + (int)point.getX() + ", " +
@@ -327,33 +460,59 @@ public class Environment {
 		return nearestPlayer;
 	}
 
-	/** Checks collisions between projectiles and agent entities and returns an array of agents hit */
+	/** Checks collisions between projectiles and agent entities and returns an array of agents hit.
+	 *  A player's shots hit agents where they were when the player saw them, rewound by
+	 *  getRewindTicks. Candidates are found in the spatial indexes, so the search reaches as
+	 *  far as any agent has moved since the rewound tick. */
 	public ArrayList<Agent> checkCollision(Projectile p) {
 		ArrayList<Agent> collisions = new ArrayList<Agent>();
+		Agent owner = p.getOwner();
+		Point2D.Double position = p.getPosition();
 		double projectileSize = 33 * p.getSize();
+		long currentTick = getCurrentTick();
+		long rewoundTick = currentTick - getRewindTicks(owner);
+		double reach = projectileSize * maxAgentSize;
+		for (long t = Math.max(rewoundTick + 1, 0); t <= currentTick; t++) {
+			reach += maxSteps[(int) (t % HISTORY_TICKS)];
+		}
 
 		// NPCAgents can't damage each other
-		if (p.getOwner() instanceof PlayerAgent) {
-			for (Agent a : getActiveNPCAgents()) {
-				if (a.getTeam() != p.getOwner().getTeam() &&
-					a.getPosition().distance(p.getPosition()) < projectileSize * a.getSize()) {
-					collisions.add(a);
-				}
+		if (owner instanceof PlayerAgent) {
+			npcAgentGrid.query(position.getX(), position.getY(), reach, collisions);
+		}
+		playerAgentGrid.query(position.getX(), position.getY(), reach, collisions);
+		for (Agent a : unindexedAgents) {
+			if (owner instanceof PlayerAgent || a instanceof PlayerAgent) {
+				collisions.add(a);
 			}
 		}
 
-		for (Agent a : getActivePlayerAgents()) {
+		// Keep the candidates that the shot actually hits, in place.
+		int hits = 0;
+		for (Agent a : collisions) {
 			if (// target and shooter are on different teams
-				(a.getTeam() != p.getOwner().getTeam()) && 
+				(a.getTeam() != owner.getTeam()) &&
+				!a.getChanges().isDespawned() &&
 				// the shot actually hits
-				(a.getPosition().distance(p.getPosition()) < projectileSize * a.getSize())) {
-					collisions.add(a);
+				(distanceAt(a, rewoundTick, position) < projectileSize * a.getSize())) {
+					collisions.set(hits++, a);
 			}
 		}
+		collisions.subList(hits, collisions.size()).clear();
 
 		return collisions;
 	}
 
+	/** Returns the distance from a point to where an agent was at the end of a tick,
+	 *  or to where it is if it has not been indexed yet. */
+	private static double distanceAt(Agent a, long tick, Point2D.Double point) {
+		PositionHistory history = a.getPositionHistory();
+		if (history.isEmpty()) {
+			return a.getPosition().distance(point);
+		}
+		return point.distance(history.getX(tick), history.getY(tick));
+	}
+
 	/** Creates a polar coordinate for the location of a new PlayerAgent spawn on the perimeter of the arena and returns it as a cartesian coordinate */
 	private Point2D.Double randomPlayerSpawn() {
 		double angle = Math.random() * 2 * Math.PI;
@@ -368,15 +527,19 @@ public class Environment {
 	}
 
 	/** Calls each entity's update method 
+	* Indexes and records the agents' new positions before projectiles test for hits
 	* Spawns a new Scout-type NPCAgent if the NPC:player ratio is too low
-	* Despawns max health NPCAgents if the NPC:player ratio is too high */
+	* Despawns max health NPCAgents if the NPC:player ratio is too high
+	* Indexes the projectiles, advances the tick counter and notifies each TickListener */
 	private void update() {
+		runTickTasks();
 		for (PlayerAgent agent : getActivePlayerAgents()) {
 			agent.update();
 		}
 		for (NPCAgent agent : getActiveNPCAgents()) {
 			agent.update();
 		}
+		indexAgents(getCurrentTick());
 		for (Projectile p : getActiveProjectiles()) {
 			p.update();
 		}
@@ -390,6 +553,55 @@ public class Environment {
 			}
 			spawnCounter++;
 		}
+
+		index(activeProjectiles, projectileGrid);
+		tick++;
+		for (TickListener listener : tickListeners) {
+			try {
+				listener.onTick(tick);
+			} catch (RuntimeException e) {
+				// An exception here would cancel the timer and halt the simulation.
+				e.printStackTrace(System.err);
+			}
+		}
+	}
+
+	/** Indexes the agents at their positions in the given tick, and records them in their histories. */
+	private void indexAgents(long tick) {
+		unindexedAgents.clear();
+		int slot = (int) (tick % HISTORY_TICKS);
+		maxSteps[slot] = 0;
+		maxAgentSize = Math.max(index(activePlayerAgents, playerAgentGrid, tick, slot),
+			index(activeNPCAgents, npcAgentGrid, tick, slot));
+	}
+
+	/** Indexes and records agents, noting the farthest they moved since the last tick in
+	 *  maxSteps[slot], and returns the size of the largest. */
+	private <T extends Agent> double index(Set<T> agents, SpatialGrid<T> grid, long tick, int slot) {
+		double maxSize = 0;
+		grid.clear();
+		for (T agent : agents) {
+			Point2D.Double position = agent.getPosition();
+			PositionHistory history = agent.getPositionHistory();
+			if (history.getLastTick() == tick - 1) {
+				double step = position.distance(history.getX(tick - 1), history.getY(tick - 1));
+				maxSteps[slot] = Math.max(maxSteps[slot], step);
+			}
+			history.record(tick, position.getX(), position.getY());
+			maxSize = Math.max(maxSize, agent.getSize());
+			grid.add(agent, position.getX(), position.getY());
+		}
+		grid.build();
+		return maxSize;
+	}
+
+	private static <T extends Tracked> void index(Set<T> entities, SpatialGrid<T> grid) {
+		grid.clear();
+		for (T entity : entities) {
+			Point2D.Double position = entity.getPosition();
+			grid.add(entity, position.getX(), position.getY());
+		}
+		grid.build();
 	}
 
 	private void decimate() {
@@ -0,0 +1,65 @@
+package main.java.environment;
+
+
+/**
+ * The positions of one agent at the end of its last few ticks, kept in a ring
+ * indexed by tick so that hit tests can rewind it to what a lagging shooter saw.
+ * The arrays are allocated with the agent, so recording allocates nothing.
+ * Written and read by the simulation thread only.
+ */
+public final class PositionHistory {
+	private final int capacity;
+	private final double[] xs;
+	private final double[] ys;
+
+	/** The first and last ticks recorded, or -1 if none have been. */
+	private long firstTick = -1;
+	private long lastTick = -1;
+
+	/** @param capacity the number of ticks to remember. */
+	public PositionHistory(int capacity) {
+		this.capacity = capacity;
+		xs = new double[capacity];
+		ys = new double[capacity];
+	}
+
+	/** Records the position at the end of a tick. Every tick is recorded, in ascending order. */
+	public void record(long tick, double x, double y) {
+		int slot = (int) (tick % capacity);
+		xs[slot] = x;
+		ys[slot] = y;
+		if (firstTick < 0) {
+			firstTick = tick;
+		}
+		lastTick = tick;
+	}
+
+	public boolean isEmpty() {
+		return lastTick < 0;
+	}
+
+	/** Returns the last tick recorded, or -1 if none have been. */
+	public long getLastTick() {
+		return lastTick;
+	}
+
+	/** Returns the x coordinate at the given tick, or at the nearest tick still remembered. */
+	public double getX(long tick) {
+		return xs[slot(tick)];
+	}
+
+	/** Returns the y coordinate at the given tick, or at the nearest tick still remembered. */
+	public double getY(long tick) {
+		return ys[slot(tick)];
+	}
+
+	/** Returns the slot of the tick, clamped to the ticks still remembered. */
+	private int slot(long tick) {
+		if (lastTick < 0) {
+			throw new IllegalStateException("no positions recorded");
+		}
+		long oldest = Math.max(firstTick, lastTick - capacity + 1);
+		long clamped = Math.max(oldest, Math.min(lastTick, tick));
+		return (int) (clamped % capacity);
+	}
+}
@@ -0,0 +1,123 @@
+package main.java.environment;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+
+/**
+ * A uniform grid over a square region, used for range queries. It is rebuilt
+ * from scratch every tick: add() every entity, then build(). The arrays are
+ * reused between builds, so once they have grown to fit the population a
+ * rebuild allocates nothing. Not thread-safe.
+ */
+public class SpatialGrid<T> {
+
+	private final double min;
+	private final double cellSize;
+	private final int columns;
+	/** Index into the sorted arrays of the first item of each cell; one extra entry marks the end. */
+	private final int[] cellStart;
+
+	private int size = 0;
+	private Object[] items = new Object[64];
+	private double[] xs = new double[64];
+	private double[] ys = new double[64];
+	private int[] cells = new int[64];
+
+	private Object[] sortedItems = new Object[64];
+	private double[] sortedXs = new double[64];
+	private double[] sortedYs = new double[64];
+
+	/**
+	 * @param extent half the width of the covered square, centered on the origin.
+	 * Positions outside of it are kept in the border cells.
+	 * @param cellSize the width of each cell.
+	 */
+	public SpatialGrid(double extent, double cellSize) {
+		this.min = -extent;
+		this.cellSize = cellSize;
+		this.columns = Math.max(1, (int) Math.ceil(2 * extent / cellSize));
+		this.cellStart = new int[columns * columns + 1];
+	}
+
+	/** Removes every item. */
+	public void clear() {
+		Arrays.fill(items, 0, size, null);
+		Arrays.fill(sortedItems, 0, size, null);
+		size = 0;
+	}
+
+	/** Adds an item at a position. It is not visible to queries until build() is called. */
+	public void add(T item, double x, double y) {
+		if (size == items.length) {
+			int capacity = size * 2;
+			items = Arrays.copyOf(items, capacity);
+			xs = Arrays.copyOf(xs, capacity);
+			ys = Arrays.copyOf(ys, capacity);
+			cells = Arrays.copyOf(cells, capacity);
+			sortedItems = new Object[capacity];
+			sortedXs = new double[capacity];
+			sortedYs = new double[capacity];
+		}
+		items[size] = item;
+		xs[size] = x;
+		ys[size] = y;
+		cells[size] = column(y) * columns + column(x);
+		size++;
+	}
+
+	/** Sorts the added items by cell so that they can be queried. */
+	public void build() {
+		Arrays.fill(cellStart, 0);
+		for (int i = 0; i < size; i++) {
+			cellStart[cells[i] + 1]++;
+		}
+		for (int c = 0; c < columns * columns; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		// cellStart[c] is the next free slot of cell c while filling, and its end afterwards.
+		for (int i = 0; i < size; i++) {
+			int slot = cellStart[cells[i]]++;
+			sortedItems[slot] = items[i];
+			sortedXs[slot] = xs[i];
+			sortedYs[slot] = ys[i];
+		}
+		for (int c = columns * columns; c > 0; c--) {
+			cellStart[c] = cellStart[c - 1];
+		}
+		cellStart[0] = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** Adds every item within the radius of (x, y) to the collection, and returns it. */
+	@SuppressWarnings("unchecked")
+	public <C extends Collection<? super T>> C query(double x, double y, double radius, C out) {
+		int minColumn = column(x - radius);
+		int maxColumn = column(x + radius);
+		int minRow = column(y - radius);
+		int maxRow = column(y + radius);
+		double radiusSquared = radius * radius;
+
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int col = minColumn; col <= maxColumn; col++) {
+				int cell = row * columns + col;
+				for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+					double dx = sortedXs[i] - x;
+					double dy = sortedYs[i] - y;
+					if (dx * dx + dy * dy <= radiusSquared) {
+						out.add((T) sortedItems[i]);
+					}
+				}
+			}
+		}
+		return out;
+	}
+
+	private int column(double coordinate) {
+		int column = (int) Math.floor((coordinate - min) / cellSize);
+		return Math.min(Math.max(column, 0), columns - 1);
+	}
+}
@@ -0,0 +1,9 @@
+package main.java.environment;
+
+
+/** Receives a callback at the end of every simulation tick of an Environment. */
+public interface TickListener {
+	/** Called on the simulation thread once all entities have been updated.
+	 *  @param tick the number of the tick that just completed, starting at 1. */
+	void onTick(long tick);
+}
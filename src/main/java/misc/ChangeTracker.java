@@ -0,0 +1,107 @@
+package main.java.misc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Records which replicated fields of an entity have changed, stamped with the
+ * tick in which each change happened. Asking for the fields changed since a
+ * tick yields the dirty bits relative to any baseline, not only the last one.
+ */
+public final class ChangeTracker {
+	public static final int POSITION = 1;
+	public static final int ANGLE = 1 << 1;
+	public static final int HEALTH = 1 << 2;
+	public static final int MAX_HEALTH = 1 << 3;
+	public static final int POINTS = 1 << 4;
+	public static final int TEAM = 1 << 5;
+	public static final int SIZE = 1 << 6;
+	public static final int NAME = 1 << 7;
+
+	/** The number of distinct field bits */
+	public static final int FIELD_COUNT = 8;
+	/** Every field bit set */
+	public static final int ALL = (1 << FIELD_COUNT) - 1;
+	/** Fields that rarely change once an entity is spawned, sent only with its spawn. */
+	public static final int STATIC = MAX_HEALTH | TEAM | SIZE | NAME;
+	/** Fields that are sent in the updates of an entity that the client has spawned. */
+	public static final int DYNAMIC = ALL & ~STATIC;
+
+	/** Stamped value of despawnTick while the entity is still alive */
+	public static final long ALIVE = Long.MAX_VALUE;
+
+	private final long spawnTick;
+	private final AtomicLongArray fieldTicks = new AtomicLongArray(FIELD_COUNT);
+	private volatile long lastModified;
+	private volatile long despawnTick = ALIVE;
+
+	/** All fields count as changed in the tick the entity is spawned. */
+	public ChangeTracker(long spawnTick) {
+		this.spawnTick = spawnTick;
+		this.lastModified = spawnTick;
+		for (int i = 0; i < FIELD_COUNT; i++) {
+			fieldTicks.set(i, spawnTick);
+		}
+	}
+
+	/** Marks the given fields as modified in the given tick. Call after writing the new value. */
+	public void mark(int fields, long tick) {
+		for (int i = 0; i < FIELD_COUNT; i++) {
+			if ((fields & (1 << i)) != 0 && fieldTicks.get(i) < tick) {
+				fieldTicks.set(i, tick);
+			}
+		}
+		if (lastModified < tick) {
+			lastModified = tick;
+		}
+	}
+
+	public void markDespawned(long tick) {
+		if (despawnTick == ALIVE) {
+			despawnTick = tick;
+		}
+		mark(0, tick);
+	}
+
+	public long getSpawnTick() {
+		return spawnTick;
+	}
+
+	/** Returns the tick the entity was despawned in, or ALIVE. */
+	public long getDespawnTick() {
+		return despawnTick;
+	}
+
+	public boolean isDespawned() {
+		return despawnTick != ALIVE;
+	}
+
+	/** Returns the tick of the most recent change to any field. */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/** Returns the tick of the most recent change to the given field. */
+	public long getLastModified(int field) {
+		return fieldTicks.get(Integer.numberOfTrailingZeros(field));
+	}
+
+	/** Returns true if anything changed after the given tick. */
+	public boolean changedSince(long tick) {
+		return lastModified > tick;
+	}
+
+	/** Returns the bits of the fields that changed after the given tick. */
+	public int changedFieldsSince(long tick) {
+		if (lastModified <= tick) {
+			return 0;
+		}
+		int fields = 0;
+		for (int i = 0; i < FIELD_COUNT; i++) {
+			if (fieldTicks.get(i) > tick) {
+				fields |= 1 << i;
+			}
+		}
+		return fields;
+	}
+}
@@ -0,0 +1,17 @@
+package main.java.misc;
+
+import java.awt.geom.Point2D;
+import java.util.UUID;
+
+
+/** An entity whose replicated state is recorded by a ChangeTracker. */
+public interface Tracked {
+	UUID getID();
+
+	/** A small integer ID for compact wire formats, unique within the entity's Environment. */
+	int getNetID();
+
+	ChangeTracker getChanges();
+
+	Point2D.Double getPosition();
+}
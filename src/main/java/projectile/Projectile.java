@@ -4,6 +4,8 @@ import main.java.agent.Agent;
 import main.java.environment.Environment;
 
 import java.awt.geom.Point2D;
+import main.java.misc.ChangeTracker;
+import main.java.misc.Tracked;
 import main.java.misc.Vector2D;
 
 import java.util.List;
@@ -12,19 +14,34 @@ import java.util.TimerTask;
 import java.util.UUID;
 
 
-public class Projectile {
+/**
+ * A shot moving in a straight line at a constant velocity per tick. Its
+ * trajectory is fixed when it is fired, so clients are only sent its origin,
+ * velocity and launch tick, and work out where it is from those.
+ */
+public class Projectile implements Tracked {
 	/** The distance into the environment's edge (in pixels) that the Projectile
 	  * can travel before it despawns. */
 	private static final int PROJECTILE_LEEWAY = 30;
 
 	private UUID id = UUID.randomUUID();
+	private final int netID;
 	private transient Environment environment;
 	private Agent owner;
 	private Point2D.Double position;
+	private final Point2D.Double origin;
 	private Vector2D velocity;
+	/** The distance moved in each update along each axis. */
+	private final double velocityX;
+	private final double velocityY;
+	/** The number of updates so far, and the tick of the latest one. */
+	private long moves;
+	private long lastMoveTick;
+	private volatile boolean hit;
 	private int timeToLive;
 	private int damage;
 	private double size;
+	private final ChangeTracker changes;
 
 	private Timer timer = new Timer("Projectile Timer");
 
@@ -34,12 +51,17 @@ public class Projectile {
 	) {
 
 		this.environment = environment;
+		this.netID = environment.nextNetID();
 		this.owner = owner;
 		this.position = position;
+		this.origin = (Point2D.Double) position.clone();
 		this.velocity = velocity;
+		this.velocityX = velocity.getMagnitude() * Math.cos(velocity.getAngle());
+		this.velocityY = velocity.getMagnitude() * -Math.sin(velocity.getAngle());
 		this.timeToLive = (int) (25000 / velocity.getMagnitude());
 		this.damage = damage;
 		this.size = size;
+		this.changes = new ChangeTracker(environment.getCurrentTick());
 
 		// despawn when timeToLive is up
 		timer.schedule(new TimerTask() {
@@ -55,6 +77,11 @@ public class Projectile {
 		return id;
 	}
 
+	@Override
+	public final int getNetID() {
+		return netID;
+	}
+
 	protected final Environment getEnvironment() {
 		return environment;
 	}
@@ -71,18 +98,57 @@ public class Projectile {
 		return new Vector2D(velocity);
 	}
 
-	public final void update() {
-		double oldX = position.getX();
-		double oldY = position.getY();
+	/** Returns where the projectile was fired from. */
+	public final Point2D.Double getOrigin() {
+		return (Point2D.Double) origin.clone();
+	}
 
-		double newX = oldX + (velocity.getMagnitude() * Math.cos(velocity.getAngle()));
-		double newY = oldY + (velocity.getMagnitude() * -Math.sin(velocity.getAngle()));
+	/** Returns the distance moved along the x axis in each tick. */
+	public final double getVelocityX() {
+		return velocityX;
+	}
+
+	/** Returns the distance moved along the y axis in each tick. */
+	public final double getVelocityY() {
+		return velocityY;
+	}
+
+	/**
+	 * Returns the tick the projectile was at its origin in, such that at the end
+	 * of any later tick t it is at origin + (t - launchTick) * velocity.
+	 */
+	public final synchronized long getLaunchTick() {
+		return moves == 0 ? changes.getSpawnTick() : lastMoveTick - moves;
+	}
+
+	/** Returns true if the projectile was despawned by hitting an agent. */
+	public final boolean isHit() {
+		return hit;
+	}
+
+	/**
+	 * Moves the projectile by its velocity. The position is computed from the
+	 * origin rather than accumulated, so that clients extrapolating the same
+	 * trajectory agree with it exactly. Only the trajectory is replicated, so
+	 * moving does not mark the position as changed.
+	 */
+	public final void update() {
+		double newX;
+		double newY;
+		synchronized (this) {
+			newX = origin.getX() + (moves + 1) * velocityX;
+			newY = origin.getY() + (moves + 1) * velocityY;
+		}
 
 		if ((Math.pow(newX, 2) + Math.pow(newY, 2)) >=
 				(Math.pow(environment.getRadius() + PROJECTILE_LEEWAY, 2)) ) {
 			despawn();
 		} else {
-			position.setLocation(newX, newY);
+			synchronized (this) {
+				position.setLocation(newX, newY);
+				moves++;
+				lastMoveTick = environment.getCurrentTick();
+			}
 
 			onCollision(environment.checkCollision(this));
 		}
@@ -97,6 +163,7 @@ public class Projectile {
 			for (Agent agent : agents) {
 				agent.applyDamage(damage);
 				getOwner().awardPoints(damage);
+				hit = true;
 				despawn();
 				return;
 			}
@@ -110,4 +177,9 @@ public class Projectile {
 	public double getSize() {
 		return size;
 	}
+
+	@Override
+	public final ChangeTracker getChanges() {
+		return changes;
+	}
 }
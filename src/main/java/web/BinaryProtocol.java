@@ -0,0 +1,514 @@
+package main.java.web;
+
+import java.awt.geom.Point2D;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import main.java.agent.Agent;
+import main.java.agent.PlayerAgent;
+import main.java.misc.ChangeTracker;
+import main.java.misc.Tracked;
+import main.java.projectile.Projectile;
+
+
+/**
+ * The binary wire format, sent in WebSocket binary frames. Every message starts
+ * with a version byte and a type byte. Integers are big-endian, varints are
+ * unsigned LEB128 and svarints are zigzag-encoded varints. Entities are
+ * identified by their net IDs rather than their UUIDs.
+ *
+ * A state frame holds: varint tick, svarint baseline, u8 keyframe, varint
+ * sequence number of the client's latest input applied, or 0 if none, f32 x and y
+ * velocity per tick of the client's own player; the spawned
+ * player agents, NPC agents and projectiles, then the updated player agents, NPC
+ * agents and projectiles, each a varint count followed by that many entities;
+ * then the despawned player agents, NPC agents and projectiles, the projectiles
+ * that hit something and the culled entities, each a varint count followed by
+ * that many varint IDs. A frame that carries chat and other messages ends with
+ * a varint count of them, each a varint length and UTF-8 bytes; one that carries
+ * none ends after the culled entities.
+ *
+ * An entity is a varint of its ID shifted left once, with the low bit set if
+ * it is coarse; a byte of ChangeTracker bits; and the fields of those bits in
+ * ascending bit order: POSITION as i16 x and y in eighths of a pixel, or as
+ * svarint x and y in whole pixels if coarse; ANGLE as i16 in units of
+ * PI / 32768, or as i8 in units of PI / 128 if coarse; HEALTH and MAX_HEALTH as svarints,
+ * POINTS as svarint points and svarint points left, TEAM as a 24-bit RGB color,
+ * SIZE as f32, and NAME as a varint length and UTF-8 bytes. The POSITION of a
+ * projectile is its trajectory instead: i16 origin x and y as above, f32 x and
+ * y velocity per tick, and the varint number of ticks since its launch tick.
+ *
+ * An input holds a byte of INPUT_* flags, followed by the i16 angle if
+ * INPUT_ANGLE is set, followed by the varint acknowledged tick if INPUT_ACK is set,
+ * followed by the varint sequence number of the input, or 0 if it has none.
+ *
+ * Version 2 added the spawned entities and INPUT_RESYNC. Version 3 replaced
+ * projectile positions with trajectories and added the projectiles that hit.
+ * Version 4 added coarse entities. Version 5 added the messages. Version 6 added
+ * input sequence numbers. Version 7 added the velocity of the client's player.
+ */
+public final class BinaryProtocol {
+	/** Bumped whenever the layout changes; clients offer the versions they can read. */
+	public static final int VERSION = 7;
+
+	public static final int TYPE_STATE = 1;
+	public static final int TYPE_INPUT = 2;
+
+	public static final int INPUT_UP = 1;
+	public static final int INPUT_DOWN = 1 << 1;
+	public static final int INPUT_LEFT = 1 << 2;
+	public static final int INPUT_RIGHT = 1 << 3;
+	public static final int INPUT_FIRING = 1 << 4;
+	public static final int INPUT_ANGLE = 1 << 5;
+	public static final int INPUT_ACK = 1 << 6;
+	public static final int INPUT_RESYNC = 1 << 7;
+
+	/** Positions are quantized to 1 / POSITION_SCALE pixels. */
+	public static final double POSITION_SCALE = 8;
+	/** Angles are quantized to 1 / ANGLE_SCALE radians. */
+	public static final double ANGLE_SCALE = 32768 / Math.PI;
+
+	/** The fields each kind of entity has, matching the JSON frames. */
+	private static final int PLAYER_AGENT_FIELDS = ChangeTracker.ALL & ~ChangeTracker.SIZE;
+	private static final int NPC_AGENT_FIELDS = ChangeTracker.ALL & ~(ChangeTracker.POINTS | ChangeTracker.NAME);
+	private static final int PROJECTILE_FIELDS = ChangeTracker.POSITION | ChangeTracker.TEAM | ChangeTracker.SIZE;
+
+	/** An upper bound of the bytes a state frame without any entities takes. */
+	static final int FRAME_SIZE = 2 + 10 + 10 + 1 + 10 + 11 * 5;
+
+	private BinaryProtocol() {
+	}
+
+	/** Encodes a client's state frame. */
+	public static ByteBuffer encode(StateFrame frame) {
+		Output out = new Output();
+		encode(frame, out);
+		return out.toByteBuffer();
+	}
+
+	/** Encodes a client's state frame into a reusable output, replacing its contents. */
+	public static void encode(StateFrame frame, Output out) {
+		out.reset();
+		out.writeByte(VERSION);
+		out.writeByte(TYPE_STATE);
+		out.writeVarint(frame.getTick());
+		out.writeSvarint(frame.getBaseline());
+		out.writeByte(frame.isKeyframe() ? 1 : 0);
+		out.writeVarint(frame.getInputSequence());
+		out.writeFloat((float) frame.getVelocityX());
+		out.writeFloat((float) frame.getVelocityY());
+
+		long tick = frame.getTick();
+		writeEntries(out, tick, frame.getSpawnedPlayerAgents(), PLAYER_AGENT_FIELDS);
+		writeEntries(out, tick, frame.getSpawnedNPCAgents(), NPC_AGENT_FIELDS);
+		writeEntries(out, tick, frame.getSpawnedProjectiles(), PROJECTILE_FIELDS);
+		writeEntries(out, tick, frame.getPlayerAgents(), PLAYER_AGENT_FIELDS);
+		writeEntries(out, tick, frame.getNpcAgents(), NPC_AGENT_FIELDS);
+		writeEntries(out, tick, frame.getProjectiles(), PROJECTILE_FIELDS);
+
+		writeIDs(out, frame.getDespawnedPlayerAgents());
+		writeIDs(out, frame.getDespawnedNPCAgents());
+		writeIDs(out, frame.getDespawnedProjectiles());
+		writeIDs(out, frame.getHitProjectiles());
+		writeIDs(out, frame.getCulled());
+	}
+
+	private static void writeEntries(Output out, long tick,
+			List<? extends StateFrame.Entry<? extends Tracked>> entries, int supportedFields) {
+		out.writeVarint(entries.size());
+		for (StateFrame.Entry<? extends Tracked> entry : entries) {
+			writeEntity(out, tick, entry.getEntity(), entry.getFields() & supportedFields, entry.isCoarse());
+		}
+	}
+
+	private static void writeEntity(Output out, long tick, Tracked entity, int fields, boolean coarse) {
+		out.writeVarint((long) entity.getNetID() << 1 | (coarse ? 1 : 0));
+		out.writeByte(fields);
+		if ((fields & ChangeTracker.POSITION) != 0 && entity instanceof Projectile) {
+			Projectile projectile = (Projectile) entity;
+			Point2D.Double origin = projectile.getOrigin();
+			out.writeShort(quantizePosition(origin.getX()));
+			out.writeShort(quantizePosition(origin.getY()));
+			out.writeFloat((float) projectile.getVelocityX());
+			out.writeFloat((float) projectile.getVelocityY());
+			out.writeVarint(Math.max(0, tick - projectile.getLaunchTick()));
+		} else if ((fields & ChangeTracker.POSITION) != 0 && coarse) {
+			Point2D.Double point = entity.getPosition();
+			out.writeSvarint(Math.round(point.getX()));
+			out.writeSvarint(Math.round(point.getY()));
+		} else if ((fields & ChangeTracker.POSITION) != 0) {
+			Point2D.Double point = entity.getPosition();
+			out.writeShort(quantizePosition(point.getX()));
+			out.writeShort(quantizePosition(point.getY()));
+		}
+		if ((fields & ChangeTracker.ANGLE) != 0 && coarse) {
+			// Rounding up from just below PI wraps around to -PI here too.
+			out.writeByte((quantizeAngle(((Agent) entity).getAngle()) + 128) >> 8);
+		} else if ((fields & ChangeTracker.ANGLE) != 0) {
+			out.writeShort(quantizeAngle(((Agent) entity).getAngle()));
+		}
+		if ((fields & ChangeTracker.HEALTH) != 0) {
+			out.writeSvarint(((Agent) entity).getHealth());
+		}
+		if ((fields & ChangeTracker.MAX_HEALTH) != 0) {
+			out.writeSvarint(((Agent) entity).getMaxHealth());
+		}
+		if ((fields & ChangeTracker.POINTS) != 0) {
+			out.writeSvarint(((PlayerAgent) entity).getPoints());
+			out.writeSvarint(((PlayerAgent) entity).getPointsUntilLevelUp());
+		}
+		if ((fields & ChangeTracker.TEAM) != 0) {
+			String color = entity instanceof Agent
+				? ((Agent) entity).getHexColor() : ((Projectile) entity).getHexColor();
+			int rgb = Integer.decode(color);
+			out.writeByte(rgb >> 16);
+			out.writeShort(rgb);
+		}
+		if ((fields & ChangeTracker.SIZE) != 0) {
+			double size = entity instanceof Agent
+				? ((Agent) entity).getSize() : ((Projectile) entity).getSize();
+			out.writeFloat((float) size);
+		}
+		if ((fields & ChangeTracker.NAME) != 0) {
+			byte[] name = ((PlayerAgent) entity).getName().getBytes(StandardCharsets.UTF_8);
+			out.writeVarint(name.length);
+			out.writeBytes(name);
+		}
+	}
+
+	/** Returns an upper bound of the bytes the given ChangeTracker fields of an entity take in a state frame. */
+	static int estimateSize(Tracked entity, int fields) {
+		if (entity instanceof PlayerAgent) {
+			fields &= PLAYER_AGENT_FIELDS;
+		} else if (entity instanceof Projectile) {
+			fields &= PROJECTILE_FIELDS;
+		} else {
+			fields &= NPC_AGENT_FIELDS;
+		}
+		int size = 5 + 1;
+		if ((fields & ChangeTracker.POSITION) != 0) {
+			size += entity instanceof Projectile ? 2 + 2 + 4 + 4 + 5 : 2 + 2;
+		}
+		if ((fields & ChangeTracker.ANGLE) != 0) {
+			size += 2;
+		}
+		if ((fields & ChangeTracker.HEALTH) != 0) {
+			size += 5;
+		}
+		if ((fields & ChangeTracker.MAX_HEALTH) != 0) {
+			size += 5;
+		}
+		if ((fields & ChangeTracker.POINTS) != 0) {
+			size += 5 + 5;
+		}
+		if ((fields & ChangeTracker.TEAM) != 0) {
+			size += 3;
+		}
+		if ((fields & ChangeTracker.SIZE) != 0) {
+			size += 4;
+		}
+		if ((fields & ChangeTracker.NAME) != 0) {
+			size += 5 + 3 * ((PlayerAgent) entity).getName().length();
+		}
+		return size;
+	}
+
+	private static void writeIDs(Output out, List<? extends Tracked> entities) {
+		out.writeVarint(entities.size());
+		for (Tracked entity : entities) {
+			out.writeVarint(entity.getNetID());
+		}
+	}
+
+	/**
+	 * Decodes a state frame into the same structure as the JSON frames written by
+	 * JsonFrameWriter, with net IDs in place of UUIDs. This is what game.js does with
+	 * binary frames.
+	 * @throws IllegalArgumentException if the message is not a state frame of this version.
+	 */
+	public static JsonObject decodeFrame(ByteBuffer buffer) {
+		try {
+			readHeader(buffer, TYPE_STATE);
+			JsonObject element = new JsonObject();
+			long tick = readVarint(buffer);
+			element.add("tick", new JsonPrimitive(tick));
+			element.add("baseline", new JsonPrimitive(readSvarint(buffer)));
+			element.add("keyframe", new JsonPrimitive(buffer.get() != 0));
+			element.add("inputSeq", new JsonPrimitive(readVarint(buffer)));
+			element.add("vx", new JsonPrimitive(buffer.getFloat()));
+			element.add("vy", new JsonPrimitive(buffer.getFloat()));
+			element.add("spawnedPlayerAgents", readEntities(buffer, -1));
+			element.add("spawnedNPCAgents", readEntities(buffer, -1));
+			element.add("spawnedProjectiles", readEntities(buffer, tick));
+			element.add("playerAgents", readEntities(buffer, -1));
+			element.add("npcAgents", readEntities(buffer, -1));
+			element.add("projectiles", readEntities(buffer, tick));
+			element.add("despawnedPlayerAgents", readIDs(buffer));
+			element.add("despawnedNPCAgents", readIDs(buffer));
+			element.add("despawnedProjectiles", readIDs(buffer));
+			element.add("hitProjectiles", readIDs(buffer));
+			element.add("culled", readIDs(buffer));
+			if (buffer.hasRemaining()) {
+				element.add("messages", readMessages(buffer));
+			}
+			return element;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("truncated state frame", e);
+		}
+	}
+
+	/** Reads a list of entities. For projectiles, the tick is that of the frame; otherwise it is -1. */
+	private static JsonArray readEntities(ByteBuffer buffer, long tick) {
+		JsonArray array = new JsonArray();
+		long count = readVarint(buffer);
+		for (long i = 0; i < count; i++) {
+			JsonObject element = new JsonObject();
+			long id = readVarint(buffer);
+			boolean coarse = (id & 1) != 0;
+			element.add("id", new JsonPrimitive(id >>> 1));
+			int fields = buffer.get() & 0xFF;
+			if ((fields & ChangeTracker.POSITION) != 0 && tick >= 0) {
+				element.add("originX", new JsonPrimitive(buffer.getShort() / POSITION_SCALE));
+				element.add("originY", new JsonPrimitive(buffer.getShort() / POSITION_SCALE));
+				element.add("vx", new JsonPrimitive(buffer.getFloat()));
+				element.add("vy", new JsonPrimitive(buffer.getFloat()));
+				element.add("launchTick", new JsonPrimitive(tick - readVarint(buffer)));
+			} else if ((fields & ChangeTracker.POSITION) != 0 && coarse) {
+				element.add("x", new JsonPrimitive((double) readSvarint(buffer)));
+				element.add("y", new JsonPrimitive((double) readSvarint(buffer)));
+			} else if ((fields & ChangeTracker.POSITION) != 0) {
+				element.add("x", new JsonPrimitive(buffer.getShort() / POSITION_SCALE));
+				element.add("y", new JsonPrimitive(buffer.getShort() / POSITION_SCALE));
+			}
+			if ((fields & ChangeTracker.ANGLE) != 0 && coarse) {
+				element.add("angle", new JsonPrimitive(buffer.get() * 256 / ANGLE_SCALE));
+			} else if ((fields & ChangeTracker.ANGLE) != 0) {
+				element.add("angle", new JsonPrimitive(buffer.getShort() / ANGLE_SCALE));
+			}
+			if ((fields & ChangeTracker.HEALTH) != 0) {
+				element.add("health", new JsonPrimitive(readSvarint(buffer)));
+			}
+			if ((fields & ChangeTracker.MAX_HEALTH) != 0) {
+				element.add("maxHealth", new JsonPrimitive(readSvarint(buffer)));
+			}
+			if ((fields & ChangeTracker.POINTS) != 0) {
+				element.add("points", new JsonPrimitive(readSvarint(buffer)));
+				element.add("pointsLeft", new JsonPrimitive(readSvarint(buffer)));
+			}
+			if ((fields & ChangeTracker.TEAM) != 0) {
+				int rgb = (buffer.get() & 0xFF) << 16 | (buffer.getShort() & 0xFFFF);
+				element.add("color", new JsonPrimitive(String.format("0x%06X", rgb)));
+			}
+			if ((fields & ChangeTracker.SIZE) != 0) {
+				element.add("size", new JsonPrimitive(buffer.getFloat()));
+			}
+			if ((fields & ChangeTracker.NAME) != 0) {
+				byte[] name = new byte[(int) readVarint(buffer)];
+				buffer.get(name);
+				element.add("name", new JsonPrimitive(new String(name, StandardCharsets.UTF_8)));
+			}
+			array.add(element);
+		}
+		return array;
+	}
+
+	private static JsonArray readIDs(ByteBuffer buffer) {
+		JsonArray array = new JsonArray();
+		long count = readVarint(buffer);
+		for (long i = 0; i < count; i++) {
+			JsonObject element = new JsonObject();
+			element.add("id", new JsonPrimitive(readVarint(buffer)));
+			array.add(element);
+		}
+		return array;
+	}
+
+	private static JsonArray readMessages(ByteBuffer buffer) {
+		JsonArray array = new JsonArray();
+		long count = readVarint(buffer);
+		for (long i = 0; i < count; i++) {
+			byte[] message = new byte[(int) readVarint(buffer)];
+			buffer.get(message);
+			array.add(new JsonPrimitive(new String(message, StandardCharsets.UTF_8)));
+		}
+		return array;
+	}
+
+	/** Encodes the movement, aim, sequence number and acknowledgement of an input. Names and chat are sent as JSON. */
+	public static ByteBuffer encode(ClientInput input) {
+		int flags = (input.isUp() ? INPUT_UP : 0)
+			| (input.isDown() ? INPUT_DOWN : 0)
+			| (input.isLeft() ? INPUT_LEFT : 0)
+			| (input.isRight() ? INPUT_RIGHT : 0)
+			| (input.isFiring() ? INPUT_FIRING : 0)
+			| (input.hasAngle() ? INPUT_ANGLE : 0)
+			| (input.hasAck() ? INPUT_ACK : 0)
+			| (input.isResync() ? INPUT_RESYNC : 0);
+
+		Output out = new Output();
+		out.writeByte(VERSION);
+		out.writeByte(TYPE_INPUT);
+		out.writeByte(flags);
+		if (input.hasAngle()) {
+			out.writeShort(quantizeAngle(input.getAngle()));
+		}
+		if (input.hasAck()) {
+			out.writeVarint(input.getAck());
+		}
+		out.writeVarint(input.hasSequence() ? input.getSequence() : 0);
+		return out.toByteBuffer();
+	}
+
+	/**
+	 * Decodes an input message.
+	 * @throws IllegalArgumentException if the message is not an input of this version.
+	 */
+	public static ClientInput decodeInput(ByteBuffer buffer) {
+		ClientInput input = new ClientInput();
+		decodeInput(buffer, input);
+		return input;
+	}
+
+	/**
+	 * Decodes an input message into a reused input, replacing its contents.
+	 * @throws IllegalArgumentException if the message is not an input of this version.
+	 */
+	public static void decodeInput(ByteBuffer buffer, ClientInput input) {
+		input.reset();
+		try {
+			readHeader(buffer, TYPE_INPUT);
+			int flags = buffer.get() & 0xFF;
+			input.setUp((flags & INPUT_UP) != 0);
+			input.setDown((flags & INPUT_DOWN) != 0);
+			input.setLeft((flags & INPUT_LEFT) != 0);
+			input.setRight((flags & INPUT_RIGHT) != 0);
+			input.setIsFiring((flags & INPUT_FIRING) != 0);
+			input.setResync((flags & INPUT_RESYNC) != 0);
+			if ((flags & INPUT_ANGLE) != 0) {
+				input.setAngle(buffer.getShort() / ANGLE_SCALE);
+			}
+			if ((flags & INPUT_ACK) != 0) {
+				input.setAck(readVarint(buffer));
+			}
+			long sequence = readVarint(buffer);
+			if (sequence != 0) {
+				input.setSequence(sequence);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("truncated input", e);
+		}
+	}
+
+	private static void readHeader(ByteBuffer buffer, int expectedType) {
+		int version = buffer.get() & 0xFF;
+		int type = buffer.get() & 0xFF;
+		if (version != VERSION) {
+			throw new IllegalArgumentException("unsupported protocol version " + version);
+		}
+		if (type != expectedType) {
+			throw new IllegalArgumentException("unexpected message type " + type);
+		}
+	}
+
+	/** Rounds a coordinate to the nearest representable position, clamped to the i16 range. */
+	static short quantizePosition(double coordinate) {
+		long value = Math.round(coordinate * POSITION_SCALE);
+		return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+	}
+
+	/** Wraps an angle into [-PI, PI) and rounds it to the nearest representable angle. */
+	static short quantizeAngle(double angle) {
+		double wrapped = angle - 2 * Math.PI * Math.floor((angle + Math.PI) / (2 * Math.PI));
+		// Rounding up from just below PI wraps around to -PI.
+		return (short) Math.round(wrapped * ANGLE_SCALE);
+	}
+
+	private static long readVarint(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("malformed varint");
+	}
+
+	private static long readSvarint(ByteBuffer buffer) {
+		long value = readVarint(buffer);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/** A growable big-endian byte array, which can be reused between messages. */
+	public static final class Output {
+		private byte[] bytes = new byte[256];
+		private int length = 0;
+
+		public void reset() {
+			length = 0;
+		}
+
+		public int length() {
+			return length;
+		}
+
+		/** Copies the bytes written into the buffer. */
+		public void copyTo(ByteBuffer dst) {
+			dst.put(bytes, 0, length);
+		}
+
+		private void ensureCapacity(int extra) {
+			if (length + extra > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+			}
+		}
+
+		void writeByte(int value) {
+			ensureCapacity(1);
+			bytes[length++] = (byte) value;
+		}
+
+		void writeShort(int value) {
+			ensureCapacity(2);
+			bytes[length++] = (byte) (value >> 8);
+			bytes[length++] = (byte) value;
+		}
+
+		void writeFloat(float value) {
+			int bits = Float.floatToIntBits(value);
+			writeShort(bits >> 16);
+			writeShort(bits);
+		}
+
+		void writeVarint(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7FL) != 0) {
+				bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte) value;
+		}
+
+		void writeSvarint(long value) {
+			writeVarint((value << 1) ^ (value >> 63));
+		}
+
+		void writeBytes(byte[] value) {
+			ensureCapacity(value.length);
+			System.arraycopy(value, 0, bytes, length, value.length);
+			length += value.length;
+		}
+
+		ByteBuffer toByteBuffer() {
+			return ByteBuffer.wrap(bytes, 0, length);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package main.java.web;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A pool of direct ByteBuffers for outbound messages, in power-of-two size
+ * classes. Buffers are reference-counted PooledBuffers: each session a message
+ * is sent to holds a reference until its write callback completes, and the
+ * buffer returns to the pool when the last reference is released. Once the
+ * pool has warmed up, acquiring and releasing buffers allocates nothing.
+ *
+ * With leak detection on, every acquisition records where it happened, and a
+ * buffer that is garbage collected without being released is reported along
+ * with that trace.
+ */
+public final class BufferPool {
+	/** Set this system property to true to turn on leak detection for the server's pool. */
+	public static final String LEAK_DETECTION_PROPERTY = "bufferPool.leakDetection";
+
+	/** The smallest size class, 1 KiB */
+	private static final int MIN_SHIFT = 10;
+	/** The largest size class, 1 MiB. Larger buffers are allocated on demand and not pooled. */
+	private static final int MAX_SHIFT = 20;
+	/** Free buffers kept per size class; any beyond this are left to the garbage collector. */
+	private static final int MAX_FREE_PER_CLASS = 64;
+
+	private final PooledBuffer[][] free = new PooledBuffer[MAX_SHIFT - MIN_SHIFT + 1][MAX_FREE_PER_CLASS];
+	private final int[] freeCount = new int[MAX_SHIFT - MIN_SHIFT + 1];
+
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private final boolean leakDetection;
+	private final ReferenceQueue<PooledBuffer> collected = new ReferenceQueue<>();
+	/** Keeps the trackers of outstanding buffers reachable until they are released or reported. */
+	private final Set<LeakTracker> trackers = Collections.newSetFromMap(new ConcurrentHashMap<LeakTracker, Boolean>());
+	private final AtomicLong leaks = new AtomicLong();
+
+	/** Records where a buffer was acquired, and is enqueued if the buffer is collected unreleased. */
+	static final class LeakTracker extends PhantomReference<PooledBuffer> {
+		private final Throwable acquiredAt;
+
+		LeakTracker(PooledBuffer buffer, ReferenceQueue<PooledBuffer> queue) {
+			super(buffer, queue);
+			this.acquiredAt = new Throwable("Pooled buffer acquired here");
+		}
+	}
+
+	public BufferPool() {
+		this(false);
+	}
+
+	public BufferPool(boolean leakDetection) {
+		this.leakDetection = leakDetection;
+	}
+
+	/** Returns a buffer with at least the given capacity, cleared, holding one reference. */
+	public PooledBuffer acquire(int capacity) {
+		if (leakDetection) {
+			reportLeaks();
+		}
+		int sizeClass = sizeClass(capacity);
+		PooledBuffer buffer = null;
+		if (sizeClass >= 0) {
+			synchronized (free[sizeClass]) {
+				if (freeCount[sizeClass] > 0) {
+					buffer = free[sizeClass][--freeCount[sizeClass]];
+					free[sizeClass][freeCount[sizeClass]] = null;
+				}
+			}
+			if (buffer == null) {
+				buffer = new PooledBuffer(this, ByteBuffer.allocateDirect(1 << (sizeClass + MIN_SHIFT)), sizeClass);
+			}
+		} else {
+			buffer = new PooledBuffer(this, ByteBuffer.allocateDirect(capacity), -1);
+		}
+
+		buffer.getBuffer().clear();
+		buffer.open();
+		outstanding.incrementAndGet();
+		if (leakDetection) {
+			LeakTracker tracker = new LeakTracker(buffer, collected);
+			trackers.add(tracker);
+			buffer.setTracker(tracker);
+		}
+		return buffer;
+	}
+
+	/** Called by a PooledBuffer when its last reference is released. */
+	void recycle(PooledBuffer buffer) {
+		outstanding.decrementAndGet();
+		LeakTracker tracker = buffer.setTracker(null);
+		if (tracker != null) {
+			trackers.remove(tracker);
+			tracker.clear();
+		}
+
+		int sizeClass = buffer.getSizeClass();
+		if (sizeClass >= 0) {
+			synchronized (free[sizeClass]) {
+				if (freeCount[sizeClass] < MAX_FREE_PER_CLASS) {
+					free[sizeClass][freeCount[sizeClass]++] = buffer;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reports every buffer that was garbage collected without being released
+	 * since the last call, and returns how many there were. Only buffers
+	 * acquired with leak detection on can be reported.
+	 */
+	public int reportLeaks() {
+		int count = 0;
+		LeakTracker tracker;
+		while ((tracker = (LeakTracker) collected.poll()) != null) {
+			trackers.remove(tracker);
+			outstanding.decrementAndGet();
+			leaks.incrementAndGet();
+			count++;
+			System.err.println("[SERVER] LEAK: a pooled buffer was garbage collected without being released.");
+			tracker.acquiredAt.printStackTrace(System.err);
+		}
+		return count;
+	}
+
+	/** Returns the number of buffers acquired and not yet released. */
+	public int getOutstanding() {
+		return outstanding.get();
+	}
+
+	/** Returns the number of leaked buffers reported so far. */
+	public long getLeakCount() {
+		return leaks.get();
+	}
+
+	public boolean isLeakDetection() {
+		return leakDetection;
+	}
+
+	/** Returns the index of the smallest size class that fits, or -1 if none does. */
+	private static int sizeClass(int capacity) {
+		if (capacity <= 1 << MIN_SHIFT) {
+			return 0;
+		}
+		int shift = 32 - Integer.numberOfLeadingZeros(capacity - 1);
+		return shift <= MAX_SHIFT ? shift - MIN_SHIFT : -1;
+	}
+}
@@ -2,6 +2,7 @@ package main.java.web;
 
 /**
  * POJO representing information that each client can send to the server.
+ * Sockets reuse one for every input they read, so it can be reset.
  */
 
 
@@ -14,13 +15,67 @@ public class ClientInput {
 	private boolean left = false;
 	private boolean right = false;
 	private boolean isFiring = false;	
-	private Double angle;
+	private double angle;
+	private boolean hasAngle = false;
+	/** The tick of the latest state frame the client received. */
+	private long ack;
+	private boolean hasAck = false;
+	/** The client's number of this input, echoed in the state frames that reflect it. */
+	private long sequence;
+	private boolean hasSequence = false;
+	/** The names of the WireFormats the client can read, sent when joining. */
+	private String[] protocols;
+	/** Set when the client lost track of entities and needs them all spawned again. */
+	private boolean resync = false;
 
 	
 	public ClientInput() {
 		
 	}
 
+	/** Copies another input, e.g. one that is about to be reused. */
+	public ClientInput(ClientInput other) {
+		set(other);
+	}
+
+	/** Replaces every field with those of another input. */
+	public void set(ClientInput other) {
+		name = other.name;
+		message = other.message;
+		up = other.up;
+		down = other.down;
+		left = other.left;
+		right = other.right;
+		isFiring = other.isFiring;
+		angle = other.angle;
+		hasAngle = other.hasAngle;
+		ack = other.ack;
+		hasAck = other.hasAck;
+		sequence = other.sequence;
+		hasSequence = other.hasSequence;
+		protocols = other.protocols;
+		resync = other.resync;
+	}
+
+	/** Clears every field, as if the input had just been constructed. */
+	public void reset() {
+		name = null;
+		message = null;
+		up = false;
+		down = false;
+		left = false;
+		right = false;
+		isFiring = false;
+		angle = 0;
+		hasAngle = false;
+		ack = 0;
+		hasAck = false;
+		sequence = 0;
+		hasSequence = false;
+		protocols = null;
+		resync = false;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -81,11 +136,64 @@ public class ClientInput {
 		return left || right || up || down;
 	}
 
+	/** Returns true if the input carries a new aim. */
+	public boolean hasAngle() {
+		return hasAngle;
+	}
+
 	public void setAngle(double angle) {
 		this.angle = angle;
+		this.hasAngle = true;
 	}
 
-	public Double getAngle() {
+	/** Returns the aim, which is only meaningful if hasAngle. */
+	public double getAngle() {
 		return angle;
 	}
+
+	/** Returns true if the input acknowledges a state frame. */
+	public boolean hasAck() {
+		return hasAck;
+	}
+
+	/** Returns the acknowledged tick, which is only meaningful if hasAck. */
+	public long getAck() {
+		return ack;
+	}
+
+	public void setAck(long ack) {
+		this.ack = ack;
+		this.hasAck = true;
+	}
+
+	/** Returns true if the client numbered the input. */
+	public boolean hasSequence() {
+		return hasSequence;
+	}
+
+	/** Returns the input's sequence number, which is only meaningful if hasSequence. */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+		this.hasSequence = true;
+	}
+
+	public boolean isResync() {
+		return resync;
+	}
+
+	public void setResync(boolean resync) {
+		this.resync = resync;
+	}
+
+	public String[] getProtocols() {
+		return protocols;
+	}
+
+	public void setProtocols(String[] protocols) {
+		this.protocols = protocols;
+	}
 }
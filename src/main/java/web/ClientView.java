@@ -0,0 +1,516 @@
+package main.java.web;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.eclipse.jetty.websocket.api.Session;
+
+import main.java.agent.NPCAgent;
+import main.java.agent.PlayerAgent;
+import main.java.environment.Environment;
+import main.java.misc.ChangeTracker;
+import main.java.misc.Tracked;
+import main.java.misc.Vector2D;
+import main.java.projectile.Projectile;
+
+
+/**
+ * What one client is known to have received. Frames are deltas against the
+ * last frame the client acknowledged, so a frame that never arrives costs
+ * nothing more than resending its changes in the next one.
+ *
+ * An entity is spawned on the client with all of its fields, and spawned again
+ * in every frame until one of them is acknowledged; after that it only gets
+ * updates of its dynamic fields, even in keyframes. A change to a static field
+ * spawns it again. A client that joins late, or asks to resync, starts without
+ * a baseline and so has everything around it spawned.
+ *
+ * Projectiles are spawned with their trajectory, which the client extrapolates,
+ * so after that they are only listed in keyframes until they despawn or hit.
+ *
+ * Each frame is filled up to a byte budget, estimated for the client's wire
+ * format. The client's own player always goes first, then threats close to it,
+ * then everything else nearest first; each frame an entity is left out raises
+ * its priority, so that far entities are still refreshed eventually. An entity
+ * left out is deferred: a spawn is retried later, and updates are resent from
+ * the last tick the client is known to have the entity at, so acknowledging a
+ * frame that left an entity out loses none of its changes. Keyframes still list
+ * deferred entities the client knows, and removals are never deferred, so those
+ * may go over the budget.
+ *
+ * How often and how precisely an entity is updated depends on its DetailLevel,
+ * chosen by its distance from the client's player. Updates held back for their
+ * turn are owed just like deferred ones. An entity coming near after coarse
+ * updates has its position and angle sent again at full precision.
+ */
+public class ClientView {
+	/** A full keyframe is sent at least this often, in ticks. */
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 10 * Environment.TICK_RATE;
+	/** Frames are filled up to this many bytes by default. */
+	public static final int DEFAULT_FRAME_BUDGET = 16 * 1024;
+	/** NPCs and others' projectiles this close to the client's player go before anything else, in pixels. */
+	public static final double THREAT_RADIUS = 400;
+	/** Entities within these distances of the client's player are followed at NEAR, MID and DISTANT
+	 *  detail respectively, and at FAR detail beyond, in pixels. */
+	public static final double DEFAULT_NEAR_RADIUS = 500;
+	public static final double DEFAULT_MID_RADIUS = 800;
+	public static final double DEFAULT_DISTANT_RADIUS = 1100;
+	/** Added to an entity's priority for every frame in a row it was deferred from. */
+	private static final double STALENESS_BOOST = 0.25;
+
+	/** No frame has been acknowledged yet. */
+	private static final long NO_BASELINE = -1;
+	/** Returned by fieldsToSend, along with the field bits, for an entity to spawn. */
+	private static final int SPAWN = 1 << ChangeTracker.FIELD_COUNT;
+	/** Returned by fieldsToSend for an entity to list without any fields. */
+	private static final int LISTED = 1 << (ChangeTracker.FIELD_COUNT + 1);
+	/** A tick later than any other, for things that have not happened. */
+	private static final long NEVER = Long.MAX_VALUE;
+
+	/** An entity in this client's area of interest. */
+	private static class KnownEntity {
+		private final Tracked entity;
+		/** tick of the first of the frames in a row that spawned the entity, or NEVER while its spawn is deferred */
+		private long since = NEVER;
+		/** whether the client may have the entity */
+		private boolean sent;
+		/** tick of the latest frame the entity was present for */
+		private long seen;
+		/** the tick the client is known to have the entity's fields at, if an update was deferred, or NEVER */
+		private long owedSince = NEVER;
+		/** tick of the first of the frames in a row that carried every change since owedSince, or NEVER */
+		private long catchUpTick = NEVER;
+		/** how many frames in a row the entity was deferred from */
+		private int deferrals;
+		/** whether changes were held back for the entity's DetailLevel in the frame being built */
+		private boolean held;
+		/** whether the client was last sent the entity's position and angle at coarse precision */
+		private boolean coarse;
+
+		KnownEntity(Tracked entity) {
+			this.entity = entity;
+		}
+	}
+
+	/** An entity that has something to send in the frame being built. */
+	private static class Candidate {
+		private KnownEntity entry;
+		private int fields;
+		private boolean coarse;
+		private int size;
+		private double priority;
+	}
+
+	/** Highest priority first. */
+	private static final Comparator<Candidate> BY_PRIORITY = new Comparator<Candidate>() {
+		@Override
+		public int compare(Candidate a, Candidate b) {
+			return Double.compare(b.priority, a.priority);
+		}
+	};
+
+	/** An entity removal that must be resent until acknowledged. */
+	private static class Removal {
+		private final Tracked entity;
+		private final long tick;
+
+		Removal(Tracked entity, long tick) {
+			this.entity = entity;
+			this.tick = tick;
+		}
+	}
+
+	private final Session session;
+	private final PlayerAgent agent;
+	private final WireFormat wireFormat;
+	private int keyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+	private int frameBudget = DEFAULT_FRAME_BUDGET;
+	private double nearRadius = DEFAULT_NEAR_RADIUS;
+	private double midRadius = DEFAULT_MID_RADIUS;
+	private double distantRadius = DEFAULT_DISTANT_RADIUS;
+	/** Counts the frames built, to give each entity its turn for its DetailLevel. */
+	private long frameCount;
+	private final SendRate sendRate = new SendRate();
+	private final InputJitterBuffer inputBuffer = new InputJitterBuffer();
+
+	/** Written by the socket thread, read by the simulation thread. */
+	private volatile long ackedTick = NO_BASELINE;
+	private volatile boolean resyncRequested;
+	private long lastSentTick = NO_BASELINE;
+	private long lastKeyframeTick = NO_BASELINE;
+
+	private final Map<UUID, KnownEntity> known = new HashMap<>();
+	private final Map<UUID, Removal> removals = new HashMap<>();
+	/** The candidates of the frame being built, and every Candidate ever allocated, for reuse. */
+	private final List<Candidate> candidates = new ArrayList<>();
+	private final List<Candidate> candidatePool = new ArrayList<>();
+	private long deferredEntities;
+
+	public ClientView(Session session, PlayerAgent agent) {
+		this(session, agent, WireFormat.JSON);
+	}
+
+	public ClientView(Session session, PlayerAgent agent, WireFormat wireFormat) {
+		this.session = session;
+		this.agent = agent;
+		this.wireFormat = wireFormat;
+	}
+
+	public Session getSession() {
+		return session;
+	}
+
+	public PlayerAgent getAgent() {
+		return agent;
+	}
+
+	public WireFormat getWireFormat() {
+		return wireFormat;
+	}
+
+	/** Returns how often this client is sent frames. */
+	public SendRate getSendRate() {
+		return sendRate;
+	}
+
+	/** Returns the buffer this client's inputs wait in until their tick. */
+	public InputJitterBuffer getInputBuffer() {
+		return inputBuffer;
+	}
+
+	public long getAckedTick() {
+		return ackedTick;
+	}
+
+	public int getKeyframeInterval() {
+		return keyframeInterval;
+	}
+
+	public void setKeyframeInterval(int keyframeInterval) {
+		if (keyframeInterval < 1) {
+			throw new IllegalArgumentException("keyframe interval must be positive");
+		}
+		this.keyframeInterval = keyframeInterval;
+	}
+
+	/** Returns the number of bytes frames are filled up to, as estimated for the wire format. */
+	public int getFrameBudget() {
+		return frameBudget;
+	}
+
+	public void setFrameBudget(int frameBudget) {
+		if (frameBudget < 1) {
+			throw new IllegalArgumentException("frame budget must be positive");
+		}
+		this.frameBudget = frameBudget;
+	}
+
+	public double getNearRadius() {
+		return nearRadius;
+	}
+
+	public double getMidRadius() {
+		return midRadius;
+	}
+
+	public double getDistantRadius() {
+		return distantRadius;
+	}
+
+	/** Sets the distances within which entities are followed at NEAR, MID and DISTANT detail, in pixels. */
+	public void setDetailRadii(double nearRadius, double midRadius, double distantRadius) {
+		if (nearRadius < 0 || midRadius < nearRadius || distantRadius < midRadius) {
+			throw new IllegalArgumentException("detail radii must not be negative, and must not decrease");
+		}
+		this.nearRadius = nearRadius;
+		this.midRadius = midRadius;
+		this.distantRadius = distantRadius;
+	}
+
+	/** Returns how closely this client follows an entity at the given distance from its player. */
+	public DetailLevel getDetailLevel(double distance) {
+		if (distance <= nearRadius) {
+			return DetailLevel.NEAR;
+		} else if (distance <= midRadius) {
+			return DetailLevel.MID;
+		} else if (distance <= distantRadius) {
+			return DetailLevel.DISTANT;
+		}
+		return DetailLevel.FAR;
+	}
+
+	/** Returns how many times an entity was left out of a frame to keep it within the budget. */
+	public long getDeferredEntities() {
+		return deferredEntities;
+	}
+
+	/** Records that the client received the frame of the given tick. Acks for
+	 *  frames that were never sent, or older than the last ack, are ignored. */
+	public synchronized void acknowledge(long tick) {
+		if (tick > ackedTick && tick <= lastSentTick) {
+			ackedTick = tick;
+		}
+	}
+
+	/** Makes the next frame a keyframe that spawns every entity again, for a client that lost track of them. */
+	public void resync() {
+		resyncRequested = true;
+	}
+
+	/** Builds this client's frame for the given state. Called only by the simulation thread. */
+	public StateFrame buildFrame(GameState state) {
+		return buildFrame(state, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Builds this client's frame for the entities of the given state around its agent.
+	 * An entity the client does not know yet is only sent once it comes within the
+	 * interest radius; the state may hold known entities somewhat further out, so that
+	 * entities near the edge are not repeatedly culled and resent.
+	 */
+	public StateFrame buildFrame(GameState state, double interestRadius) {
+		long tick = state.getTick();
+		Point2D.Double center = agent.getPosition();
+		if (resyncRequested) {
+			resyncRequested = false;
+			known.clear();
+			removals.clear();
+			synchronized (this) {
+				ackedTick = NO_BASELINE;
+			}
+		}
+		long baseline = ackedTick;
+		boolean keyframe = baseline == NO_BASELINE || tick - lastKeyframeTick >= keyframeInterval;
+		if (keyframe) {
+			lastKeyframeTick = tick;
+		}
+		Vector2D velocity = agent.getVelocity();
+		StateFrame frame = new StateFrame(tick, keyframe ? NO_BASELINE : baseline, keyframe,
+			agent.getInputSequence(), velocity.getMagnitude() * Math.cos(velocity.getAngle()),
+			velocity.getMagnitude() * Math.sin(velocity.getAngle()));
+		frameCount++;
+
+		candidates.clear();
+		for (PlayerAgent entity : state.getPlayerAgents()) {
+			addCandidate(entity, tick, baseline, keyframe, center, interestRadius);
+		}
+		for (NPCAgent entity : state.getNpcAgents()) {
+			addCandidate(entity, tick, baseline, keyframe, center, interestRadius);
+		}
+		for (Projectile entity : state.getProjectiles()) {
+			addCandidate(entity, tick, baseline, keyframe, center, interestRadius);
+		}
+
+		// Anything known that was not in this state has been despawned or culled.
+		Iterator<KnownEntity> knownIterator = known.values().iterator();
+		while (knownIterator.hasNext()) {
+			KnownEntity entry = knownIterator.next();
+			if (entry.seen != tick) {
+				knownIterator.remove();
+				if (entry.sent) {
+					removals.put(entry.entity.getID(), new Removal(entry.entity, tick));
+				}
+			}
+		}
+
+		// Removals are repeated until a frame carrying them is acknowledged.
+		int size = wireFormat.estimateFrameSize();
+		Iterator<Removal> removalIterator = removals.values().iterator();
+		while (removalIterator.hasNext()) {
+			Removal removal = removalIterator.next();
+			if (removal.tick <= baseline) {
+				removalIterator.remove();
+				continue;
+			} else if (!removal.entity.getChanges().isDespawned()) {
+				frame.getCulled().add(removal.entity);
+			} else if (removal.entity instanceof PlayerAgent) {
+				frame.getDespawnedPlayerAgents().add((PlayerAgent) removal.entity);
+			} else if (removal.entity instanceof NPCAgent) {
+				frame.getDespawnedNPCAgents().add((NPCAgent) removal.entity);
+			} else if (((Projectile) removal.entity).isHit()) {
+				frame.getHitProjectiles().add((Projectile) removal.entity);
+			} else {
+				frame.getDespawnedProjectiles().add((Projectile) removal.entity);
+			}
+			size += wireFormat.estimateEntitySize(removal.entity, 0);
+		}
+
+		// Fill the rest of the budget in order of priority, deferring whatever does not fit.
+		Collections.sort(candidates, BY_PRIORITY);
+		for (Candidate candidate : candidates) {
+			KnownEntity entry = candidate.entry;
+			if (entry.entity == agent || size + candidate.size <= frameBudget) {
+				size += candidate.size;
+				if ((candidate.fields & SPAWN) != 0 && entry.since == NEVER) {
+					entry.since = tick;
+				}
+				if (entry.owedSince != NEVER && entry.catchUpTick == NEVER && !entry.held) {
+					entry.catchUpTick = tick;
+				}
+				if ((candidate.fields & (ChangeTracker.POSITION | ChangeTracker.ANGLE)) != 0) {
+					entry.coarse = candidate.coarse;
+				}
+				entry.sent |= (candidate.fields & SPAWN) != 0;
+				entry.deferrals = 0;
+				addEntry(frame, entry.entity, candidate.fields, candidate.coarse);
+				continue;
+			}
+
+			deferredEntities++;
+			entry.deferrals++;
+			if ((candidate.fields & SPAWN) != 0) {
+				// No frame from here on spawns it until it fits again.
+				entry.since = NEVER;
+			} else {
+				hold(entry, baseline);
+				if (keyframe) {
+					// Keyframes list every entity, so the client does not drop it.
+					size += wireFormat.estimateEntitySize(entry.entity, 0);
+					addEntry(frame, entry.entity, LISTED, false);
+				}
+			}
+		}
+
+		synchronized (this) {
+			lastSentTick = tick;
+		}
+		return frame;
+	}
+
+	/** Adds an entity to the frame's list for its kind, as a spawn or an update as the fields say. */
+	private static void addEntry(StateFrame frame, Tracked entity, int fields, boolean coarse) {
+		if (entity instanceof PlayerAgent) {
+			addEntry(frame.getSpawnedPlayerAgents(), frame.getPlayerAgents(), (PlayerAgent) entity, fields, coarse);
+		} else if (entity instanceof NPCAgent) {
+			addEntry(frame.getSpawnedNPCAgents(), frame.getNpcAgents(), (NPCAgent) entity, fields, coarse);
+		} else {
+			addEntry(frame.getSpawnedProjectiles(), frame.getProjectiles(), (Projectile) entity, fields, coarse);
+		}
+	}
+
+	private static <T> void addEntry(List<StateFrame.Entry<T>> spawned, List<StateFrame.Entry<T>> updated,
+			T entity, int fields, boolean coarse) {
+		if ((fields & SPAWN) != 0) {
+			spawned.add(new StateFrame.Entry<>(entity, fields & ~SPAWN, false));
+		} else if (fields != 0) {
+			updated.add(new StateFrame.Entry<>(entity, fields & ~LISTED, coarse));
+		}
+	}
+
+	/** Records that the client is owed changes of the entity that this frame leaves out. */
+	private static void hold(KnownEntity entry, long baseline) {
+		if (entry.owedSince == NEVER) {
+			entry.owedSince = baseline;
+		}
+		entry.catchUpTick = NEVER;
+	}
+
+	/** Adds an entity present in this tick to the candidates if it has anything to send. */
+	private void addCandidate(Tracked entity, long tick, long baseline, boolean keyframe,
+			Point2D.Double center, double interestRadius) {
+		if (entity.getChanges().isDespawned()) {
+			return;
+		}
+		double distance = entity.getPosition().distance(center);
+		KnownEntity entry = known.get(entity.getID());
+		if (entry == null) {
+			if (distance > interestRadius) {
+				return;
+			}
+			entry = new KnownEntity(entity);
+			known.put(entity.getID(), entry);
+			// If the client may not have applied its removal yet, it has to be removed again should it leave.
+			entry.sent = removals.remove(entity.getID()) != null;
+		}
+		entry.seen = tick;
+
+		DetailLevel level = getDetailLevel(distance);
+		int fields = fieldsToSend(entry, baseline, keyframe, level);
+		if (fields == 0) {
+			return;
+		}
+		if (candidates.size() == candidatePool.size()) {
+			candidatePool.add(new Candidate());
+		}
+		Candidate candidate = candidatePool.get(candidates.size());
+		candidate.entry = entry;
+		candidate.fields = fields;
+		candidate.coarse = (fields & SPAWN) == 0 && level.isCoarse();
+		candidate.size = wireFormat.estimateEntitySize(entity, fields & ChangeTracker.ALL);
+		candidate.priority = getPriority(entry, distance);
+		candidates.add(candidate);
+	}
+
+	/**
+	 * Returns the ChangeTracker bits to send for a known entity present in this tick,
+	 * with SPAWN set if it is to be spawned, or 0 to skip it.
+	 */
+	private int fieldsToSend(KnownEntity entry, long baseline, boolean keyframe, DetailLevel level) {
+		entry.held = false;
+		// Once a frame that caught up on deferred changes is acknowledged, nothing is owed.
+		if (entry.catchUpTick <= baseline) {
+			entry.owedSince = NEVER;
+			entry.catchUpTick = NEVER;
+		}
+		// Until a frame spawning the entity is acknowledged, keep spawning it.
+		if (entry.since > baseline) {
+			return SPAWN | ChangeTracker.ALL;
+		}
+		int changed = entry.entity.getChanges().changedFieldsSince(Math.min(baseline, entry.owedSince));
+		// Static fields only travel with spawns, so a change to one spawns the entity again.
+		if ((changed & ChangeTracker.STATIC) != 0) {
+			return SPAWN | ChangeTracker.ALL;
+		}
+		if (changed == 0) {
+			entry.owedSince = NEVER;
+			entry.catchUpTick = NEVER;
+		}
+		if (entry.entity instanceof Projectile) {
+			// The client extrapolates the trajectory it was spawned with.
+			return keyframe ? LISTED : 0;
+		}
+		if (keyframe) {
+			return ChangeTracker.DYNAMIC;
+		}
+		if (entry.coarse && !level.isCoarse()) {
+			// It came near, so bring it up to full precision.
+			changed |= ChangeTracker.POSITION | ChangeTracker.ANGLE;
+		}
+		// Updates are spread over the frames by net ID, and the rest held until the entity's turn.
+		int fields = (frameCount + entry.entity.getNetID()) % level.getUpdateInterval() == 0
+			? changed & level.getFields() : 0;
+		if (fields != changed) {
+			entry.held = true;
+			hold(entry, baseline);
+		}
+		return fields;
+	}
+
+	/**
+	 * Returns how urgently an entity is to be sent: the client's own player before
+	 * anything, threats close to it next, then nearest first, with a boost for every
+	 * frame in a row the entity was deferred from.
+	 */
+	private double getPriority(KnownEntity entry, double distance) {
+		if (entry.entity == agent) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double priority = THREAT_RADIUS / (THREAT_RADIUS + distance);
+		if (distance <= THREAT_RADIUS && isThreat(entry.entity)) {
+			priority += 1;
+		}
+		return priority + STALENESS_BOOST * entry.deferrals;
+	}
+
+	private boolean isThreat(Tracked entity) {
+		return entity instanceof NPCAgent
+			|| (entity instanceof Projectile && ((Projectile) entity).getOwner() != agent);
+	}
+}
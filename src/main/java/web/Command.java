@@ -13,7 +13,11 @@ import org.eclipse.jetty.websocket.api.Session;
 
 
 
-/** Manages commands that a player can perform by typing in the chat window. */
+/**
+ * Manages commands that a player can perform by typing in the chat window. They
+ * are performed by the server's CommandExecutor, on the simulation thread if
+ * they override isMutating to say that they change the world.
+ */
 public enum Command {
 	// Pro tip: the order in which the commands are defined
 	// is the order they will appear when using "/commands".
@@ -73,6 +77,11 @@ public enum Command {
 			("Brings a player to you or to another player or to coordinates." +
 				"<br>Syntax: /bring username [username|x y]")
 		) {
+			@Override
+			public boolean isMutating() {
+				return true;
+			}
+
 			@Override
 			protected void perform(String[] args, Session session, GameSocket server) throws PlayerNotFoundException {
 				PlayerAgent caller = server.getPlayerAgentBySession(session);
@@ -131,6 +140,11 @@ public enum Command {
 			new String[] {"xp"},
 			"Gives a player experience points.<br>Syntax: /givexp [username] [amount]"
 		) {
+			@Override
+			public boolean isMutating() {
+				return true;
+			}
+
 			@Override
 			protected void perform(String[] args, Session sourceSession, GameSocket server) throws PlayerNotFoundException {
 				PlayerAgent target;
@@ -174,6 +188,11 @@ public enum Command {
 			new String[] {"tp"},
 			"Sends you to a player or to coordinates.<br>Syntax: /goto [player|x y]"
 		) {
+			@Override
+			public boolean isMutating() {
+				return true;
+			}
+
 			@Override
 			protected void perform(String[] args, Session session, GameSocket server) throws PlayerNotFoundException {
 				PlayerAgent caller = server.getPlayerAgentBySession(session);
@@ -201,6 +220,11 @@ public enum Command {
 			null,
 			"Heals a player to full health or by a given amount.<br>Syntax: /heal [username] [amount]"
 		) {
+			@Override
+			public boolean isMutating() {
+				return true;
+			}
+
 			@Override
 			protected void perform(String[] args, Session sourceSession, GameSocket server) throws PlayerNotFoundException {
 				PlayerAgent target;
@@ -258,7 +282,7 @@ public enum Command {
 					System.out.println("[SERVER] " + targetName +
                         " was kicked from the game by " + sourceName + ".");
 					server.unicast("You were kicked by " + sourceName + ".", targetSession);
-					targetSession.close();
+					server.closeWhenSent(targetSession);
 				}
 			}
 		},
@@ -266,6 +290,11 @@ public enum Command {
 			null,
 			"Kills a player.<br>Syntax: /kill username"
 		) {
+			@Override
+			public boolean isMutating() {
+				return true;
+			}
+
 			@Override
 			protected void perform(String[] args, Session sourceSession, GameSocket server) {
 				if (args.length != 2) {
@@ -286,6 +315,92 @@ public enum Command {
 				}
 			}
 		},
+	NETSTATS ("netstats",
+			new String[] {"queue"},
+			("Displays the outbound queue, refused messages, round trip, frame rate, frame budget and input jitter " +
+				"of your connection or that of another player. " +
+				"<br>Syntax: /netstats [username]")
+		) {
+			@Override
+			protected void perform(String[] args, Session session, GameSocket server) throws PlayerNotFoundException {
+				Session target;
+				if (args.length == 1) {
+					target = session;
+				} else if (args.length == 2) {
+					target = getSession(server, args[1]);
+				} else {
+					throw new IllegalArgumentException();
+				}
+				OutboundQueue queue = server.getOutboundQueue(target);
+				if (queue == null) {
+					throw new PlayerNotFoundException("Player '" + args[args.length - 1] + "' was not found.");
+				}
+
+				String tab = "&nbsp&nbsp&nbsp&nbsp";
+				StringBuilder sb = new StringBuilder();
+				sb.append("<strong>" + server.getNameBySession(target) + "</strong>");
+				sb.append("<br>" + tab);
+				sb.append("Queue depth: ");
+				sb.append(queue.getDepth());
+				sb.append("<br>" + tab);
+				sb.append("Frames sent: ");
+				sb.append(queue.getSentFrames());
+				sb.append(", dropped: ");
+				sb.append(queue.getDroppedFrames());
+				sb.append("<br>" + tab);
+				sb.append("Messages sent: ");
+				sb.append(queue.getSentMessages());
+				sb.append("<br>" + tab);
+				sb.append("Failed writes: ");
+				sb.append(queue.getFailedWrites());
+				sb.append(", closed for overflow: ");
+				sb.append(queue.getOverflows());
+
+				InboundLimiter limiter = server.getInboundLimiter(target);
+				if (limiter != null) {
+					sb.append("<br>" + tab);
+					sb.append("Refused inputs: ");
+					sb.append(limiter.getDroppedInputs());
+					sb.append(", chat: ");
+					sb.append(limiter.getDroppedChats());
+					sb.append(", commands: ");
+					sb.append(limiter.getDroppedCommands());
+					sb.append(", oversized: ");
+					sb.append(limiter.getOversizedMessages());
+				}
+
+				ClientView view = server.getClientView(target);
+				if (view != null) {
+					SendRate sendRate = view.getSendRate();
+					sb.append("<br>" + tab);
+					sb.append("Round trip: ");
+					sb.append(Double.isNaN(sendRate.getRoundTrip())
+						? "unknown" : String.format("%.1f ms", sendRate.getRoundTrip()));
+					sb.append("<br>" + tab);
+					sb.append("Frame rate: ");
+					sb.append(Double.isInfinite(sendRate.getRate())
+						? "unknown" : String.format("%.1f Hz", sendRate.getRate()));
+					sb.append(", skipped: ");
+					sb.append(sendRate.getSkippedFrames());
+					sb.append("<br>" + tab);
+					sb.append("Frame budget: ");
+					sb.append(view.getFrameBudget());
+					sb.append(" bytes, deferred entities: ");
+					sb.append(view.getDeferredEntities());
+					InputJitterBuffer inputBuffer = view.getInputBuffer();
+					sb.append("<br>" + tab);
+					sb.append(String.format("Input jitter: %.1f ms, buffer depth: %d, delay: %.1f ms",
+						inputBuffer.getJitter(), inputBuffer.getDepth(), inputBuffer.getDelay()));
+					sb.append("<br>" + tab);
+					sb.append("Input underruns: ");
+					sb.append(inputBuffer.getUnderruns());
+					sb.append(", overflows: ");
+					sb.append(inputBuffer.getOverflows());
+				}
+
+				server.unicast(sb.toString(), session);
+			}
+		},
 	PLAYERS ("players",
 			new String[] {"who"},
 			"Lists the usernames of everyone playing.<br>Syntax: /players"
@@ -376,6 +491,11 @@ public enum Command {
 			("Spawns an Agent at your location or given coordinates." +
 				"<br>Syntax: /spawn (Player|Pulsar|Scout) [x y]")
 		) {
+			@Override
+			public boolean isMutating() {
+				return true;
+			}
+
 			@Override
 			protected void perform(String[] args, Session session, GameSocket server) {
 				PlayerAgent caller = server.getPlayerAgentBySession(session);
@@ -456,6 +576,11 @@ public enum Command {
 				"or assigns you or that player to a given team. " +
 				"<br>Syntax: /team [username] [red|blue]")
 		) {
+			@Override
+			public boolean isMutating() {
+				return true;
+			}
+
 			@Override
 			protected void perform(String[] args, Session session, GameSocket server) {
 				if (args.length == 1) {
@@ -571,6 +696,14 @@ public enum Command {
 		}
 	}
 
+	/**
+	 * Returns whether the command changes the world, so that it must run on the
+	 * simulation thread. Commands that only read it and reply run on a worker thread.
+	 */
+	public boolean isMutating() {
+		return false;
+	}
+
 	/** Performs the command. Each command must implement this function. */
 	protected abstract void perform(String[] args, Session session, GameSocket server) throws PlayerNotFoundException;
 
@@ -591,6 +724,10 @@ public enum Command {
 		}
 	}
 
+	/**
+	 * Parses a command and queues it on the server's CommandExecutor, which
+	 * performs it and replies later. Called by the socket's thread.
+	 */
 	public static void handleInput(String input, Session session, GameSocket server) {
 		// split commands into arguments
 		String[] args = input.substring(1).trim().split("\\s++");
@@ -602,25 +739,26 @@ public enum Command {
 			server.unicast(selfText, session);
 		}
 
-		parseCommand(args, session, server);
-	}
-
-	private static void parseCommand(String[] args, Session session, GameSocket server) {
 		Command command = commands.get(args[0].toLowerCase());
 		if (command != null) {
-			try {
-				command.perform(args, session, server);
-			} catch (PlayerNotFoundException e) {
-				server.unicast(e.getMessage(), session);
-			} catch (IllegalArgumentException e) {
-				// Incorrect parameters for command
-				server.unicast(command.getHelpText(), session);
-			}
+			server.execute(command, args);
 		} else {
 			// Command not found
 			server.unicast("Unrecognized command.", session);
 		}
 	}
+
+	/** Performs the command, replying with the error or the help text if it fails. Called by the CommandExecutor. */
+	void run(String[] args, Session session, GameSocket server) {
+		try {
+			perform(args, session, server);
+		} catch (PlayerNotFoundException e) {
+			server.unicast(e.getMessage(), session);
+		} catch (IllegalArgumentException e) {
+			// Incorrect parameters for command
+			server.unicast(getHelpText(), session);
+		}
+	}
 	
 	/** Gets the PlayerAgent corresponding to the name, or throws PlayerNotFoundException. */
 	private static PlayerAgent getPlayerAgent(GameSocket server, String name) throws PlayerNotFoundException {
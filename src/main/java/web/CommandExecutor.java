@@ -0,0 +1,126 @@
+package main.java.web;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import main.java.environment.Environment;
+
+
+/**
+ * Runs chat commands away from the sockets' threads, which only parse them and
+ * queue them here. Commands that only read the world and reply run on a small
+ * pool of worker threads, reading the agents as the latest tick left them.
+ * Commands that change the world, such as /bring or /spawn, are handed to the
+ * simulation and run at the start of the next tick, so they never race with it.
+ * Replies are queued for the session like any other message.
+ *
+ * Each session has its own SessionQueue, which runs that session's commands one
+ * at a time in the order they were sent, wherever each runs: a /where sent after
+ * a /goto sees where the /goto went.
+ */
+public class CommandExecutor {
+	/** How many worker threads run read-only commands. */
+	public static final int DEFAULT_WORKERS = 2;
+
+	private final Environment environment;
+	private final ExecutorService workers;
+
+	public CommandExecutor(Environment environment) {
+		this(environment, DEFAULT_WORKERS);
+	}
+
+	public CommandExecutor(Environment environment, int workers) {
+		this.environment = environment;
+		this.workers = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Command Worker " + count.incrementAndGet());
+				// Commands must not keep the server running.
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/** Returns a new queue for one session's commands. */
+	public SessionQueue newQueue() {
+		return new SessionQueue();
+	}
+
+	/** The commands of one session, which run one at a time in order. */
+	public final class SessionQueue {
+		/** The commands waiting for the one running. Guarded by this. */
+		private final Queue<Task> waiting = new ArrayDeque<>();
+		private boolean running;
+
+		private SessionQueue() {
+		}
+
+		/**
+		 * Queues a command, which runs once the session's earlier commands have.
+		 * @param mutating whether the command changes the world, and must run on the tick.
+		 */
+		public void submit(boolean mutating, Runnable command) {
+			Task task = new Task(this, mutating, command);
+			synchronized (this) {
+				if (running) {
+					waiting.add(task);
+					return;
+				}
+				running = true;
+			}
+			dispatch(task);
+		}
+
+		/** Starts the next waiting command, if any. Called when one finishes. */
+		private void next() {
+			Task task;
+			synchronized (this) {
+				task = waiting.poll();
+				if (task == null) {
+					running = false;
+					return;
+				}
+			}
+			dispatch(task);
+		}
+	}
+
+	private void dispatch(Task task) {
+		if (task.mutating) {
+			environment.runAtTickStart(task);
+		} else {
+			workers.execute(task);
+		}
+	}
+
+	/** A command, which starts its session's next command when it finishes. */
+	private static final class Task implements Runnable {
+		private final SessionQueue queue;
+		private final boolean mutating;
+		private final Runnable command;
+
+		Task(SessionQueue queue, boolean mutating, Runnable command) {
+			this.queue = queue;
+			this.mutating = mutating;
+			this.command = command;
+		}
+
+		@Override
+		public void run() {
+			try {
+				command.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace(System.err);
+			} finally {
+				queue.next();
+			}
+		}
+	}
+}
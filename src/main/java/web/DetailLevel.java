@@ -0,0 +1,47 @@
+package main.java.web;
+
+import main.java.misc.ChangeTracker;
+
+
+/**
+ * How closely a client follows an entity, chosen by the entity's distance from
+ * the client's player. Nearer entities are updated more often and more precisely.
+ * An update that is not due yet is held back, with its changes, until the
+ * entity's turn comes. Spawns are always sent in full, and keyframes carry every
+ * dynamic field, though at the level's precision.
+ */
+public enum DetailLevel {
+	/** Updated every frame, at full precision. */
+	NEAR(1, false, ChangeTracker.DYNAMIC),
+	/** Updated every 2nd frame, with coarse positions and angles. */
+	MID(2, true, ChangeTracker.DYNAMIC),
+	/** Updated every 4th frame, with coarse positions and angles. */
+	DISTANT(4, true, ChangeTracker.DYNAMIC),
+	/** Updated every 8th frame, with only a coarse position. */
+	FAR(8, true, ChangeTracker.POSITION);
+
+	private final int updateInterval;
+	private final boolean coarse;
+	private final int fields;
+
+	private DetailLevel(int updateInterval, boolean coarse, int fields) {
+		this.updateInterval = updateInterval;
+		this.coarse = coarse;
+		this.fields = fields;
+	}
+
+	/** Returns how many frames apart updates are sent. */
+	public int getUpdateInterval() {
+		return updateInterval;
+	}
+
+	/** Returns whether positions and angles are sent at a coarser quantization. */
+	public boolean isCoarse() {
+		return coarse;
+	}
+
+	/** Returns the ChangeTracker bits of the fields updates carry, outside keyframes. */
+	public int getFields() {
+		return fields;
+	}
+}
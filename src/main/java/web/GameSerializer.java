@@ -1,75 +1,195 @@
 package main.java.web;
 
 import java.awt.geom.Point2D;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Timer;
-import java.util.TimerTask;
-
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonPrimitive;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
-
-import main.java.agent.Agent;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import main.java.agent.NPCAgent;
 import main.java.agent.PlayerAgent;
 import main.java.environment.Environment;
+import main.java.environment.TickListener;
 import main.java.projectile.Projectile;
 
 
-public class GameSerializer {
-	
-	private static final int FRAME_RATE = 40;
+/**
+ * Publishes a state frame to every client at the end of every Nth simulation tick.
+ * Each client is only sent the entities within its area of interest around its player,
+ * farther ones less often and less precisely, and clients on slow links skip frames so
+ * that they are sent fewer per second. The chat and other messages queued for a
+ * client during the tick go out with its frame, or on their own once the frames
+ * have been queued, so each client is sent at most one message per tick.
+ *
+ * Clients' frames are built and encoded in parallel on a work-stealing pool, in
+ * batches of sessions. The simulation thread waits for the pool before starting the
+ * next tick, so every task reads the same end-of-tick state: the spatial indexes
+ * and the entities' fields do not change under it. Each client's ClientView is only
+ * used by one task at a time, and each worker thread has its own encoders.
+ *
+ * At the end of every tick, before the frames, each client's InputJitterBuffer
+ * releases the inputs that are due to its player, so that they are applied at the
+ * cadence of the ticks however unevenly they arrived.
+ */
+public class GameSerializer implements TickListener {
+	/** Entities enter a client's area of interest within this distance of its player, in pixels. */
+	public static final double DEFAULT_INTEREST_RADIUS = 1200;
+	/** Known entities leave the area of interest only this much further out, in pixels. */
+	public static final double DEFAULT_INTEREST_MARGIN = 200;
+	/** Sessions are split into tasks of at most this many. */
+	private static final int SESSIONS_PER_TASK = 8;
 
 	private GameSocket server;
 	private Environment environment;
 	private boolean gameplayOccurring = true;
+	/** A frame is sent every sendDivisor ticks, i.e. at TICK_RATE / sendDivisor Hz. */
+	private int sendDivisor;
+	private double interestRadius = DEFAULT_INTEREST_RADIUS;
+	private double interestMargin = DEFAULT_INTEREST_MARGIN;
+	private double minSendRate = SendRate.DEFAULT_MIN_RATE;
+	private double maxSendRate = SendRate.DEFAULT_MAX_RATE;
+	private final ForkJoinPool pool;
+	/** Reused for every frame a thread encodes; the encoders are not thread-safe. */
+	private final ThreadLocal<JsonFrameWriter> jsonWriters = new ThreadLocal<JsonFrameWriter>() {
+		@Override
+		protected JsonFrameWriter initialValue() {
+			return new JsonFrameWriter();
+		}
+	};
+	private final ThreadLocal<BinaryProtocol.Output> binaryOutputs = new ThreadLocal<BinaryProtocol.Output>() {
+		@Override
+		protected BinaryProtocol.Output initialValue() {
+			return new BinaryProtocol.Output();
+		}
+	};
 
-	private Gson gson;
+	public GameSerializer(GameSocket server, Environment environment) {
+		this(server, environment, 1);
+	}
 
-	private Timer timer = new Timer("GameThread Timer");
+	public GameSerializer(GameSocket server, Environment environment, int sendDivisor) {
+		this(server, environment, sendDivisor, Runtime.getRuntime().availableProcessors());
+	}
 
-	public GameSerializer(GameSocket server, Environment environment) {
+	/** @param parallelism how many threads build and encode frames. */
+	public GameSerializer(GameSocket server, Environment environment, int sendDivisor, int parallelism) {
 		this.server = server;
 		this.environment = environment;
+		setSendDivisor(sendDivisor);
+		this.pool = new ForkJoinPool(parallelism);
 
-		gson = new GsonBuilder()
-				.registerTypeAdapter(Agent.class, new AgentSerializer())
-				.registerTypeAdapter(PlayerAgent.class, new PlayerAgentSerializer())
-				.registerTypeHierarchyAdapter(NPCAgent.class, new AgentSerializer())
-				.registerTypeAdapter(Projectile.class, new ProjectileSerializer())
-				.create();
-
-		// call update at FRAME_RATE
-		timer.schedule(new TimerTask() {
-			@Override
-			public void run() {
-				if (gameplayOccurring) {
-					broadcastGameState();
-				}
-			}
-		}, 0, 1000 / FRAME_RATE);
+		environment.addTickListener(this);
+	}
+
+	/** Called by the Environment on the simulation thread once a tick completes. */
+	@Override
+	public void onTick(long tick) {
+		// Inputs due are released to the agents now, for the next tick to apply.
+		long now = System.nanoTime();
+		for (ClientView view : server.getClientViews()) {
+			view.getInputBuffer().release(now, view.getAgent());
+		}
+		if (gameplayOccurring && tick % sendDivisor == 0) {
+			broadcastGameState(tick);
+		}
+		// Messages that did not go out with a frame are sent in one envelope per session.
+		server.flushMessages();
 	}
 
 	public void broadcastGameState() {
-		// Clone all collections to avoid concurrent modification woes.
-		Collection<PlayerAgent> playerAgents = new ArrayList<>(environment.getActivePlayerAgents());
-		Collection<NPCAgent> npcAgents = new ArrayList<>(environment.getActiveNPCAgents());
-		Collection<Projectile> projectiles = new ArrayList<>(environment.getActiveProjectiles());
+		broadcastGameState(environment.getTick());
+	}
+
+	/** Sends each client that is due a frame a delta against the last frame it
+	 *  acknowledged, holding the entities in its area of interest. Returns once
+	 *  every frame has been queued. */
+	public void broadcastGameState(long tick) {
+		List<ClientView> views = server.getClientViews();
+		long now = System.nanoTime();
+		if (views.size() <= SESSIONS_PER_TASK) {
+			for (ClientView view : views) {
+				sendGameState(view, tick, now);
+			}
+		} else {
+			pool.invoke(new BroadcastTask(views, 0, views.size(), tick, now));
+		}
+	}
+
+	/** Builds, encodes and queues one client's frame, if it is due one. */
+	private void sendGameState(ClientView view, long tick, long now) {
+		SendRate sendRate = view.getSendRate();
+		if (sendRate.isPingDue(now)) {
+			server.ping(view.getSession(), now);
+		}
+		OutboundQueue queue = server.getOutboundQueue(view.getSession());
+		int queueDepth = queue != null ? queue.getDepth() : 0;
+		double opportunityRate = (double) Environment.TICK_RATE / sendDivisor;
+		if (!sendRate.shouldSend(queueDepth, opportunityRate, minSendRate, maxSendRate)) {
+			return;
+		}
+
+		double range = interestRadius + interestMargin;
+		Point2D.Double center = view.getAgent().getPosition();
+		GameState state = new GameState(tick,
+			environment.getPlayerAgentsWithin(center, range, new ArrayList<PlayerAgent>()),
+			environment.getNPCAgentsWithin(center, range, new ArrayList<NPCAgent>()),
+			environment.getProjectilesWithin(center, range, new ArrayList<Projectile>()));
+		StateFrame frame = view.buildFrame(state, interestRadius);
+		PooledBuffer payload;
+		if (view.getWireFormat() == WireFormat.BINARY) {
+			BinaryProtocol.Output binaryOutput = binaryOutputs.get();
+			BinaryProtocol.encode(frame, binaryOutput);
+			payload = server.getBufferPool().acquire(binaryOutput.length());
+			binaryOutput.copyTo(payload.getBuffer());
+		} else {
+			JsonFrameWriter jsonWriter = jsonWriters.get();
+			jsonWriter.write(frame);
+			payload = server.getBufferPool().acquire(jsonWriter.utf8Length());
+			jsonWriter.encodeUtf8(payload.getBuffer());
+		}
+		payload.getBuffer().flip();
+		try {
+			server.sendFrame(payload, view.getWireFormat() == WireFormat.BINARY, view.getSession());
+		} finally {
+			payload.release();
+		}
+	}
 
-		Collection<PlayerAgent> despawnedPlayers = environment.getRecentlyDespawnedPlayerAgents();
-		Collection<NPCAgent> despawnedNPCs = environment.getRecentlyDespawnedNPCAgents();
-		Collection<Projectile> despawnedProjectiles = environment.getRecentlyDespawnedProjectiles();
+	/** Sends the frames of a range of sessions, splitting it in half until it is small enough. */
+	private class BroadcastTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<ClientView> views;
+		private final int from;
+		private final int to;
+		private final long tick;
+		private final long now;
+
+		BroadcastTask(List<ClientView> views, int from, int to, long tick, long now) {
+			this.views = views;
+			this.from = from;
+			this.to = to;
+			this.tick = tick;
+			this.now = now;
+		}
 
-		GameState state = new GameState(playerAgents, npcAgents, projectiles,
-				despawnedPlayers, despawnedNPCs, despawnedProjectiles);
-		
-		server.broadcast(gson.toJson(state));
+		@Override
+		protected void compute() {
+			if (to - from <= SESSIONS_PER_TASK) {
+				for (int i = from; i < to; i++) {
+					sendGameState(views.get(i), tick, now);
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new BroadcastTask(views, from, middle, tick, now),
+				new BroadcastTask(views, middle, to, tick, now));
+		}
+	}
+
+	/** Returns how many threads build and encode frames. */
+	public int getParallelism() {
+		return pool.getParallelism();
 	}
 
 	public boolean isGameplayOccurring() {
@@ -80,53 +200,53 @@ public class GameSerializer {
 		this.gameplayOccurring = gameplayOccurring;
 	}
 
-	public static class AgentSerializer implements JsonSerializer<Agent> {
-		@Override
-		public JsonElement serialize(Agent src, Type typeOfSrc, JsonSerializationContext context) {
-			JsonObject element = new JsonObject();
-			element.add("id", new JsonPrimitive(src.getID().toString()));
-			element.add("size", new JsonPrimitive(src.getSize()));
-			element.add("health", new JsonPrimitive(src.getHealth()));
-			element.add("maxHealth", new JsonPrimitive(src.getMaxHealth()));
-			Point2D.Double point = src.getPosition();
-			element.add("x", new JsonPrimitive(point.getX()));
-			element.add("y", new JsonPrimitive(point.getY()));
-			element.add("angle", new JsonPrimitive(src.getAngle()));
-			element.add("color", new JsonPrimitive(src.getHexColor()));
-			return element;
+	public int getSendDivisor() {
+		return sendDivisor;
+	}
+
+	public void setSendDivisor(int sendDivisor) {
+		if (sendDivisor < 1) {
+			throw new IllegalArgumentException("send divisor must be positive");
 		}
+		this.sendDivisor = sendDivisor;
 	}
-	
-	public static class PlayerAgentSerializer implements JsonSerializer<PlayerAgent> {
-		@Override
-		public JsonElement serialize(PlayerAgent src, Type typeOfSrc, JsonSerializationContext context) {
-			JsonObject element = new JsonObject();
-			element.add("id", new JsonPrimitive(src.getID().toString()));
-			element.add("name", new JsonPrimitive(src.getName()));
-			element.add("health", new JsonPrimitive(src.getHealth()));
-			element.add("maxHealth", new JsonPrimitive(src.getMaxHealth()));
-			element.add("points", new JsonPrimitive(src.getPoints()));
-			element.add("pointsLeft", new JsonPrimitive(src.getPointsUntilLevelUp()));
-			Point2D.Double point = src.getPosition();
-			element.add("x", new JsonPrimitive(point.getX()));
-			element.add("y", new JsonPrimitive(point.getY()));
-			element.add("angle", new JsonPrimitive(src.getAngle()));
-			element.add("color", new JsonPrimitive(src.getHexColor()));
-			return element;
+
+	public double getMinSendRate() {
+		return minSendRate;
+	}
+
+	public double getMaxSendRate() {
+		return maxSendRate;
+	}
+
+	/** Sets the bounds of each client's frame rate in Hz. Rates above the tick rate send every frame. */
+	public void setSendRateBounds(double minSendRate, double maxSendRate) {
+		if (minSendRate <= 0 || maxSendRate < minSendRate) {
+			throw new IllegalArgumentException("send rates must be positive, with the minimum no greater than the maximum");
 		}
+		this.minSendRate = minSendRate;
+		this.maxSendRate = maxSendRate;
 	}
-	
-	public static class ProjectileSerializer implements JsonSerializer<Projectile> {
-		@Override
-		public JsonElement serialize(Projectile src, Type typeOfSrc, JsonSerializationContext context) {
-			JsonObject element = new JsonObject();
-			element.add("id", new JsonPrimitive(src.getID().toString()));
-			element.add("size", new JsonPrimitive(src.getSize()));
-			Point2D.Double point = src.getPosition();
-			element.add("x", new JsonPrimitive(point.getX()));
-			element.add("y", new JsonPrimitive(point.getY()));
-			element.add("color", new JsonPrimitive(src.getHexColor()));
-			return element;
+
+	public double getInterestRadius() {
+		return interestRadius;
+	}
+
+	public void setInterestRadius(double interestRadius) {
+		if (interestRadius <= 0) {
+			throw new IllegalArgumentException("interest radius must be positive");
+		}
+		this.interestRadius = interestRadius;
+	}
+
+	public double getInterestMargin() {
+		return interestMargin;
+	}
+
+	public void setInterestMargin(double interestMargin) {
+		if (interestMargin < 0) {
+			throw new IllegalArgumentException("interest margin must not be negative");
 		}
+		this.interestMargin = interestMargin;
 	}
 }
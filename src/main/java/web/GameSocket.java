@@ -1,40 +1,65 @@
 package main.java.web;
 
 import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
 import org.eclipse.jetty.websocket.api.WebSocketAdapter;
 import org.eclipse.jetty.websocket.api.WebSocketException;
-
-import com.google.gson.Gson;
+import org.eclipse.jetty.websocket.api.WebSocketPingPongListener;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.common.WebSocketRemoteEndpoint;
+import org.eclipse.jetty.websocket.common.frames.PingFrame;
 
 import main.java.agent.PlayerAgent;
 import main.java.environment.Environment;
 
 
-public class GameSocket extends WebSocketAdapter {
-	/** The sessions of all players, mapped to each player's chosen name. */
-	private static final Map<Session, String> sessionToName =
-		Collections.synchronizedMap(new HashMap<>());
-	/** The sessions of all players, mapped to each player agent. */
-	private static final Map<Session, PlayerAgent> sessionToPlayerAgent =
-		Collections.synchronizedMap(new HashMap<>());
-	/** The chosen name of each named player, mapped to session. */
-	private static final Map<String, Session> nameToSession =
-		Collections.synchronizedMap(new HashMap<>());
-	/** The chosen name in lowercase and without spaces, mapped to session. */
-	private static final Map<String, Session> shortNameToSession =
-		Collections.synchronizedMap(new HashMap<>());
-	/** The name in lowercase and without spaces of each spoofed player, mapped to PlayerAgent. */
-	private static final Map<String, PlayerAgent> shortNameToSpoofedAgent =
-		Collections.synchronizedMap(new HashMap<>());
+public class GameSocket extends WebSocketAdapter implements WebSocketPingPongListener {
+	/** Every connected client's name, player, view and outbound queue. */
+	private static final SessionRegistry sessions = new SessionRegistry();
 	private static Environment environment;
+	/** Pings quiet sessions and reaps the ones that stopped answering. */
+	private static HeartbeatMonitor heartbeatMonitor;
+	/** Runs chat commands off the sockets' threads. */
+	private static CommandExecutor commandExecutor;
+	/** Buffers for outbound messages, shared by every session. */
+	private static final BufferPool bufferPool =
+		new BufferPool(Boolean.getBoolean(BufferPool.LEAK_DETECTION_PROPERTY));
 	
+	/** Reports pings that fail after they were handed to Jetty. */
+	private static final WriteCallback PING_CALLBACK = new WriteCallback() {
+		@Override
+		public void writeFailed(Throwable x) {
+			System.out.println("The error " + x.getLocalizedMessage() + " occurred. This "
+					+ "can happen if the player leaves before a ping arrives.");
+		}
+
+		@Override
+		public void writeSuccess() {
+		}
+	};
+
 	private Session session;
+	/** Shared with the session's registry entry; kept here so recording activity needs no lookup. */
+	private Heartbeat heartbeat;
+	/** Limits what this client may send. */
+	private InboundLimiter limiter;
+	/** Set once this client is being disconnected for sending too much, after which it is ignored. */
+	private boolean disconnecting;
+	/** This client's commands, which run in order. */
+	private CommandExecutor.SessionQueue commands;
+	/** Reads this client's JSON inputs. */
+	private final InputParser inputParser = new InputParser();
+	/** Holds each of this client's inputs in turn; Jetty delivers one message at a time. */
+	private final ClientInput input = new ClientInput();
 
 	private boolean verbose = true;
 
@@ -54,6 +79,8 @@ public class GameSocket extends WebSocketAdapter {
 			// The GameThread needs a reference to any one WebServer so that it can broadcast.
 			environment = new Environment(verbose);
 			new GameSerializer(this, environment);
+			heartbeatMonitor = new HeartbeatMonitor(this, environment);
+			commandExecutor = new CommandExecutor(environment);
 		}
 	}
 
@@ -64,10 +91,11 @@ public class GameSocket extends WebSocketAdapter {
 			System.out.println("[SERVER] " + session.getRemoteAddress().toString() +
                 " has opened a connection.");
 		}
-		session.getRemote().sendStringByFuture("Connection established.");
-		synchronized(sessionToName) {
-			sessionToName.put(session, null);
-		}
+		heartbeat = new Heartbeat(System.nanoTime());
+		limiter = new InboundLimiter();
+		commands = commandExecutor.newQueue();
+		sessions.connect(session, new OutboundQueue(session, bufferPool), heartbeat, limiter);
+		unicast("Connection established.", session);
 		
 		this.session = session;
 	}
@@ -75,34 +103,152 @@ public class GameSocket extends WebSocketAdapter {
 	/** When a client sends a message to the server. */
 	@Override
 	public void onWebSocketText(String message) {
-		Gson g = new Gson();
-		ClientInput input = g.fromJson(message, ClientInput.class);
+		long receivedAt = System.nanoTime();
+		heartbeat.heard(receivedAt);
+		if (disconnecting || !limiter.allowSize(message.length(), receivedAt)) {
+			disconnectIfOffender();
+			return;
+		}
+		try {
+			inputParser.parse(message, input);
+		} catch (IllegalArgumentException e) {
+			if (verbose) {
+				System.out.println("[SERVER] Ignored text message: " + e.getLocalizedMessage());
+			}
+			return;
+		}
+		if (!isWithinBudget(input, receivedAt)) {
+			disconnectIfOffender();
+			return;
+		}
+		handleInput(input, receivedAt);
+	}
+
+	/** When a client that negotiated the binary protocol sends its input. */
+	@Override
+	public void onWebSocketBinary(byte[] payload, int offset, int length) {
+		long receivedAt = System.nanoTime();
+		heartbeat.heard(receivedAt);
+		// Binary messages only carry movement, so excess ones are dropped before decoding.
+		if (disconnecting || !limiter.allowSize(length, receivedAt) || !limiter.allowInput(receivedAt)) {
+			disconnectIfOffender();
+			return;
+		}
+		try {
+			BinaryProtocol.decodeInput(ByteBuffer.wrap(payload, offset, length), input);
+		} catch (IllegalArgumentException e) {
+			if (verbose) {
+				System.out.println("[SERVER] Ignored binary message: " + e.getLocalizedMessage());
+			}
+			return;
+		}
+		handleInput(input, receivedAt);
+	}
+
+	/**
+	 * Returns whether the input is within the client's budget for its kind: names
+	 * and commands, chat, or movement. A chat or command over budget is answered,
+	 * so the player knows it was not sent.
+	 */
+	private boolean isWithinBudget(ClientInput input, long now) {
+		String message = input.getMessage();
+		boolean allowed;
+		if (input.getName() != null || message != null && message.startsWith("/")) {
+			allowed = limiter.allowCommand(now);
+		} else if (message != null) {
+			allowed = limiter.allowChat(now);
+		} else {
+			return limiter.allowInput(now);
+		}
+		if (!allowed && !limiter.isOffender()) {
+			unicast("You are sending messages too quickly.", session);
+		}
+		return allowed;
+	}
+
+	/** Disconnects this client if it has been refused too often. */
+	private void disconnectIfOffender() {
+		if (disconnecting || !limiter.isOffender()) {
+			return;
+		}
+		disconnecting = true;
+		if (verbose) {
+			System.out.println("[SERVER] Session " + session.getRemoteAddress() +
+				" is being disconnected for sending too many messages.");
+		}
+		unicast("You were disconnected for sending too many messages.", session);
+		flushMessages(session);
+		session.close(StatusCode.POLICY_VIOLATION, "Too many messages");
+	}
+
+	/** Jetty answers pings itself. */
+	@Override
+	public void onWebSocketPing(ByteBuffer payload) {
+		heartbeat.heard(System.nanoTime());
+	}
+
+	/** When a client answers a ping, which carries the nanoTime it was sent at. */
+	@Override
+	public void onWebSocketPong(ByteBuffer payload) {
+		long now = System.nanoTime();
+		heartbeat.heard(now);
+		ClientView view = getClientView(session);
+		if (view != null && payload != null && payload.remaining() == Long.BYTES) {
+			long roundTrip = now - payload.getLong(payload.position());
+			if (roundTrip >= 0) {
+				view.getSendRate().recordRoundTrip(roundTrip);
+				// The player's shots are rewound by its latency, which includes the time its inputs are buffered.
+				view.getAgent().setLatency(view.getSendRate().getRoundTrip() + view.getInputBuffer().getDelay());
+			}
+		}
+	}
+
+	/** @param receivedAt the nanoTime the input arrived at. */
+	private void handleInput(ClientInput input, long receivedAt) {
+		if (input.getName() != null || input.getMessage() != null) {
+			handleText(input);
+			return;
+		}
+
+		SessionRegistry.Entry entry = sessions.get(session);
+		ClientView view = entry != null ? entry.getView() : null;
 
+		// Move the client's delta baseline forward, or have everything spawned again.
+		if (input.hasAck() || input.isResync()) {
+			if (view != null && input.isResync()) {
+				view.resync();
+			} else if (view != null) {
+				view.acknowledge(input.getAck());
+			}
+		}
+
+		// Send client's update to the relevant agent entity, through its jitter buffer.
+		if (view != null) {
+			view.getInputBuffer().offer(input, receivedAt, view.getAgent());
+		}
+	}
+
+	/** Handles a name or chat message, which clients send apart from their movement. */
+	private void handleText(ClientInput input) {
 		// Try to add new player (reject them if the name is duplicated).
-		if (input.getName() != null && input.getName() != "") {
-			// Check for duplicate names.
-			if (shortNameToSession.containsKey(shortenName(input.getName()))) {
+		if (input.getName() != null && !input.getName().isEmpty()) {
+			// Claim the name, unless it is a duplicate.
+			if (!sessions.claimName(session, input.getName())) {
 				unicast("{\"pregame\":true, \"duplicateName\": true}", session);
 				return;  // Not in gameplay yet, so don't proceed to the rest of the method. 
 			} else {
 				// Name is unique, so we can add the client to the game.
-				synchronized(sessionToName) {
-					sessionToName.put(session, input.getName());
-				}
-				synchronized(nameToSession) {
-					nameToSession.put(input.getName(), session);
-				}
-				synchronized(shortNameToSession) {
-					shortNameToSession.put(shortenName(input.getName()), session);
-				}
-				
 				PlayerAgent agent = environment.spawnPlayer(input.getName());
-				synchronized(sessionToPlayerAgent) {
-					sessionToPlayerAgent.put(session, agent);
+				WireFormat wireFormat = WireFormat.negotiate(input.getProtocols());
+				if (!sessions.join(session, agent, new ClientView(session, agent, wireFormat))) {
+					// The client left while its player spawned.
+					environment.despawnPlayerAgent(agent);
+					return;
 				}
 
-				// Send the character's ID to the client.
-	 			unicast("{\"pregame\":true, \"id\": \"" + agent.getID() + "\"}", session);
+				// Send the character's IDs and the format of its state frames to the client.
+	 			unicast("{\"pregame\":true, \"id\": \"" + agent.getID() + "\", \"netId\": "
+	 				+ agent.getNetID() + ", \"protocol\": \"" + wireFormat.getName() + "\"}", session);
 				broadcast("<b>" + input.getName() + "</b> joined the game.");
 			}
 		}
@@ -116,34 +262,40 @@ public class GameSocket extends WebSocketAdapter {
 				broadcast(input.getMessage(), session);
 			}
 		}
+	}
 
-		// Send client's update to the relevant agent entity.
-		PlayerAgent agent = sessionToPlayerAgent.get(session);
-		if (agent != null) {
-			agent.addPlayerEvent(input);
-		}
+	/**
+	 * Queues a command of this client's, which runs after its earlier ones: on a
+	 * worker thread, or at the start of the next tick if it changes the world.
+	 */
+	void execute(final Command command, final String[] args) {
+		commands.submit(command.isMutating(), new Runnable() {
+			@Override
+			public void run() {
+				// Commands still queued when the client left are dropped.
+				if (sessions.get(session) != null) {
+					command.run(args, session, GameSocket.this);
+					// Replies, and whatever the command told others, need not wait for the tick.
+					flushMessages();
+				}
+			}
+		});
 	}
 
 	/** Broadcast text to all connected clients. */
 	void broadcast(String message, Session sourceSession) {
-		String sourceName = null;
-		synchronized(sessionToName) {
-			sourceName = sessionToName.get(sourceSession);
-		}
+		String sourceName = getNameBySession(sourceSession);
 		if (sourceName != null && !sourceName.isEmpty()) {
 			message = "<strong>" + sourceName + "</strong>: " + message;
 		}
-		synchronized(sessionToName) {
-			for (Session s : sessionToName.keySet()) {
-				try {
-					if (s.isOpen()) {
-						s.getRemote().sendStringByFuture(message);
-					}
-				} catch (WebSocketException e) {
-					System.out.println("The error " + e.getLocalizedMessage() + " occurred. This " 
-							+ "can happen if the player dies before a broadcast arrives.");
-				}
+		// Encode the message once and queue the same bytes for everyone.
+		PooledBuffer payload = encode(message);
+		try {
+			for (SessionRegistry.Entry entry : sessions.getEntries()) {
+				offerMessage(entry.getQueue(), payload);
 			}
+		} finally {
+			payload.release();
 		}
 	}
 
@@ -153,56 +305,172 @@ public class GameSocket extends WebSocketAdapter {
 
 	/** Send text to a single client */
 	void unicast(String message, Session session) {
+		OutboundQueue queue = getOutboundQueue(session);
+		if (queue != null) {
+			PooledBuffer payload = encode(message);
+			try {
+				offerMessage(queue, payload);
+			} finally {
+				payload.release();
+			}
+		}
+	}
+
+	/**
+	 * Queues a message, which goes out with the session's next frame or at the end
+	 * of the tick. While the simulation is paused there are no ticks to wait for.
+	 */
+	private static void offerMessage(OutboundQueue queue, PooledBuffer payload) {
+		queue.offerMessage(payload);
+		if (!environment.isGameplayOccurring()) {
+			queue.flushMessages();
+		}
+	}
+
+	/** Sends the messages queued for every client that did not go out with a frame. Called at the end of each tick. */
+	public void flushMessages() {
+		for (SessionRegistry.Entry entry : sessions.getEntries()) {
+			entry.getQueue().flushMessages();
+		}
+	}
+
+	/** Sends the messages queued for a single client now, e.g. before disconnecting it. */
+	void flushMessages(Session session) {
+		OutboundQueue queue = getOutboundQueue(session);
+		if (queue != null) {
+			queue.flushMessages();
+		}
+	}
+
+	/** Closes a client's session once the messages queued for it have been sent. */
+	void closeWhenSent(Session session) {
+		OutboundQueue queue = getOutboundQueue(session);
+		if (queue != null) {
+			queue.closeWhenSent();
+		} else {
+			session.close();
+		}
+	}
+
+	/**
+	 * Send a state frame to a single client, replacing any frame it has not been
+	 * sent yet. The caller keeps its own reference to the payload.
+	 */
+	void sendFrame(PooledBuffer payload, boolean binary, Session session) {
+		OutboundQueue queue = getOutboundQueue(session);
+		if (queue != null) {
+			queue.offerFrame(payload, binary);
+		}
+	}
+
+	/** Pings a client to measure its round trip. The ping carries the given nanoTime. */
+	void ping(Session session, long now) {
+		ByteBuffer payload = ByteBuffer.allocate(Long.BYTES);
+		payload.putLong(0, now);
 		try {
 			if (session.isOpen()) {
-				session.getRemote().sendStringByFuture(message);
+				RemoteEndpoint remote = session.getRemote();
+				if (remote instanceof WebSocketRemoteEndpoint) {
+					PingFrame frame = new PingFrame();
+					frame.setPayload(payload);
+					((WebSocketRemoteEndpoint) remote).uncheckedSendFrame(frame, PING_CALLBACK);
+				} else {
+					remote.sendPing(payload);
+				}
 			}
-		} catch (WebSocketException e) {
-			System.out.println("The error " + e.getLocalizedMessage() + " occurred. This " 
-					+ "can happen if the player dies before a unicast arrives.");
+		} catch (IOException | WebSocketException e) {
+			System.out.println("The error " + e.getLocalizedMessage() + " occurred. This "
+					+ "can happen if the player leaves before a ping arrives.");
 		}
 	}
 
+	/** Returns a pooled buffer holding the message in UTF-8, ready to send. */
+	private static PooledBuffer encode(String message) {
+		PooledBuffer payload = bufferPool.acquire(Utf8.length(message));
+		Utf8.encode(message, payload.getBuffer());
+		payload.getBuffer().flip();
+		return payload;
+	}
+
+	OutboundQueue getOutboundQueue(Session session) {
+		SessionRegistry.Entry entry = sessions.get(session);
+		return entry != null ? entry.getQueue() : null;
+	}
+
+	BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
 	Session getSessionByName(String username) {
-		return nameToSession.get(username);
+		SessionRegistry.Entry entry = sessions.getByName(username);
+		return entry != null ? entry.getSession() : null;
 	}
 
 	Session getSessionByShortName(String username) {
-		return shortNameToSession.get(shortenName(username));
+		SessionRegistry.Entry entry = sessions.getByShortName(username);
+		return entry != null ? entry.getSession() : null;
 	}
 
 	String getNameBySession(Session session) {
-		return sessionToName.get(session);
+		SessionRegistry.Entry entry = sessions.get(session);
+		return entry != null ? entry.getName() : null;
 	}
 
 	PlayerAgent getPlayerAgentBySession(Session session) {
-		return sessionToPlayerAgent.get(session);
+		SessionRegistry.Entry entry = sessions.get(session);
+		return entry != null ? entry.getAgent() : null;
 	}
 
 	PlayerAgent getPlayerAgentByName(String username) {
-		return sessionToPlayerAgent.get(getSessionByName(username));
+		SessionRegistry.Entry entry = sessions.getByName(username);
+		return entry != null ? entry.getAgent() : null;
 	}
 	
 	PlayerAgent getPlayerAgentByShortName(String username) {
-		return sessionToPlayerAgent.get(shortNameToSession.get(shortenName(username)));
+		SessionRegistry.Entry entry = sessions.getByShortName(username);
+		return entry != null ? entry.getAgent() : null;
 	}
 
 	PlayerAgent getSpoofedAgentByName(String username) {
-		return shortNameToSpoofedAgent.get(shortenName(username));
+		return sessions.getSpoofedAgent(username);
 	}
 
 	Set<String> getNames() {
-		return nameToSession.keySet();
+		return sessions.getNames();
+	}
+
+	InboundLimiter getInboundLimiter(Session session) {
+		SessionRegistry.Entry entry = sessions.get(session);
+		return entry != null ? entry.getLimiter() : null;
+	}
+
+	ClientView getClientView(Session session) {
+		SessionRegistry.Entry entry = sessions.get(session);
+		return entry != null ? entry.getView() : null;
+	}
+
+	/** Returns an unmodifiable snapshot of the entries of every connected client. */
+	List<SessionRegistry.Entry> getEntries() {
+		return sessions.getEntries();
+	}
+
+	/** Returns an unmodifiable snapshot of the views of every player in the game. */
+	List<ClientView> getClientViews() {
+		return sessions.getViews();
 	}
 
 	public Environment getEnvironment() {
 		return environment;
 	}
 
+	public HeartbeatMonitor getHeartbeatMonitor() {
+		return heartbeatMonitor;
+	}
+
 	/** Spawns a fake player */
 	void spoofPlayer(Point2D.Double point) {
 		PlayerAgent spoofedPlayer = environment.spawnPlayer(point);
-		shortNameToSpoofedAgent.put(shortenName(spoofedPlayer.getName()), spoofedPlayer);
+		sessions.addSpoofedAgent(spoofedPlayer);
 	}
 
 	/** When a client closes their connection. */
@@ -212,23 +480,51 @@ public class GameSocket extends WebSocketAdapter {
 			System.out.println("[SERVER] Session " + session.getRemoteAddress().toString() +
                 " has ended.");
 		}
-		broadcast(getNameBySession(session) + " left the game.");
-		PlayerAgent agent = sessionToPlayerAgent.remove(session);
-
-		// Despawn player from environment
-		environment.despawnPlayerAgent(agent);
+		// The session is gone already if it was reaped.
+		SessionRegistry.Entry entry = sessions.remove(session);
+		if (entry != null) {
+			leave(Collections.singletonList(entry));
+		}
+	}
 
-		// Remove name from mapping
-		String name = sessionToName.remove(session);
-		if (name != null) {
-			nameToSession.remove(name);
-			shortNameToSession.remove(shortenName(name));
+	/**
+	 * Disconnects sessions that stopped answering, as if they had closed their
+	 * connections, and returns how many there were. Called by the HeartbeatMonitor.
+	 */
+	int reap(List<Session> expired) {
+		List<SessionRegistry.Entry> entries = sessions.removeAll(expired);
+		leave(entries);
+		for (SessionRegistry.Entry entry : entries) {
+			if (verbose) {
+				System.out.println("[SERVER] Session " + entry.getSession().getRemoteAddress() +
+					" stopped answering.");
+			}
+			try {
+				entry.getSession().disconnect();
+			} catch (IOException e) {
+				System.out.println("The error " + e.getLocalizedMessage() + " occurred while "
+						+ "disconnecting a session that stopped answering.");
+			}
 		}
+		return entries.size();
 	}
-	
-	/** Removes all whitespace and converts to lowercase. Used to check for duplicate names
-	 * and so that players can refer to shortened names in chat commands. */
-	private static String shortenName(String name) {
-		return name.replaceAll("\\s+", "").toLowerCase();
+
+	/** Despawns the players of sessions that were removed from the registry, together, and tells everyone else. */
+	private void leave(List<SessionRegistry.Entry> entries) {
+		List<PlayerAgent> agents = new ArrayList<>(entries.size());
+		for (SessionRegistry.Entry entry : entries) {
+			if (entry.getAgent() != null) {
+				agents.add(entry.getAgent());
+			}
+		}
+		environment.despawnPlayerAgents(agents);
+
+		for (SessionRegistry.Entry entry : entries) {
+			// Release anything that was still waiting to be sent.
+			entry.getQueue().close();
+			if (entry.getName() != null) {
+				broadcast(entry.getName() + " left the game.");
+			}
+		}
 	}
 }
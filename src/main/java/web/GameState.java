@@ -8,29 +8,32 @@ import main.java.projectile.Projectile;
 
 
 /**
- * POJO representing the state of the game, which is broadcast to each client.
+ * POJO representing the state of the game at the end of a tick. Each client's
+ * frame is built from it by that client's ClientView.
  */
 public class GameState {
 
+	/** The simulation tick this state was captured at. */
+	private long tick;
+
 	private Collection<PlayerAgent> playerAgents;
 	private Collection<NPCAgent> npcAgents;
 	private Collection<Projectile> projectiles;
-	
-	private Collection<PlayerAgent> despawnedPlayerAgents;
-	private Collection<NPCAgent> despawnedNPCAgents;
-	private Collection<Projectile> despawnedProjectiles;
 
-	public GameState(Collection<PlayerAgent> playerAgents, Collection<NPCAgent> npcAgents,
-			Collection<Projectile> projectiles, Collection<PlayerAgent> despawnedPlayerAgents,
-			Collection<NPCAgent> despawnedNPCAgents, Collection<Projectile> despawnedProjectiles) {
+	public GameState(long tick, Collection<PlayerAgent> playerAgents, Collection<NPCAgent> npcAgents,
+			Collection<Projectile> projectiles) {
+		this.tick = tick;
 		this.playerAgents = playerAgents;
 		this.npcAgents = npcAgents;
 		this.projectiles = projectiles;
-		this.despawnedPlayerAgents = despawnedPlayerAgents;
-		this.despawnedNPCAgents = despawnedNPCAgents;
-		this.despawnedProjectiles = despawnedProjectiles;
 	}
 
+	public long getTick() {
+		return tick;
+	}
+	public void setTick(long tick) {
+		this.tick = tick;
+	}
 	public Collection<PlayerAgent> getPlayerAgents() {
 		return playerAgents;
 	}
@@ -49,22 +52,4 @@ public class GameState {
 	public void setProjectiles(Collection<Projectile> projectiles) {
 		this.projectiles = projectiles;
 	}
-	public Collection<PlayerAgent> getDespawnedPlayerAgents() {
-		return despawnedPlayerAgents;
-	}
-	public void setDespawnedPlayerAgents(Collection<PlayerAgent> despawnedPlayerAgents) {
-		this.despawnedPlayerAgents = despawnedPlayerAgents;
-	}
-	public Collection<NPCAgent> getDespawnedNPCAgents() {
-		return despawnedNPCAgents;
-	}
-	public void setDespawnedNPCAgents(Collection<NPCAgent> despawnedNPCAgents) {
-		this.despawnedNPCAgents = despawnedNPCAgents;
-	}
-	public Collection<Projectile> getDespawnedProjectiles() {
-		return despawnedProjectiles;
-	}
-	public void setDespawnedProjectiles(Collection<Projectile> despawnedProjectiles) {
-		this.despawnedProjectiles = despawnedProjectiles;
-	}
 }
@@ -0,0 +1,47 @@
+package main.java.web;
+
+
+/**
+ * When the server last heard from one session and last pinged it. The socket's
+ * thread records every message and pong the client sends, and the simulation
+ * thread's HeartbeatMonitor reads it to decide whether to ping the session or to
+ * give up on it.
+ */
+public final class Heartbeat {
+	/** The nanoTime of the last message or pong. Written by the socket thread. */
+	private volatile long lastHeard;
+	/** The nanoTime of the last heartbeat ping. Only used by the simulation thread. */
+	private long lastPing = Long.MIN_VALUE;
+
+	/** @param now the nanoTime the session connected at. */
+	public Heartbeat(long now) {
+		lastHeard = now;
+	}
+
+	/** Records that the client sent something at the given nanoTime. */
+	public void heard(long now) {
+		lastHeard = now;
+	}
+
+	/** Returns the nanoTime the client last sent something at. */
+	public long getLastHeard() {
+		return lastHeard;
+	}
+
+	/**
+	 * Returns true, and restarts the interval, if the client has been quiet for the
+	 * interval and was not pinged during it.
+	 */
+	public boolean isPingDue(long now, long interval) {
+		if (now - lastHeard < interval || lastPing != Long.MIN_VALUE && now - lastPing < interval) {
+			return false;
+		}
+		lastPing = now;
+		return true;
+	}
+
+	/** Returns true if the client has been quiet for longer than the deadline. */
+	public boolean isExpired(long now, long deadline) {
+		return now - lastHeard > deadline;
+	}
+}
@@ -0,0 +1,108 @@
+package main.java.web;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jetty.websocket.api.Session;
+
+import main.java.environment.Environment;
+import main.java.environment.TickListener;
+
+
+/**
+ * Reaps sessions whose clients vanished without a close frame, so that their
+ * players stop being simulated and sent frames. A few times a second it pings
+ * every session that has been quiet for the ping interval, and disconnects the
+ * ones that have sent nothing, not even a pong, for longer than the deadline.
+ * Playing clients send input every tick, so in practice only idle and pre-game
+ * sessions are pinged.
+ *
+ * The reaped sessions are removed and their players despawned together, through
+ * the same code as a close frame, and then their connections are dropped. When
+ * Jetty then reports the close, there is nothing left to do.
+ *
+ * The sweeps run on ticks, so they stop while the simulation is paused. The first
+ * sweep after a pause restarts every session's deadline, rather than reaping the
+ * clients that had nothing to answer.
+ */
+public class HeartbeatMonitor implements TickListener {
+	/** Set this system property to the deadline in milliseconds to change it. Quiet sessions are pinged at least twice within it. */
+	public static final String DEADLINE_PROPERTY = "heartbeat.deadline";
+	/** Quiet sessions are pinged this often, in nanoseconds. */
+	public static final long DEFAULT_PING_INTERVAL = SendRate.PING_INTERVAL;
+	/** Sessions quiet for longer than this are reaped, in nanoseconds. */
+	public static final long DEFAULT_DEADLINE = 10_000_000_000L;
+	/** Sessions are checked every this many ticks. */
+	private static final int SWEEP_TICKS = Environment.TICK_RATE / 4;
+
+	private final GameSocket server;
+	private volatile long pingInterval = DEFAULT_PING_INTERVAL;
+	private volatile long deadline =
+		Long.getLong(DEADLINE_PROPERTY, DEFAULT_DEADLINE / 1_000_000L) * 1_000_000L;
+	private long lastSweep = Long.MIN_VALUE;
+	private volatile long reapedSessions;
+
+	public HeartbeatMonitor(GameSocket server, Environment environment) {
+		this.server = server;
+		setTimeouts(Math.min(pingInterval, deadline / 2), deadline);
+		environment.addTickListener(this);
+	}
+
+	/** Called by the Environment on the simulation thread once a tick completes. */
+	@Override
+	public void onTick(long tick) {
+		if (tick % SWEEP_TICKS != 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		if (lastSweep != Long.MIN_VALUE && now - lastSweep > pingInterval) {
+			// The simulation was paused, so nobody was pinged.
+			for (SessionRegistry.Entry entry : server.getEntries()) {
+				entry.getHeartbeat().heard(now);
+			}
+		}
+		lastSweep = now;
+		sweep(now);
+	}
+
+	/** Pings the quiet sessions and reaps the expired ones, as of the given nanoTime. */
+	public void sweep(long now) {
+		List<Session> expired = null;
+		for (SessionRegistry.Entry entry : server.getEntries()) {
+			Heartbeat heartbeat = entry.getHeartbeat();
+			if (heartbeat.isExpired(now, deadline)) {
+				if (expired == null) {
+					expired = new ArrayList<>();
+				}
+				expired.add(entry.getSession());
+			} else if (heartbeat.isPingDue(now, pingInterval)) {
+				server.ping(entry.getSession(), now);
+			}
+		}
+		if (expired != null) {
+			reapedSessions += server.reap(expired);
+		}
+	}
+
+	public long getPingInterval() {
+		return pingInterval;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/** Sets how often quiet sessions are pinged, and how long they may be quiet, in nanoseconds. */
+	public void setTimeouts(long pingInterval, long deadline) {
+		if (pingInterval <= 0 || deadline < pingInterval) {
+			throw new IllegalArgumentException("ping interval must be positive, and no longer than the deadline");
+		}
+		this.pingInterval = pingInterval;
+		this.deadline = deadline;
+	}
+
+	/** Returns how many sessions have been reaped. */
+	public long getReapedSessions() {
+		return reapedSessions;
+	}
+}
@@ -0,0 +1,113 @@
+package main.java.web;
+
+import main.java.environment.Environment;
+
+
+/**
+ * Limits what one client may send, so that a misbehaving client cannot tie up
+ * the server's threads or flood everyone else's chat. Movement input, chat and
+ * commands each have their own TokenBucket, and messages longer than
+ * MAX_MESSAGE_SIZE are refused outright. Excess inputs are dropped, which is
+ * harmless: the player's InputSlot only keeps the latest input of a tick anyway.
+ *
+ * Every refused message is a strike, and strikes are forgiven at STRIKE_RATE per
+ * second. A client that runs out of forgiveness is an offender, and the socket
+ * disconnects it. A client within its budgets never gets a strike.
+ *
+ * Used by the session's socket thread; the counters may be read by any thread.
+ */
+public class InboundLimiter {
+	/** The longest message accepted, in characters for text and bytes for binary. */
+	public static final int MAX_MESSAGE_SIZE = 4096;
+	/** Clients send one input per tick, so this leaves room for uneven delivery. */
+	public static final double INPUT_RATE = 1.5 * Environment.TICK_RATE;
+	public static final double INPUT_BURST = 2 * Environment.TICK_RATE;
+	public static final double CHAT_RATE = 2;
+	public static final double CHAT_BURST = 5;
+	/** Commands, including choosing a name. */
+	public static final double COMMAND_RATE = 4;
+	public static final double COMMAND_BURST = 8;
+	/** A client refused this many more times than it was forgiven is an offender. */
+	public static final double MAX_STRIKES = 20;
+	/** How many strikes are forgiven per second. */
+	public static final double STRIKE_RATE = 1;
+
+	private final TokenBucket inputs = new TokenBucket(INPUT_RATE, INPUT_BURST);
+	private final TokenBucket chats = new TokenBucket(CHAT_RATE, CHAT_BURST);
+	private final TokenBucket commands = new TokenBucket(COMMAND_RATE, COMMAND_BURST);
+	private final TokenBucket strikes = new TokenBucket(STRIKE_RATE, MAX_STRIKES);
+
+	/** Only written by the socket thread. */
+	private volatile long droppedInputs;
+	private volatile long droppedChats;
+	private volatile long droppedCommands;
+	private volatile long oversizedMessages;
+	private volatile boolean offender;
+
+	/** Returns false, and counts a strike, if a message of the given size is too long. */
+	public boolean allowSize(int size, long now) {
+		if (size <= MAX_MESSAGE_SIZE) {
+			return true;
+		}
+		oversizedMessages++;
+		strike(now);
+		return false;
+	}
+
+	/** Returns false, and counts a strike, if the client is over its input budget. */
+	public boolean allowInput(long now) {
+		if (inputs.tryTake(now)) {
+			return true;
+		}
+		droppedInputs++;
+		strike(now);
+		return false;
+	}
+
+	/** Returns false, and counts a strike, if the client is over its chat budget. */
+	public boolean allowChat(long now) {
+		if (chats.tryTake(now)) {
+			return true;
+		}
+		droppedChats++;
+		strike(now);
+		return false;
+	}
+
+	/** Returns false, and counts a strike, if the client is over its command budget. */
+	public boolean allowCommand(long now) {
+		if (commands.tryTake(now)) {
+			return true;
+		}
+		droppedCommands++;
+		strike(now);
+		return false;
+	}
+
+	private void strike(long now) {
+		if (!strikes.tryTake(now)) {
+			offender = true;
+		}
+	}
+
+	/** Returns true once the client has been refused too often, and should be disconnected. */
+	public boolean isOffender() {
+		return offender;
+	}
+
+	public long getDroppedInputs() {
+		return droppedInputs;
+	}
+
+	public long getDroppedChats() {
+		return droppedChats;
+	}
+
+	public long getDroppedCommands() {
+		return droppedCommands;
+	}
+
+	public long getOversizedMessages() {
+		return oversizedMessages;
+	}
+}
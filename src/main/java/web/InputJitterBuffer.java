@@ -0,0 +1,144 @@
+package main.java.web;
+
+import main.java.agent.PlayerAgent;
+import main.java.environment.Environment;
+
+
+/**
+ * Holds one client's inputs for a short, adaptive delay, so that they reach its
+ * PlayerAgent at the steady cadence of the ticks rather than whenever the network
+ * delivers them. The socket's thread stamps each input with its arrival time, and
+ * the simulation thread releases them once a tick, for the next tick to apply.
+ *
+ * Clients send one input per tick, so the buffer aims to hold as many inputs as
+ * the jitter spans: then an input that arrives late has still usually arrived by
+ * the time it is due. The jitter is the smoothed deviation of the gaps between
+ * arrivals from a tick, as in RTP's interarrival jitter; longer gaps than IDLE_GAP
+ * are pauses in input rather than jitter. An input is held until the buffer is
+ * deeper than the target, or until it has waited as long as that would take.
+ * Inputs beyond one more than the target are released together, and coalesce in
+ * the agent's InputSlot.
+ *
+ * The inputs are copied into a fixed ring, so buffering allocates nothing.
+ */
+public class InputJitterBuffer {
+	/** The most inputs held. When it is full, the oldest is released at once. */
+	public static final int CAPACITY = 16;
+	/** The most inputs the buffer aims to hold, i.e. the longest delay in ticks. */
+	public static final int MAX_DEPTH = 4;
+	/** The nanoseconds between ticks, and so between a client's inputs. */
+	private static final long TICK = 1_000_000_000L / Environment.TICK_RATE;
+	/** Gaps between inputs this long are pauses rather than jitter, in nanoseconds. */
+	private static final long IDLE_GAP = 10 * TICK;
+	/** Weight of the newest sample in the smoothed jitter and delay, as in RTP. */
+	private static final double SMOOTHING = 1.0 / 16;
+	/** The depth aimed for, as a multiple of the jitter. */
+	private static final double DEPTH_PER_JITTER = 2;
+
+	private final ClientInput[] inputs = new ClientInput[CAPACITY];
+	private final long[] arrivals = new long[CAPACITY];
+	private int head = 0;
+	private int count = 0;
+
+	private long lastArrival = Long.MIN_VALUE;
+	/** Smoothed jitter and delay in nanoseconds. */
+	private double jitter = 0;
+	private double delay = 0;
+	private int depth = 0;
+	/** Whether the buffer ran dry while inputs were being released every tick. */
+	private boolean starved = false;
+	private boolean releasedLastTick = false;
+	private long underruns = 0;
+	private long overflows = 0;
+
+	public InputJitterBuffer() {
+		for (int i = 0; i < CAPACITY; i++) {
+			inputs[i] = new ClientInput();
+		}
+	}
+
+	/**
+	 * Buffers a copy of an input that arrived at the given nanoTime, updating the
+	 * jitter and the depth. Called by the socket's thread.
+	 */
+	public synchronized void offer(ClientInput input, long now, PlayerAgent agent) {
+		if (lastArrival != Long.MIN_VALUE) {
+			long gap = now - lastArrival;
+			if (gap < IDLE_GAP) {
+				jitter += (Math.abs(gap - TICK) - jitter) * SMOOTHING;
+				if (starved) {
+					// The input stream went on, so the buffer should not have run dry.
+					underruns++;
+				}
+			}
+		}
+		starved = false;
+		lastArrival = now;
+		depth = Math.min(MAX_DEPTH, (int) Math.ceil(DEPTH_PER_JITTER * jitter / TICK));
+
+		if (count == CAPACITY) {
+			releaseOldest(now, agent);
+			overflows++;
+		}
+		int slot = (head + count) % CAPACITY;
+		inputs[slot].set(input);
+		arrivals[slot] = now;
+		count++;
+	}
+
+	/** Releases the inputs due at the given nanoTime to the agent. Called by the simulation thread once a tick. */
+	public synchronized void release(long now, PlayerAgent agent) {
+		if (count == 0) {
+			starved = releasedLastTick;
+			releasedLastTick = false;
+			return;
+		}
+		if (count <= depth && now - arrivals[head] < depth * TICK) {
+			releasedLastTick = false;
+			return;
+		}
+		releaseOldest(now, agent);
+		while (count > depth + 1) {
+			releaseOldest(now, agent);
+			overflows++;
+		}
+		releasedLastTick = true;
+	}
+
+	private void releaseOldest(long now, PlayerAgent agent) {
+		agent.addPlayerEvent(inputs[head]);
+		delay += (now - arrivals[head] - delay) * SMOOTHING;
+		head = (head + 1) % CAPACITY;
+		count--;
+	}
+
+	/** Returns the smoothed jitter of the gaps between inputs, in milliseconds. */
+	public synchronized double getJitter() {
+		return jitter / 1e6;
+	}
+
+	/** Returns the smoothed time inputs spend in the buffer, in milliseconds. */
+	public synchronized double getDelay() {
+		return delay / 1e6;
+	}
+
+	/** Returns how many inputs the buffer aims to hold. */
+	public synchronized int getDepth() {
+		return depth;
+	}
+
+	/** Returns how many inputs the buffer holds. */
+	public synchronized int getBuffered() {
+		return count;
+	}
+
+	/** Returns how many times the buffer ran dry while inputs were flowing. */
+	public synchronized long getUnderruns() {
+		return underruns;
+	}
+
+	/** Returns how many inputs were released early because the buffer was too deep or full. */
+	public synchronized long getOverflows() {
+		return overflows;
+	}
+}
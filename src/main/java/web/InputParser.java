@@ -0,0 +1,362 @@
+package main.java.web;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Reads the JSON inputs clients send into a reused ClientInput, in one pass over
+ * the text and without building a tree or reflecting over fields. Only the fields
+ * of ClientInput are read; other keys are skipped, whatever their values, and a
+ * null leaves a field unset.
+ *
+ * Keys are matched in a reused buffer, and numbers are parsed in place, so the
+ * movement, aim, sequence numbers and acknowledgements clients send every frame
+ * allocate nothing. Only the name, chat message and protocols, which are sent as
+ * messages of their own, become Strings. Not thread-safe; use one parser per
+ * connection.
+ */
+public final class InputParser {
+	/** Powers of ten that doubles hold exactly. */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	/** Significant digits beyond this many are left to Double.parseDouble. */
+	private static final int MAX_DIGITS = 18;
+	/** Input sequence numbers wrap around after this. */
+	private static final long MAX_SEQUENCE = 0xFFFFFFFFL;
+
+	private final StringBuilder key = new StringBuilder();
+	private CharSequence text;
+	private int position;
+
+	/**
+	 * Parses an input, replacing the contents of the given one.
+	 * @throws IllegalArgumentException if the text is not a JSON object of input fields.
+	 */
+	public void parse(CharSequence text, ClientInput input) {
+		input.reset();
+		this.text = text;
+		this.position = 0;
+		try {
+			expect('{');
+			if (peek() == '}') {
+				position++;
+			} else {
+				do {
+					readKey();
+					expect(':');
+					readField(input);
+				} while (next(',', '}') == ',');
+			}
+			skipWhitespace();
+			if (position != text.length()) {
+				throw error("trailing characters");
+			}
+		} finally {
+			this.text = null;
+		}
+	}
+
+	/** Reads the value of the key just read into the matching field, or skips it. */
+	private void readField(ClientInput input) {
+		if (peek() == 'n') {
+			readLiteral("null");
+		} else if (keyIs("up")) {
+			input.setUp(readBoolean());
+		} else if (keyIs("down")) {
+			input.setDown(readBoolean());
+		} else if (keyIs("left")) {
+			input.setLeft(readBoolean());
+		} else if (keyIs("right")) {
+			input.setRight(readBoolean());
+		} else if (keyIs("isFiring")) {
+			input.setIsFiring(readBoolean());
+		} else if (keyIs("angle")) {
+			input.setAngle(readNumber());
+		} else if (keyIs("ack")) {
+			double ack = readNumber();
+			if (ack != Math.rint(ack) || ack < 0) {
+				throw error("ack must be a tick");
+			}
+			input.setAck((long) ack);
+		} else if (keyIs("seq")) {
+			double sequence = readNumber();
+			if (sequence != Math.rint(sequence) || sequence < 0 || sequence > MAX_SEQUENCE) {
+				throw error("seq must be a sequence number");
+			}
+			input.setSequence((long) sequence);
+		} else if (keyIs("resync")) {
+			input.setResync(readBoolean());
+		} else if (keyIs("name")) {
+			input.setName(readString());
+		} else if (keyIs("message")) {
+			input.setMessage(readString());
+		} else if (keyIs("protocols")) {
+			input.setProtocols(readStrings());
+		} else {
+			skipValue();
+		}
+	}
+
+	private boolean keyIs(String name) {
+		return name.contentEquals(key);
+	}
+
+	/** Reads a key into the reused buffer. */
+	private void readKey() {
+		key.setLength(0);
+		readString(key);
+	}
+
+	private boolean readBoolean() {
+		if (peek() == 't') {
+			readLiteral("true");
+			return true;
+		}
+		readLiteral("false");
+		return false;
+	}
+
+	private void readLiteral(String literal) {
+		for (int i = 0; i < literal.length(); i++) {
+			if (position >= text.length() || text.charAt(position) != literal.charAt(i)) {
+				throw error("expected " + literal);
+			}
+			position++;
+		}
+	}
+
+	/**
+	 * Reads a number. Up to MAX_DIGITS significant digits without an exponent are
+	 * computed in place, to within a unit in the last place; anything else is handed
+	 * to Double.parseDouble.
+	 */
+	private double readNumber() {
+		int start = position;
+		boolean negative = false;
+		if (position < text.length() && text.charAt(position) == '-') {
+			negative = true;
+			position++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean exact = true;
+		int integerDigits = 0;
+		while (position < text.length() && isDigit(text.charAt(position))) {
+			if (digits < MAX_DIGITS) {
+				mantissa = mantissa * 10 + (text.charAt(position) - '0');
+				if (mantissa != 0) {
+					digits++;
+				}
+			} else {
+				exact = false;
+			}
+			integerDigits++;
+			position++;
+		}
+		if (integerDigits == 0) {
+			throw error("expected a number");
+		}
+		if (position < text.length() && text.charAt(position) == '.') {
+			position++;
+			int fractionDigits = 0;
+			while (position < text.length() && isDigit(text.charAt(position))) {
+				if (digits < MAX_DIGITS) {
+					mantissa = mantissa * 10 + (text.charAt(position) - '0');
+					if (mantissa != 0) {
+						digits++;
+					}
+					exponent--;
+				} else {
+					exact = false;
+				}
+				fractionDigits++;
+				position++;
+			}
+			if (fractionDigits == 0) {
+				throw error("expected a digit");
+			}
+		}
+		if (position < text.length() && (text.charAt(position) == 'e' || text.charAt(position) == 'E')) {
+			// Rare enough from browsers not to be worth handling in place.
+			position++;
+			if (position < text.length() && (text.charAt(position) == '+' || text.charAt(position) == '-')) {
+				position++;
+			}
+			int exponentStart = position;
+			while (position < text.length() && isDigit(text.charAt(position))) {
+				position++;
+			}
+			if (position == exponentStart) {
+				throw error("expected a digit");
+			}
+			exact = false;
+		}
+		if (!exact || -exponent >= POWERS_OF_TEN.length) {
+			return Double.parseDouble(text.subSequence(start, position).toString());
+		}
+		double value = mantissa / POWERS_OF_TEN[-exponent];
+		return negative ? -value : value;
+	}
+
+	private String readString() {
+		StringBuilder value = new StringBuilder();
+		readString(value);
+		return value.toString();
+	}
+
+	private String[] readStrings() {
+		expect('[');
+		List<String> values = new ArrayList<>();
+		if (peek() == ']') {
+			position++;
+		} else {
+			do {
+				skipWhitespace();
+				values.add(readString());
+			} while (next(',', ']') == ',');
+		}
+		return values.toArray(new String[values.size()]);
+	}
+
+	/** Reads a string, unescaping it into the given buffer. */
+	private void readString(StringBuilder out) {
+		expect('"');
+		while (true) {
+			if (position >= text.length()) {
+				throw error("unterminated string");
+			}
+			char c = text.charAt(position++);
+			if (c == '"') {
+				return;
+			} else if (c != '\\') {
+				out.append(c);
+				continue;
+			}
+			if (position >= text.length()) {
+				throw error("unterminated string");
+			}
+			char escaped = text.charAt(position++);
+			switch (escaped) {
+			case '"':
+			case '\\':
+			case '/':
+				out.append(escaped);
+				break;
+			case 'b':
+				out.append('\b');
+				break;
+			case 'f':
+				out.append('\f');
+				break;
+			case 'n':
+				out.append('\n');
+				break;
+			case 'r':
+				out.append('\r');
+				break;
+			case 't':
+				out.append('\t');
+				break;
+			case 'u':
+				if (position + 4 > text.length()) {
+					throw error("truncated escape");
+				}
+				int code = 0;
+				for (int i = 0; i < 4; i++) {
+					int digit = Character.digit(text.charAt(position++), 16);
+					if (digit < 0) {
+						throw error("invalid escape");
+					}
+					code = code << 4 | digit;
+				}
+				out.append((char) code);
+				break;
+			default:
+				throw error("invalid escape");
+			}
+		}
+	}
+
+	/** Skips a value of a key that is not an input field. */
+	private void skipValue() {
+		char c = peek();
+		if (c == '"') {
+			key.setLength(0);
+			readString(key);
+		} else if (c == '{') {
+			position++;
+			if (peek() == '}') {
+				position++;
+				return;
+			}
+			do {
+				readKey();
+				expect(':');
+				skipValue();
+			} while (next(',', '}') == ',');
+		} else if (c == '[') {
+			position++;
+			if (peek() == ']') {
+				position++;
+				return;
+			}
+			do {
+				skipValue();
+			} while (next(',', ']') == ',');
+		} else if (c == 't' || c == 'f') {
+			readBoolean();
+		} else if (c == 'n') {
+			readLiteral("null");
+		} else {
+			readNumber();
+		}
+	}
+
+	/** Skips whitespace, and returns the next character without consuming it. */
+	private char peek() {
+		skipWhitespace();
+		if (position >= text.length()) {
+			throw error("unexpected end");
+		}
+		return text.charAt(position);
+	}
+
+	private void expect(char expected) {
+		if (peek() != expected) {
+			throw error("expected '" + expected + "'");
+		}
+		position++;
+	}
+
+	/** Consumes and returns the next character, which must be one of the two given. */
+	private char next(char first, char second) {
+		char c = peek();
+		if (c != first && c != second) {
+			throw error("expected '" + first + "' or '" + second + "'");
+		}
+		position++;
+		return c;
+	}
+
+	private void skipWhitespace() {
+		while (position < text.length()) {
+			char c = text.charAt(position);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				return;
+			}
+			position++;
+		}
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at position " + position);
+	}
+}
@@ -0,0 +1,326 @@
+package main.java.web;
+
+import java.awt.geom.Point2D;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+
+import main.java.agent.Agent;
+import main.java.agent.NPCAgent;
+import main.java.agent.PlayerAgent;
+import main.java.misc.ChangeTracker;
+import main.java.misc.Tracked;
+import main.java.projectile.Projectile;
+
+
+/**
+ * Writes state frames as JSON straight into a reusable buffer. The text is
+ * exactly what Gson would print for the same frame built as a JsonObject tree:
+ * the same key order, numbers printed as by Double.toString and Integer.toString,
+ * and strings escaped as by Gson's JsonWriter.
+ *
+ * Appending numbers to a StringBuilder formats them in place, so apart from
+ * the buffer growing to fit the largest frame, writing allocates nothing but
+ * the entities' position copies. Not thread-safe; use one writer per thread.
+ */
+public final class JsonFrameWriter {
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	/** An upper bound of the bytes a frame without any entities takes. */
+	static final int FRAME_SIZE = 352;
+	/** An upper bound of the bytes a number and its key take. */
+	private static final int NUMBER_SIZE = 40;
+
+	private final StringBuilder out;
+
+	public JsonFrameWriter() {
+		this(4096);
+	}
+
+	public JsonFrameWriter(int initialCapacity) {
+		out = new StringBuilder(initialCapacity);
+	}
+
+	/** Replaces the buffer's contents with the frame, and returns this writer. */
+	public JsonFrameWriter write(StateFrame frame) {
+		out.setLength(0);
+		out.append("{\"tick\":").append(frame.getTick());
+		out.append(",\"baseline\":").append(frame.getBaseline());
+		out.append(",\"keyframe\":").append(frame.isKeyframe());
+		out.append(",\"inputSeq\":").append(frame.getInputSequence());
+		out.append(",\"vx\":").append(frame.getVelocityX());
+		out.append(",\"vy\":").append(frame.getVelocityY());
+
+		writePlayerAgents("spawnedPlayerAgents", frame.getSpawnedPlayerAgents());
+		writeNPCAgents("spawnedNPCAgents", frame.getSpawnedNPCAgents());
+		writeProjectiles("spawnedProjectiles", frame.getSpawnedProjectiles());
+		writePlayerAgents("playerAgents", frame.getPlayerAgents());
+		writeNPCAgents("npcAgents", frame.getNpcAgents());
+		writeProjectiles("projectiles", frame.getProjectiles());
+
+		writeIDs("despawnedPlayerAgents", frame.getDespawnedPlayerAgents());
+		writeIDs("despawnedNPCAgents", frame.getDespawnedNPCAgents());
+		writeIDs("despawnedProjectiles", frame.getDespawnedProjectiles());
+		writeIDs("hitProjectiles", frame.getHitProjectiles());
+		writeIDs("culled", frame.getCulled());
+		out.append('}');
+		return this;
+	}
+
+	/** The text of the last frame written. Valid until the next write. */
+	public CharSequence getText() {
+		return out;
+	}
+
+	public int length() {
+		return out.length();
+	}
+
+	/** Returns the number of bytes the text of the last frame written takes in UTF-8. */
+	public int utf8Length() {
+		return Utf8.length(out);
+	}
+
+	/** Encodes the text of the last frame written as UTF-8 into the buffer, which
+	 *  must have utf8Length() bytes remaining. */
+	public void encodeUtf8(ByteBuffer dst) {
+		Utf8.encode(out, dst);
+	}
+
+	/** Copies the text of the last frame written into a String. */
+	@Override
+	public String toString() {
+		return out.toString();
+	}
+
+	private void writePlayerAgents(String key, List<StateFrame.Entry<PlayerAgent>> entries) {
+		out.append(",\"").append(key).append("\":[");
+		for (int i = 0; i < entries.size(); i++) {
+			if (i > 0) {
+				out.append(',');
+			}
+			writePlayerAgent(entries.get(i).getEntity(), entries.get(i).getFields(), entries.get(i).isCoarse());
+		}
+		out.append(']');
+	}
+
+	private void writeNPCAgents(String key, List<StateFrame.Entry<NPCAgent>> entries) {
+		out.append(",\"").append(key).append("\":[");
+		for (int i = 0; i < entries.size(); i++) {
+			if (i > 0) {
+				out.append(',');
+			}
+			writeAgent(entries.get(i).getEntity(), entries.get(i).getFields(), entries.get(i).isCoarse());
+		}
+		out.append(']');
+	}
+
+	private void writeProjectiles(String key, List<StateFrame.Entry<Projectile>> entries) {
+		out.append(",\"").append(key).append("\":[");
+		for (int i = 0; i < entries.size(); i++) {
+			if (i > 0) {
+				out.append(',');
+			}
+			writeProjectile(entries.get(i).getEntity(), entries.get(i).getFields());
+		}
+		out.append(']');
+	}
+
+	/** Writes the given ChangeTracker fields of an NPC agent. The ID is always included. */
+	private void writeAgent(Agent src, int fields, boolean coarse) {
+		writeID(src.getID());
+		if ((fields & ChangeTracker.SIZE) != 0) {
+			out.append(",\"size\":").append(src.getSize());
+		}
+		if ((fields & ChangeTracker.HEALTH) != 0) {
+			out.append(",\"health\":").append(src.getHealth());
+		}
+		if ((fields & ChangeTracker.MAX_HEALTH) != 0) {
+			out.append(",\"maxHealth\":").append(src.getMaxHealth());
+		}
+		if ((fields & ChangeTracker.POSITION) != 0) {
+			writePosition(src.getPosition(), coarse);
+		}
+		if ((fields & ChangeTracker.ANGLE) != 0) {
+			writeAngle(src.getAngle(), coarse);
+		}
+		if ((fields & ChangeTracker.TEAM) != 0) {
+			out.append(",\"color\":");
+			writeString(src.getHexColor());
+		}
+		out.append('}');
+	}
+
+	/** Writes the given ChangeTracker fields of a player agent. Player agents have no size. */
+	private void writePlayerAgent(PlayerAgent src, int fields, boolean coarse) {
+		writeID(src.getID());
+		if ((fields & ChangeTracker.NAME) != 0) {
+			out.append(",\"name\":");
+			writeString(src.getName());
+		}
+		if ((fields & ChangeTracker.HEALTH) != 0) {
+			out.append(",\"health\":").append(src.getHealth());
+		}
+		if ((fields & ChangeTracker.MAX_HEALTH) != 0) {
+			out.append(",\"maxHealth\":").append(src.getMaxHealth());
+		}
+		if ((fields & ChangeTracker.POINTS) != 0) {
+			out.append(",\"points\":").append(src.getPoints());
+			out.append(",\"pointsLeft\":").append(src.getPointsUntilLevelUp());
+		}
+		if ((fields & ChangeTracker.POSITION) != 0) {
+			writePosition(src.getPosition(), coarse);
+		}
+		if ((fields & ChangeTracker.ANGLE) != 0) {
+			writeAngle(src.getAngle(), coarse);
+		}
+		if ((fields & ChangeTracker.TEAM) != 0) {
+			out.append(",\"color\":");
+			writeString(src.getHexColor());
+		}
+		out.append('}');
+	}
+
+	/**
+	 * Writes the given ChangeTracker fields of a projectile. Its position is sent as
+	 * its trajectory: the origin, the velocity per tick and the launch tick.
+	 */
+	private void writeProjectile(Projectile src, int fields) {
+		writeID(src.getID());
+		if ((fields & ChangeTracker.SIZE) != 0) {
+			out.append(",\"size\":").append(src.getSize());
+		}
+		if ((fields & ChangeTracker.POSITION) != 0) {
+			Point2D.Double origin = src.getOrigin();
+			out.append(",\"originX\":").append(origin.getX());
+			out.append(",\"originY\":").append(origin.getY());
+			out.append(",\"vx\":").append(src.getVelocityX());
+			out.append(",\"vy\":").append(src.getVelocityY());
+			out.append(",\"launchTick\":").append(src.getLaunchTick());
+		}
+		if ((fields & ChangeTracker.TEAM) != 0) {
+			out.append(",\"color\":");
+			writeString(src.getHexColor());
+		}
+		out.append('}');
+	}
+
+	/**
+	 * Returns an upper bound of the bytes the given ChangeTracker fields of an entity
+	 * take in a frame, with the comma before it.
+	 */
+	static int estimateSize(Tracked entity, int fields) {
+		int size = 1 + 46;
+		if (entity instanceof Projectile) {
+			int numbers = ((fields & ChangeTracker.SIZE) != 0 ? 1 : 0) + ((fields & ChangeTracker.POSITION) != 0 ? 5 : 0);
+			return size + numbers * NUMBER_SIZE + ((fields & ChangeTracker.TEAM) != 0 ? 20 : 0);
+		}
+		for (int field = 1; field < 1 << ChangeTracker.FIELD_COUNT; field <<= 1) {
+			if ((fields & field) == 0) {
+				continue;
+			} else if (field == ChangeTracker.POSITION || field == ChangeTracker.POINTS) {
+				size += 2 * NUMBER_SIZE;
+			} else if (field == ChangeTracker.TEAM) {
+				size += 20;
+			} else if (field == ChangeTracker.NAME) {
+				// Control characters are escaped as six characters.
+				size += entity instanceof PlayerAgent ? 10 + 6 * ((PlayerAgent) entity).getName().length() : 0;
+			} else {
+				size += NUMBER_SIZE;
+			}
+		}
+		return size;
+	}
+
+	/** Writes a position, rounded to whole pixels if coarse. */
+	private void writePosition(Point2D.Double point, boolean coarse) {
+		if (coarse) {
+			out.append(",\"x\":").append(Math.round(point.getX()));
+			out.append(",\"y\":").append(Math.round(point.getY()));
+		} else {
+			out.append(",\"x\":").append(point.getX());
+			out.append(",\"y\":").append(point.getY());
+		}
+	}
+
+	/** Writes an angle, rounded to hundredths of a radian if coarse. */
+	private void writeAngle(double angle, boolean coarse) {
+		out.append(",\"angle\":").append(coarse ? Math.round(angle * 100) / 100.0 : angle);
+	}
+
+	/** Removed entities are written as objects holding only their ID. */
+	private void writeIDs(String key, List<? extends Tracked> entities) {
+		out.append(",\"").append(key).append("\":[");
+		for (int i = 0; i < entities.size(); i++) {
+			if (i > 0) {
+				out.append(',');
+			}
+			writeID(entities.get(i).getID());
+			out.append('}');
+		}
+		out.append(']');
+	}
+
+	/** Opens an entity object with its ID, formatted as by UUID.toString. */
+	private void writeID(UUID id) {
+		out.append("{\"id\":\"");
+		long most = id.getMostSignificantBits();
+		long least = id.getLeastSignificantBits();
+		writeHex(most >>> 32, 8);
+		out.append('-');
+		writeHex(most >>> 16, 4);
+		out.append('-');
+		writeHex(most, 4);
+		out.append('-');
+		writeHex(least >>> 48, 4);
+		out.append('-');
+		writeHex(least, 12);
+		out.append('"');
+	}
+
+	/** Writes the given number of low hex digits of value. */
+	private void writeHex(long value, int digits) {
+		for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+			out.append(HEX_DIGITS[(int) (value >>> shift) & 0xF]);
+		}
+	}
+
+	/** Writes a quoted string, escaped as by Gson's JsonWriter without HTML escaping. */
+	private void writeString(String value) {
+		out.append('"');
+		int start = 0;
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			String replacement;
+			if (c == '"') {
+				replacement = "\\\"";
+			} else if (c == '\\') {
+				replacement = "\\\\";
+			} else if (c == '\t') {
+				replacement = "\\t";
+			} else if (c == '\b') {
+				replacement = "\\b";
+			} else if (c == '\n') {
+				replacement = "\\n";
+			} else if (c == '\r') {
+				replacement = "\\r";
+			} else if (c == '\f') {
+				replacement = "\\f";
+			} else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+				replacement = null;
+			} else {
+				continue;
+			}
+			out.append(value, start, i);
+			if (replacement != null) {
+				out.append(replacement);
+			} else {
+				out.append("\\u");
+				writeHex(c, 4);
+			}
+			start = i + 1;
+		}
+		out.append(value, start, length);
+		out.append('"');
+	}
+}
@@ -0,0 +1,137 @@
+package main.java.web;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+
+/**
+ * Combines the chat, command replies and notices queued for a session during a
+ * tick into a single WebSocket message. They ride on the session's state frame if
+ * it is sent one: a JSON frame gains a "messages" array of strings, and a binary
+ * frame ends with them, as described in BinaryProtocol. Otherwise they are sent in
+ * a text envelope of their own, {"messages":[...]}. Clients handle each string as
+ * if it had arrived alone.
+ *
+ * The messages are kept as raw UTF-8 and escaped as they are copied, so a broadcast
+ * is still only encoded once.
+ */
+final class MessageEnvelope {
+	private static final byte[] ENVELOPE_START = "{\"messages\":[".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] MEMBER_START = "\"messages\":[".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+
+	private MessageEnvelope() {
+	}
+
+	/** Returns a text message holding only the given messages. */
+	static PooledBuffer wrap(BufferPool pool, List<PooledBuffer> messages) {
+		PooledBuffer envelope = pool.acquire(ENVELOPE_START.length + jsonLength(messages) + 2);
+		ByteBuffer dst = envelope.getBuffer();
+		dst.put(ENVELOPE_START);
+		writeJson(messages, dst);
+		dst.put((byte) ']').put((byte) '}');
+		dst.flip();
+		return envelope;
+	}
+
+	/** Returns a copy of the state frame with the given messages added to it. */
+	static PooledBuffer append(BufferPool pool, PooledBuffer frame, boolean binary, List<PooledBuffer> messages) {
+		ByteBuffer src = frame.getBuffer().duplicate();
+		if (binary) {
+			int length = src.remaining() + varintLength(messages.size());
+			for (PooledBuffer message : messages) {
+				int messageLength = message.getBuffer().remaining();
+				length += varintLength(messageLength) + messageLength;
+			}
+			PooledBuffer combined = pool.acquire(length);
+			ByteBuffer dst = combined.getBuffer();
+			dst.put(src);
+			writeVarint(messages.size(), dst);
+			for (PooledBuffer message : messages) {
+				writeVarint(message.getBuffer().remaining(), dst);
+				dst.put(message.getBuffer().duplicate());
+			}
+			dst.flip();
+			return combined;
+		}
+
+		// Reopen the frame's object, which always ends with its closing brace.
+		src.limit(src.limit() - 1);
+		boolean empty = src.get(src.limit() - 1) == '{';
+		PooledBuffer combined = pool.acquire(
+			src.remaining() + 1 + MEMBER_START.length + jsonLength(messages) + 2);
+		ByteBuffer dst = combined.getBuffer();
+		dst.put(src);
+		if (!empty) {
+			dst.put((byte) ',');
+		}
+		dst.put(MEMBER_START);
+		writeJson(messages, dst);
+		dst.put((byte) ']').put((byte) '}');
+		dst.flip();
+		return combined;
+	}
+
+	/** Returns the bytes the messages take as a comma-separated list of JSON strings. */
+	private static int jsonLength(List<PooledBuffer> messages) {
+		int length = Math.max(messages.size() - 1, 0);
+		for (PooledBuffer message : messages) {
+			ByteBuffer src = message.getBuffer();
+			length += 2;
+			for (int i = src.position(); i < src.limit(); i++) {
+				byte b = src.get(i);
+				if (b == '"' || b == '\\') {
+					length += 2;
+				} else if (b >= 0 && b < 0x20) {
+					length += 6;
+				} else {
+					length += 1;
+				}
+			}
+		}
+		return length;
+	}
+
+	/** Writes the messages as a comma-separated list of JSON strings. Bytes of multibyte characters are copied as they are. */
+	private static void writeJson(List<PooledBuffer> messages, ByteBuffer dst) {
+		boolean first = true;
+		for (PooledBuffer message : messages) {
+			if (!first) {
+				dst.put((byte) ',');
+			}
+			first = false;
+			ByteBuffer src = message.getBuffer();
+			dst.put((byte) '"');
+			for (int i = src.position(); i < src.limit(); i++) {
+				byte b = src.get(i);
+				if (b == '"' || b == '\\') {
+					dst.put((byte) '\\').put(b);
+				} else if (b >= 0 && b < 0x20) {
+					dst.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+						.put(HEX[b >> 4]).put(HEX[b & 0xF]);
+				} else {
+					dst.put(b);
+				}
+			}
+			dst.put((byte) '"');
+		}
+	}
+
+	private static int varintLength(int value) {
+		int length = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			length++;
+		}
+		return length;
+	}
+
+	private static void writeVarint(int value, ByteBuffer dst) {
+		while ((value & ~0x7F) != 0) {
+			dst.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		dst.put((byte) value);
+	}
+}
@@ -0,0 +1,309 @@
+package main.java.web;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WebSocketException;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.common.WebSocketRemoteEndpoint;
+import org.eclipse.jetty.websocket.common.frames.TextFrame;
+
+
+/**
+ * The messages waiting to be sent to one session. Only one write is handed to
+ * Jetty at a time, and the next is sent from its write callback, so a slow
+ * client cannot build up an unbounded write queue.
+ *
+ * Chat, command replies and other messages are never dropped, and they are not
+ * sent one by one: they wait until the session's next state frame, which carries
+ * all of them, or until flushMessages is called at the end of the tick, when they
+ * go out together in a MessageEnvelope. Either way a session is sent at most one
+ * WebSocket message per tick, and messages keep the order they were queued in.
+ *
+ * State frames are only useful until the next one is built, so at most one waits
+ * here: a newer frame replaces an unsent older one, which is counted as dropped.
+ * Messages stay queued until a frame is sent, so they are never dropped with one.
+ *
+ * Messages cannot be dropped to bound the queue, so it is bounded by closing it:
+ * a session whose queued messages would exceed MAX_QUEUED_BYTES is not reading
+ * them, and is closed with StatusCode.POLICY_VIOLATION. Everything it had queued
+ * is released at once, and the server forgets the session when Jetty reports it
+ * closed.
+ *
+ * The queue's lock is only held to update it and to copy messages into the write
+ * that carries them, never while sending.
+ */
+public final class OutboundQueue implements WriteCallback {
+	/** The most bytes of messages that may wait for a session, after which it is closed. */
+	public static final int MAX_QUEUED_BYTES = 256 * 1024;
+
+	private final Session session;
+	/** Holds the writes that combine messages with each other or with a frame. */
+	private final BufferPool pool;
+
+	private final List<PooledBuffer> messages = new ArrayList<>();
+	/** The total size of the queued messages. */
+	private int queuedBytes;
+	/** Whether the messages should be sent without waiting for a frame. */
+	private boolean messagesDue;
+	private PooledBuffer frame;
+	private boolean frameBinary;
+
+	/** The write handed to Jetty, which is released from the write callback. */
+	private PooledBuffer inFlight;
+	private boolean closed;
+	/** Set once the session is to be closed when everything queued has been written. */
+	private boolean closing;
+
+	private long sentMessages;
+	private long sentFrames;
+	private long droppedFrames;
+	private long failedWrites;
+	private long overflows;
+
+	public OutboundQueue(Session session, BufferPool pool) {
+		this.session = session;
+		this.pool = pool;
+	}
+
+	/**
+	 * Queues UTF-8 encoded text that must be delivered, with the next frame or at
+	 * the next flushMessages. The caller keeps its own reference. If the queue
+	 * would grow past MAX_QUEUED_BYTES the session is closed instead.
+	 */
+	public void offerMessage(PooledBuffer payload) {
+		int size = payload.getBuffer().remaining();
+		synchronized (this) {
+			if (closed || closing) {
+				return;
+			}
+			if (queuedBytes + size <= MAX_QUEUED_BYTES) {
+				payload.retain();
+				messages.add(payload);
+				queuedBytes += size;
+				return;
+			}
+			overflows++;
+		}
+		close();
+		session.close(StatusCode.POLICY_VIOLATION, "Too many messages waiting to be sent");
+	}
+
+	/**
+	 * Sends the messages queued so far that have not gone out with a frame, in one
+	 * envelope once the write in progress completes. Called at the end of each tick.
+	 */
+	public void flushMessages() {
+		synchronized (this) {
+			if (messages.isEmpty()) {
+				return;
+			}
+			messagesDue = true;
+		}
+		flush();
+	}
+
+	/**
+	 * Queues a state frame, replacing any frame that has not been sent yet.
+	 * The caller keeps its own reference.
+	 */
+	public void offerFrame(PooledBuffer payload, boolean binary) {
+		PooledBuffer replaced;
+		synchronized (this) {
+			if (closed || closing) {
+				return;
+			}
+			payload.retain();
+			replaced = frame;
+			frame = payload;
+			frameBinary = binary;
+			if (replaced != null) {
+				droppedFrames++;
+			}
+		}
+		if (replaced != null) {
+			replaced.release();
+		}
+		flush();
+	}
+
+	/**
+	 * Sends everything queued so far, once the write in progress completes, and then
+	 * closes the session, so that a last message such as a kick notice is not lost.
+	 * Anything queued afterwards is ignored.
+	 */
+	public void closeWhenSent() {
+		synchronized (this) {
+			if (closed || closing) {
+				return;
+			}
+			closing = true;
+			messagesDue = true;
+		}
+		flush();
+	}
+
+	/** Discards everything waiting to be sent. Anything queued afterwards is ignored. */
+	public void close() {
+		PooledBuffer discarded;
+		List<PooledBuffer> discardedMessages;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			discarded = frame;
+			frame = null;
+			discardedMessages = new ArrayList<>(messages);
+			messages.clear();
+			queuedBytes = 0;
+			messagesDue = false;
+		}
+		if (discarded != null) {
+			discarded.release();
+		}
+		for (PooledBuffer message : discardedMessages) {
+			message.release();
+		}
+	}
+
+	/**
+	 * Returns how many writes are waiting, including the one in progress. The queued
+	 * messages go out in one write, together with the waiting frame if there is one.
+	 */
+	public synchronized int getDepth() {
+		return (frame != null || !messages.isEmpty() ? 1 : 0) + (inFlight != null ? 1 : 0);
+	}
+
+	public synchronized long getSentMessages() {
+		return sentMessages;
+	}
+
+	public synchronized long getSentFrames() {
+		return sentFrames;
+	}
+
+	/** Returns how many state frames were replaced by a newer one before they could be sent. */
+	public synchronized long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	public synchronized long getFailedWrites() {
+		return failedWrites;
+	}
+
+	/** Returns how many times the session was closed for letting too many messages queue up. */
+	public synchronized long getOverflows() {
+		return overflows;
+	}
+
+	/** Returns the total size of the messages waiting to be sent. */
+	public synchronized int getQueuedBytes() {
+		return queuedBytes;
+	}
+
+	/**
+	 * Hands the waiting frame, with any messages, or the due messages on their own to
+	 * Jetty, unless a write is already in progress.
+	 */
+	private void flush() {
+		PooledBuffer next;
+		boolean binary = false;
+		boolean drained = false;
+		synchronized (this) {
+			if (inFlight != null || closed) {
+				return;
+			}
+			if (frame != null) {
+				binary = frameBinary;
+				if (messages.isEmpty()) {
+					next = frame;
+				} else {
+					next = MessageEnvelope.append(pool, frame, binary, messages);
+					frame.release();
+					releaseMessages();
+				}
+				frame = null;
+				sentFrames++;
+			} else if (messagesDue && !messages.isEmpty()) {
+				next = MessageEnvelope.wrap(pool, messages);
+				releaseMessages();
+			} else if (closing) {
+				next = null;
+				closing = false;
+				closed = true;
+				drained = true;
+			} else {
+				return;
+			}
+			inFlight = next;
+		}
+		if (drained) {
+			session.close();
+			return;
+		}
+
+		try {
+			if (!session.isOpen()) {
+				throw new WebSocketException("session is closed");
+			}
+			RemoteEndpoint remote = session.getRemote();
+			if (binary) {
+				remote.sendBytes(next.getBuffer().duplicate(), this);
+			} else if (remote instanceof WebSocketRemoteEndpoint) {
+				TextFrame textFrame = new TextFrame();
+				textFrame.setPayload(next.getBuffer().duplicate());
+				((WebSocketRemoteEndpoint) remote).uncheckedSendFrame(textFrame, this);
+			} else {
+				// Other endpoints can only be given Strings.
+				remote.sendString(StandardCharsets.UTF_8.decode(next.getBuffer().duplicate()).toString(), this);
+			}
+		} catch (RuntimeException e) {
+			writeFailed(e);
+		}
+	}
+
+	/** Releases the written buffer and sends the next one. */
+	@Override
+	public void writeSuccess() {
+		complete();
+		flush();
+	}
+
+	@Override
+	public void writeFailed(Throwable x) {
+		synchronized (this) {
+			failedWrites++;
+		}
+		System.out.println("The error " + x.getLocalizedMessage() + " occurred. This "
+				+ "can happen if the player leaves before a message arrives.");
+		complete();
+		flush();
+	}
+
+	/** Releases the queued messages once they have been copied into a write. */
+	private void releaseMessages() {
+		sentMessages += messages.size();
+		for (PooledBuffer message : messages) {
+			message.release();
+		}
+		messages.clear();
+		queuedBytes = 0;
+		messagesDue = false;
+	}
+
+	private void complete() {
+		PooledBuffer written;
+		synchronized (this) {
+			written = inFlight;
+			inFlight = null;
+		}
+		if (written != null) {
+			written.release();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package main.java.web;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+
+/**
+ * A direct buffer on loan from a BufferPool. It starts with one reference,
+ * held by whoever acquired it. Pass it as the WriteCallback of each send it is
+ * retained for, and the completed write releases that reference.
+ */
+public final class PooledBuffer implements WriteCallback {
+	private final BufferPool pool;
+	private final ByteBuffer buffer;
+	private final int sizeClass;
+	private final AtomicInteger references = new AtomicInteger();
+	private BufferPool.LeakTracker tracker;
+
+	PooledBuffer(BufferPool pool, ByteBuffer buffer, int sizeClass) {
+		this.pool = pool;
+		this.buffer = buffer;
+		this.sizeClass = sizeClass;
+	}
+
+	/** The buffer to fill and then flip. Senders must send a duplicate, as writes consume it. */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/** Adds a reference, and returns this buffer. */
+	public PooledBuffer retain() {
+		if (references.getAndIncrement() <= 0) {
+			references.getAndDecrement();
+			throw new IllegalStateException("buffer already returned to its pool");
+		}
+		return this;
+	}
+
+	/** Drops a reference, returning the buffer to its pool if it was the last one. */
+	public void release() {
+		int remaining = references.decrementAndGet();
+		if (remaining == 0) {
+			pool.recycle(this);
+		} else if (remaining < 0) {
+			references.incrementAndGet();
+			throw new IllegalStateException("buffer released more often than retained");
+		}
+	}
+
+	public int getReferenceCount() {
+		return references.get();
+	}
+
+	/** Releases the reference held by a send once it has been written. */
+	@Override
+	public void writeSuccess() {
+		release();
+	}
+
+	/** Releases the reference held by a send that failed, e.g. because the client left. */
+	@Override
+	public void writeFailed(Throwable x) {
+		release();
+	}
+
+	void open() {
+		references.set(1);
+	}
+
+	int getSizeClass() {
+		return sizeClass;
+	}
+
+	/** Replaces the leak tracker, and returns the previous one. */
+	BufferPool.LeakTracker setTracker(BufferPool.LeakTracker tracker) {
+		BufferPool.LeakTracker previous = this.tracker;
+		this.tracker = tracker;
+		return previous;
+	}
+}
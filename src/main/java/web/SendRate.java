@@ -0,0 +1,110 @@
+package main.java.web;
+
+
+/**
+ * How often one client is sent state frames. The rate adapts to the client's
+ * link: it creeps up towards the maximum while frames are delivered promptly,
+ * is cut back whenever a frame is due while the previous one is still queued,
+ * and is capped lower the longer the measured round trip is.
+ *
+ * Round trips are measured with automatic WebSocket pings, which browsers
+ * answer without any help from the page.
+ */
+public class SendRate {
+	/** The lowest rate a client is sent frames at, in Hz. */
+	public static final double DEFAULT_MIN_RATE = 10;
+	/** The highest rate a client is sent frames at, in Hz. */
+	public static final double DEFAULT_MAX_RATE = 60;
+	/** How often each client is pinged, in nanoseconds. */
+	public static final long PING_INTERVAL = 2_000_000_000L;
+
+	/** Round trips up to this long allow the maximum rate, in milliseconds. */
+	private static final double GOOD_ROUND_TRIP = 100;
+	/** Round trips this long or longer allow only the minimum rate, in milliseconds. */
+	private static final double BAD_ROUND_TRIP = 400;
+	/** Added to the rate for each frame sent without a backlog, in Hz. */
+	private static final double INCREASE = 1;
+	/** The rate is multiplied by this for each frame skipped because of a backlog. */
+	private static final double DECREASE = 0.75;
+	/** Weight of the newest sample in the smoothed round trip. */
+	private static final double SMOOTHING = 0.125;
+
+	/** The current rate in Hz; starts at the maximum and is clamped to the bounds on use. */
+	private double rate = Double.POSITIVE_INFINITY;
+	/** Fractions of a frame owed to the client, accumulated every send opportunity. */
+	private double credit = 1;
+	private long skippedFrames;
+
+	/** Smoothed round trip in milliseconds, or NaN until the first pong. Written by the socket thread. */
+	private volatile double roundTrip = Double.NaN;
+	private long lastPing = Long.MIN_VALUE;
+
+	/**
+	 * Decides whether the client is sent a frame at this send opportunity.
+	 * Called by the simulation thread once per opportunity.
+	 *
+	 * @param queueDepth what is waiting in the client's outbound queue, including a write in progress
+	 * @param opportunityRate how many send opportunities there are per second
+	 */
+	public boolean shouldSend(int queueDepth, double opportunityRate, double minRate, double maxRate) {
+		double ceiling = getCeiling(minRate, maxRate);
+		rate = Math.max(minRate, Math.min(rate, ceiling));
+		credit += Math.min(rate, opportunityRate) / opportunityRate;
+		if (credit < 1) {
+			skippedFrames++;
+			return false;
+		}
+		if (queueDepth > 1) {
+			// The last frame has not gone out yet, so the client is falling behind.
+			credit = 0;
+			rate = Math.max(minRate, rate * DECREASE);
+			skippedFrames++;
+			return false;
+		}
+		credit = Math.min(credit - 1, 1);
+		rate = Math.min(ceiling, rate + INCREASE);
+		return true;
+	}
+
+	/** Returns the highest rate the round trip allows. */
+	private double getCeiling(double minRate, double maxRate) {
+		double roundTrip = this.roundTrip;
+		if (Double.isNaN(roundTrip) || roundTrip <= GOOD_ROUND_TRIP) {
+			return maxRate;
+		} else if (roundTrip >= BAD_ROUND_TRIP) {
+			return minRate;
+		}
+		double fraction = (roundTrip - GOOD_ROUND_TRIP) / (BAD_ROUND_TRIP - GOOD_ROUND_TRIP);
+		return maxRate - fraction * (maxRate - minRate);
+	}
+
+	/** Returns true, and restarts the interval, if the client should be pinged at the given nanoTime. */
+	public boolean isPingDue(long now) {
+		if (lastPing != Long.MIN_VALUE && now - lastPing < PING_INTERVAL) {
+			return false;
+		}
+		lastPing = now;
+		return true;
+	}
+
+	/** Adds a measured round trip to the smoothed estimate. */
+	public void recordRoundTrip(long nanos) {
+		double millis = nanos / 1e6;
+		double previous = roundTrip;
+		roundTrip = Double.isNaN(previous) ? millis : previous + SMOOTHING * (millis - previous);
+	}
+
+	/** Returns the smoothed round trip in milliseconds, or NaN if none has been measured. */
+	public double getRoundTrip() {
+		return roundTrip;
+	}
+
+	/** Returns the current rate in Hz, which is infinite until the first send opportunity. */
+	public double getRate() {
+		return rate;
+	}
+
+	public long getSkippedFrames() {
+		return skippedFrames;
+	}
+}
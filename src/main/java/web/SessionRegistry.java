@@ -0,0 +1,260 @@
+package main.java.web;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.jetty.websocket.api.Session;
+
+import main.java.agent.PlayerAgent;
+
+
+/**
+ * Every connected session, and what the server knows about each: one immutable
+ * Entry per session, indexed by session, by name and by short name. A session's
+ * entry is replaced as a whole when it joins the game, so a reader sees either
+ * none of a player or all of it.
+ *
+ * Lookups read concurrent maps without locking. Sending to every session reads a
+ * snapshot of the entries, which is rebuilt whenever a session connects, joins or
+ * leaves; those are rare next to the per-tick fan-out, so no reader copies or
+ * locks anything, and nothing holds a lock while a message is sent. The registry's
+ * own lock only orders the writers, so that a name is claimed by one session.
+ */
+public final class SessionRegistry {
+
+	/** What the server knows about one session. Immutable; joining replaces it. */
+	public static final class Entry {
+		private final Session session;
+		private final OutboundQueue queue;
+		private final Heartbeat heartbeat;
+		private final InboundLimiter limiter;
+		private final String name;
+		private final String shortName;
+		private final PlayerAgent agent;
+		private final ClientView view;
+
+		private Entry(Session session, OutboundQueue queue, Heartbeat heartbeat, InboundLimiter limiter,
+				String name, String shortName, PlayerAgent agent, ClientView view) {
+			this.session = session;
+			this.queue = queue;
+			this.heartbeat = heartbeat;
+			this.limiter = limiter;
+			this.name = name;
+			this.shortName = shortName;
+			this.agent = agent;
+			this.view = view;
+		}
+
+		public Session getSession() {
+			return session;
+		}
+
+		/** Returns what is waiting to be sent to the session. */
+		public OutboundQueue getQueue() {
+			return queue;
+		}
+
+		/** Returns when the session was last heard from. */
+		public Heartbeat getHeartbeat() {
+			return heartbeat;
+		}
+
+		/** Returns what the client may send, and how much of it was refused. */
+		public InboundLimiter getLimiter() {
+			return limiter;
+		}
+
+		/** Returns the player's chosen name, or null if it has not chosen one yet. */
+		public String getName() {
+			return name;
+		}
+
+		/** Returns the name in lowercase and without whitespace, or null. */
+		public String getShortName() {
+			return shortName;
+		}
+
+		/** Returns the player's agent, or null if it has not joined the game yet. */
+		public PlayerAgent getAgent() {
+			return agent;
+		}
+
+		/** Returns what the client has received, or null if it has not joined the game yet. */
+		public ClientView getView() {
+			return view;
+		}
+	}
+
+	private final ConcurrentMap<Session, Entry> sessions = new ConcurrentHashMap<>();
+	/** The entries of named players, by chosen name and by short name. */
+	private final ConcurrentMap<String, Entry> names = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Entry> shortNames = new ConcurrentHashMap<>();
+	/** The agents of spoofed players, which have no session, by short name. */
+	private final ConcurrentMap<String, PlayerAgent> spoofedAgents = new ConcurrentHashMap<>();
+
+	/** Every entry, and the views of the players in the game, rebuilt on every change. */
+	private volatile List<Entry> entries = Collections.emptyList();
+	private volatile List<ClientView> views = Collections.emptyList();
+
+	/** Registers a newly connected session, which has not chosen a name yet. */
+	public synchronized Entry connect(Session session, OutboundQueue queue, Heartbeat heartbeat,
+			InboundLimiter limiter) {
+		Entry entry = new Entry(session, queue, heartbeat, limiter, null, null, null, null);
+		sessions.put(session, entry);
+		updateSnapshots();
+		return entry;
+	}
+
+	/**
+	 * Claims a name for a session. Returns false, changing nothing, if another
+	 * session has a name with the same short name, or if the session has left or
+	 * already has a name.
+	 */
+	public synchronized boolean claimName(Session session, String name) {
+		Entry current = sessions.get(session);
+		String shortName = shortenName(name);
+		if (current == null || current.name != null || shortNames.containsKey(shortName)) {
+			return false;
+		}
+		replace(current, new Entry(session, current.queue, current.heartbeat, current.limiter,
+			name, shortName, null, null));
+		return true;
+	}
+
+	/**
+	 * Puts a named session's player in the game. Returns false if the session has
+	 * left, or has no name.
+	 */
+	public synchronized boolean join(Session session, PlayerAgent agent, ClientView view) {
+		Entry current = sessions.get(session);
+		if (current == null || current.name == null) {
+			return false;
+		}
+		replace(current, new Entry(session, current.queue, current.heartbeat, current.limiter,
+			current.name, current.shortName, agent, view));
+		return true;
+	}
+
+	/** Forgets a session, returning its last entry, or null if it was not registered. */
+	public synchronized Entry remove(Session session) {
+		Entry entry = unindex(session);
+		if (entry != null) {
+			updateSnapshots();
+		}
+		return entry;
+	}
+
+	/**
+	 * Forgets several sessions at once, rebuilding the snapshots only once. Returns
+	 * the last entries of those that were registered.
+	 */
+	public synchronized List<Entry> removeAll(Collection<Session> removed) {
+		List<Entry> entries = new ArrayList<>(removed.size());
+		for (Session session : removed) {
+			Entry entry = unindex(session);
+			if (entry != null) {
+				entries.add(entry);
+			}
+		}
+		if (!entries.isEmpty()) {
+			updateSnapshots();
+		}
+		return entries;
+	}
+
+	/** Removes a session from every index, but not from the snapshots. */
+	private Entry unindex(Session session) {
+		Entry entry = sessions.remove(session);
+		if (entry != null && entry.name != null) {
+			names.remove(entry.name, entry);
+			shortNames.remove(entry.shortName, entry);
+		}
+		return entry;
+	}
+
+	/** Replaces an entry in every index, and the snapshots. */
+	private void replace(Entry current, Entry next) {
+		sessions.put(next.session, next);
+		if (current.name != null) {
+			names.remove(current.name, current);
+			shortNames.remove(current.shortName, current);
+		}
+		if (next.name != null) {
+			names.put(next.name, next);
+			shortNames.put(next.shortName, next);
+		}
+		updateSnapshots();
+	}
+
+	private void updateSnapshots() {
+		List<Entry> nextEntries = new ArrayList<>(sessions.values());
+		List<ClientView> nextViews = new ArrayList<>();
+		for (Entry entry : nextEntries) {
+			if (entry.view != null) {
+				nextViews.add(entry.view);
+			}
+		}
+		entries = Collections.unmodifiableList(nextEntries);
+		views = Collections.unmodifiableList(nextViews);
+	}
+
+	/** Returns the session's entry, or null if it is not connected. */
+	public Entry get(Session session) {
+		return session != null ? sessions.get(session) : null;
+	}
+
+	/** Returns the entry of the player with the given name, or null. */
+	public Entry getByName(String name) {
+		return name != null ? names.get(name) : null;
+	}
+
+	/** Returns the entry of the player whose name shortens to the same as the given one, or null. */
+	public Entry getByShortName(String name) {
+		return name != null ? shortNames.get(shortenName(name)) : null;
+	}
+
+	/** Returns an unmodifiable snapshot of every connected session's entry. */
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/** Returns an unmodifiable snapshot of the views of every player in the game. */
+	public List<ClientView> getViews() {
+		return views;
+	}
+
+	/** Returns a live, unmodifiable view of the names of the named players. */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(names.keySet());
+	}
+
+	public void addSpoofedAgent(PlayerAgent agent) {
+		spoofedAgents.put(shortenName(agent.getName()), agent);
+	}
+
+	/** Returns the spoofed player whose name shortens to the same as the given one, or null. */
+	public PlayerAgent getSpoofedAgent(String name) {
+		return spoofedAgents.get(shortenName(name));
+	}
+
+	/**
+	 * Removes all whitespace and converts to lowercase. Used to check for duplicate
+	 * names and so that players can refer to shortened names in chat commands.
+	 * Removes the same characters as the regular expression \s, without compiling one.
+	 */
+	public static String shortenName(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') {
+				sb.append(c);
+			}
+		}
+		return sb.toString().toLowerCase();
+	}
+}
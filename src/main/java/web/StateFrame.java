@@ -0,0 +1,165 @@
+package main.java.web;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import main.java.agent.NPCAgent;
+import main.java.agent.PlayerAgent;
+import main.java.misc.Tracked;
+import main.java.projectile.Projectile;
+
+
+/**
+ * The contents of one client's state frame: the entities to send, each with the
+ * ChangeTracker bits of the fields to include, and the removed entities.
+ *
+ * Spawned entities are new to the client and carry every field, including the
+ * static ones. Updated entities are already known to the client and carry only
+ * dynamic fields. Projectiles are spawned with their trajectory, and after that
+ * only listed in keyframes. Removed entities carry only their IDs, with projectiles
+ * that hit something kept apart from those that expired. Entities that still
+ * exist but left the client's area of interest are culled rather than
+ * despawned, so the client drops them without a despawn effect.
+ */
+public class StateFrame {
+
+	/** An entity to send, the fields of it to include, and whether to send its position and angle coarsely. */
+	public static class Entry<T> {
+		private final T entity;
+		private final int fields;
+		private final boolean coarse;
+
+		Entry(T entity, int fields, boolean coarse) {
+			this.entity = entity;
+			this.fields = fields;
+			this.coarse = coarse;
+		}
+
+		public T getEntity() {
+			return entity;
+		}
+
+		public int getFields() {
+			return fields;
+		}
+
+		/** Returns whether the position is rounded to whole pixels, and the angle quantized coarsely. */
+		public boolean isCoarse() {
+			return coarse;
+		}
+	}
+
+	private final long tick;
+	private final long baseline;
+	private final boolean keyframe;
+	private final long inputSequence;
+	private final double velocityX;
+	private final double velocityY;
+
+	private final List<Entry<PlayerAgent>> spawnedPlayerAgents = new ArrayList<>();
+	private final List<Entry<NPCAgent>> spawnedNPCAgents = new ArrayList<>();
+	private final List<Entry<Projectile>> spawnedProjectiles = new ArrayList<>();
+
+	private final List<Entry<PlayerAgent>> playerAgents = new ArrayList<>();
+	private final List<Entry<NPCAgent>> npcAgents = new ArrayList<>();
+	private final List<Entry<Projectile>> projectiles = new ArrayList<>();
+
+	private final List<PlayerAgent> despawnedPlayerAgents = new ArrayList<>();
+	private final List<NPCAgent> despawnedNPCAgents = new ArrayList<>();
+	private final List<Projectile> despawnedProjectiles = new ArrayList<>();
+	private final List<Projectile> hitProjectiles = new ArrayList<>();
+	private final List<Tracked> culled = new ArrayList<>();
+
+	/**
+	 * @param tick the simulation tick the frame was captured at.
+	 * @param baseline the acknowledged tick the frame is a delta against, or -1 if none.
+	 * @param keyframe whether the frame carries every entity in the client's area of interest.
+	 * @param inputSequence the sequence number of the client's latest input applied, or 0 if none.
+	 * @param velocityX the x velocity per tick of the client's own player.
+	 * @param velocityY the y velocity per tick of the client's own player.
+	 */
+	public StateFrame(long tick, long baseline, boolean keyframe, long inputSequence,
+			double velocityX, double velocityY) {
+		this.tick = tick;
+		this.baseline = baseline;
+		this.keyframe = keyframe;
+		this.inputSequence = inputSequence;
+		this.velocityX = velocityX;
+		this.velocityY = velocityY;
+	}
+
+	public long getTick() {
+		return tick;
+	}
+
+	public long getBaseline() {
+		return baseline;
+	}
+
+	public boolean isKeyframe() {
+		return keyframe;
+	}
+
+	/** Returns the sequence number of the client's latest input that the frame reflects. */
+	public long getInputSequence() {
+		return inputSequence;
+	}
+
+	/**
+	 * Returns the x velocity per tick of the client's own player, from which the
+	 * client predicts where the inputs the frame does not reflect yet take it.
+	 */
+	public double getVelocityX() {
+		return velocityX;
+	}
+
+	/** Returns the y velocity per tick of the client's own player. */
+	public double getVelocityY() {
+		return velocityY;
+	}
+
+	public List<Entry<PlayerAgent>> getSpawnedPlayerAgents() {
+		return spawnedPlayerAgents;
+	}
+
+	public List<Entry<NPCAgent>> getSpawnedNPCAgents() {
+		return spawnedNPCAgents;
+	}
+
+	public List<Entry<Projectile>> getSpawnedProjectiles() {
+		return spawnedProjectiles;
+	}
+
+	public List<Entry<PlayerAgent>> getPlayerAgents() {
+		return playerAgents;
+	}
+
+	public List<Entry<NPCAgent>> getNpcAgents() {
+		return npcAgents;
+	}
+
+	public List<Entry<Projectile>> getProjectiles() {
+		return projectiles;
+	}
+
+	public List<PlayerAgent> getDespawnedPlayerAgents() {
+		return despawnedPlayerAgents;
+	}
+
+	public List<NPCAgent> getDespawnedNPCAgents() {
+		return despawnedNPCAgents;
+	}
+
+	public List<Projectile> getDespawnedProjectiles() {
+		return despawnedProjectiles;
+	}
+
+	/** Returns the projectiles despawned by hitting an agent. */
+	public List<Projectile> getHitProjectiles() {
+		return hitProjectiles;
+	}
+
+	public List<Tracked> getCulled() {
+		return culled;
+	}
+}
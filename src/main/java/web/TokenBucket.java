@@ -0,0 +1,44 @@
+package main.java.web;
+
+
+/**
+ * Allows events at a sustained rate, with bursts of up to a fixed size: the
+ * bucket holds up to burst tokens, refills at rate tokens per second, and each
+ * event takes one. Not thread-safe; each bucket belongs to one session, whose
+ * messages Jetty delivers one at a time.
+ */
+public final class TokenBucket {
+	private final double rate;
+	private final double burst;
+	private double tokens;
+	/** The nanoTime the tokens were last counted at. */
+	private long last = Long.MIN_VALUE;
+
+	/**
+	 * @param rate the tokens added per second
+	 * @param burst the most tokens held, which the bucket starts with
+	 */
+	public TokenBucket(double rate, double burst) {
+		if (rate <= 0 || burst < 1) {
+			throw new IllegalArgumentException("rate must be positive, and burst at least 1");
+		}
+		this.rate = rate;
+		this.burst = burst;
+		this.tokens = burst;
+	}
+
+	/** Takes a token at the given nanoTime, returning false if there was none. */
+	public boolean tryTake(long now) {
+		if (last == Long.MIN_VALUE) {
+			last = now;
+		} else if (now > last) {
+			tokens = Math.min(burst, tokens + (now - last) * rate / 1e9);
+			last = now;
+		}
+		if (tokens < 1) {
+			return false;
+		}
+		tokens--;
+		return true;
+	}
+}
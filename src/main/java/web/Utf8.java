@@ -0,0 +1,64 @@
+package main.java.web;
+
+import java.nio.ByteBuffer;
+
+
+/** UTF-8 encoding of text straight into a buffer, without an intermediate byte array. */
+final class Utf8 {
+
+	private Utf8() {
+	}
+
+	/** Returns the number of bytes the text takes in UTF-8. */
+	static int length(CharSequence text) {
+		int bytes = 0;
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				bytes += 1;
+			} else if (c < 0x800) {
+				bytes += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				bytes += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				bytes += 1;
+			} else {
+				bytes += 3;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Encodes the text into the buffer, which must have length(text) bytes
+	 * remaining. Unpaired surrogates become '?', as with String.getBytes.
+	 */
+	static void encode(CharSequence text, ByteBuffer dst) {
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				dst.put((byte) c);
+			} else if (c < 0x800) {
+				dst.put((byte) (0xC0 | c >> 6));
+				dst.put((byte) (0x80 | c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				dst.put((byte) (0xF0 | codePoint >> 18));
+				dst.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+				dst.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+				dst.put((byte) (0x80 | codePoint & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				dst.put((byte) '?');
+			} else {
+				dst.put((byte) (0xE0 | c >> 12));
+				dst.put((byte) (0x80 | c >> 6 & 0x3F));
+				dst.put((byte) (0x80 | c & 0x3F));
+			}
+		}
+	}
+}
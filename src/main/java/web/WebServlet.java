@@ -10,5 +10,8 @@ public class WebServlet extends WebSocketServlet
     public void configure(WebSocketServletFactory factory)
     {
         factory.register(GameSocket.class);
+        // Jetty refuses longer messages before they are read, closing the connection.
+        factory.getPolicy().setMaxTextMessageSize(InboundLimiter.MAX_MESSAGE_SIZE);
+        factory.getPolicy().setMaxBinaryMessageSize(InboundLimiter.MAX_MESSAGE_SIZE);
     }
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+package main.java.web;
+
+import main.java.misc.Tracked;
+
+
+/** The encodings a client can receive state frames in, negotiated when it joins. */
+public enum WireFormat {
+	/** JSON text frames. The fallback for clients that offer nothing else. */
+	JSON("json"),
+	/** BinaryProtocol binary frames. */
+	BINARY("binary-" + BinaryProtocol.VERSION);
+
+	private final String name;
+
+	private WireFormat(String name) {
+		this.name = name;
+	}
+
+	/** The name clients offer and are answered with. */
+	public String getName() {
+		return name;
+	}
+
+	/** Returns an upper bound of the bytes a state frame without any entities takes in this format. */
+	public int estimateFrameSize() {
+		return this == BINARY ? BinaryProtocol.FRAME_SIZE : JsonFrameWriter.FRAME_SIZE;
+	}
+
+	/** Returns an upper bound of the bytes the given ChangeTracker fields of an entity take
+	 *  in a state frame in this format. */
+	public int estimateEntitySize(Tracked entity, int fields) {
+		return this == BINARY ? BinaryProtocol.estimateSize(entity, fields) : JsonFrameWriter.estimateSize(entity, fields);
+	}
+
+	/** Returns the first format the client offered that the server supports, in the client's
+	 *  order of preference, or JSON if there is none. */
+	public static WireFormat negotiate(String[] offered) {
+		if (offered != null) {
+			for (String name : offered) {
+				for (WireFormat format : values()) {
+					if (format.name.equals(name)) {
+						return format;
+					}
+				}
+			}
+		}
+		return JSON;
+	}
+}
@@ -10,16 +10,40 @@
 //1. Constants, variables, etc.
 
 /** Variables related to server-client connection */
-const INPUT_RATE = 30; // maximum number of inputs per second
+const INPUT_RATE = 40; // maximum number of inputs per second, one per simulation tick
 /** Radius of game plus leeway (otherwise, agents could half-way cross the barrier). */
 const RADIUS = 4000 + 30;
+/** Version of the binary wire format this client reads (see BinaryProtocol.java). */
+const PROTOCOL_VERSION = 7;
+const MESSAGE_STATE = 1;
+const MESSAGE_INPUT = 2;
+/** Field bits of binary entities, as in ChangeTracker.java */
+const FIELD_POSITION = 1, FIELD_ANGLE = 2, FIELD_HEALTH = 4, FIELD_MAX_HEALTH = 8,
+	FIELD_POINTS = 16, FIELD_TEAM = 32, FIELD_SIZE = 64, FIELD_NAME = 128;
+const POSITION_SCALE = 8;
+const ANGLE_SCALE = 32768 / Math.PI;
+/** A player's speed will not exceed its haste times this multiple, as in PlayerAgent.java */
+const MAX_SPEED_MULTIPLE = 10;
 var webSocket;
+var binaryProtocol = false;  // whether the server agreed to send binary state frames
 var playerAgentID;  // ID referring to this player in the serialized game state
+var lastTick = 0;  // simulation tick of the most recently drawn state frame
+var lastAckedTick = 0;  // latest tick acknowledged to the server
+var resyncRequested = false;  // whether to ask the server to spawn every entity again
 var clientInput = {};  // represents the current input of the player
+var inputSequence = 0;  // sequence number of the latest input sent
+/** Inputs sent that no state frame reflects yet, oldest first, to predict this player's movement. */
+var pendingInputs = [];
 var messages = document.getElementById("messages");
 
 /** Contains game objects drawn on the screen, indexed by UUID */
 var gameEntities = {};
+/** Latest known state of each entity, indexed by UUID. Spawns carry every field;
+updates only carry the dynamic fields that changed since the last frame this
+client acknowledged. */
+var playerStates = {};
+var npcStates = {};
+var projectileStates = {};
 /** Contains game objects that are fading out of existence. They no longer receive
 positions from the server, but we still should keep them in the right position. */
 var fadingEntities = new Set();
@@ -347,20 +371,47 @@ function comparePoints(a, b) {
 
 // Receives a JSON object and updates the screen or does whatever else as necessary.
 function parseJson(json) {
+	// The chat and other messages of a tick come with its state frame, or on their own.
+	if (json.messages) {
+		json.messages.forEach(handleText);
+	}
 	if (json.pregame) {
 		// Set the ID of the corresponding player agent on the server end
 		// so this client knows which agent it is when updating the screen.
 		if (json.id) {
-			playerAgentID = json.id;
+			// Binary frames identify entities by their compact net IDs.
+			binaryProtocol = json.protocol === "binary-" + PROTOCOL_VERSION;
+			playerAgentID = binaryProtocol ? String(json.netId) : json.id;
 			startGamePlay();
 		} else if (json.duplicateName) {
 			alert("That name is already in use! Please choose another one.");
 		}
-	} else {
+	} else if (json.tick !== undefined) {
 		updateStage(json);
 	}
 }
 
+// Handles a text message from the server, which is either JSON or a line of chat.
+function handleText(text) {
+	try {
+		// First try parsing it as JSON.
+		var json = JSON.parse(text);
+	} catch (error) { // Display non-JSON messages to the chat area
+		// If input is invalid JSON, treat it as plain text.
+		if (error instanceof SyntaxError) {
+			// If the server is responding to a ping request
+			if (text === "PONG") {
+				addMessageToChat(Date.now() - pingStartTime + " ms");
+			} else {
+				addMessageToChat(text);
+			}
+			return;
+		}
+		throw error;
+	}
+	parseJson(json);
+}
+
 // Returns a boolean of whether or not the client is connected to the game server.
 function connectedToGame() {
 	return (typeof webSocket !== "undefined" && webSocket.readyState === webSocket.OPEN);
@@ -376,7 +427,10 @@ function submitUsername() {
 
 		// Send username to the server
 		username = document.getElementById("username").value.trim();
-		webSocket.send(JSON.stringify({ 'name': username }));
+		webSocket.send(JSON.stringify({
+			'name': username,
+			'protocols': ["binary-" + PROTOCOL_VERSION, "json"]
+		}));
 	} else {
 		alert("The connection to the server was closed before it could be established.");
 	}
@@ -398,6 +452,7 @@ function joinGame() {
 	// Create a new instance of the websocket
 	var url = "ws://" + window.location.host + "/socket";
 	webSocket = new WebSocket(url);
+	webSocket.binaryType = "arraybuffer";
 
 	/** Binds functions to the listeners for the websocket */
 	webSocket.onopen = function(e) {
@@ -409,22 +464,10 @@ function joinGame() {
 
 	/** Handle messages that are received from the server */
 	webSocket.onmessage = function(e) {
-		try {
-			// First try parsing it as JSON.
-			var json = JSON.parse(e.data);
-			parseJson(json);
-		} catch (error) { // Display non-JSON messages to the chat area
-			// If input is invalid JSON, treat it as plain text.
-			if (error instanceof SyntaxError) {
-				// If the server is responding to a ping request
-				if (e.data === "PONG") {
-					addMessageToChat(Date.now() - pingStartTime + " ms");
-				} else {
-					addMessageToChat(e.data);
-				}
-			} else {
-				throw error;
-			}
+		if (e.data instanceof ArrayBuffer) {
+			parseJson(decodeStateFrame(e.data));
+		} else {
+			handleText(e.data);
 		}
 	};
 
@@ -451,10 +494,45 @@ function sendFrameInput() {
 		// Schedule the next frame.
 		setTimeout(sendFrameInput, 1000 / INPUT_RATE);
 
+		// Acknowledge the latest state frame so the server can send deltas against it.
+		if (lastTick > lastAckedTick) {
+			clientInput.ack = lastTick;
+			lastAckedTick = lastTick;
+		}
+		// Ask for everything to be spawned again if an update arrived for an unknown entity.
+		if (resyncRequested) {
+			clientInput.resync = true;
+			resyncRequested = false;
+		}
+
+		// Number each input that moves, aims or fires, so frames say which ones they reflect.
+		if (clientInput.up || clientInput.down || clientInput.left || clientInput.right ||
+				clientInput.isFiring || clientInput.angle !== undefined) {
+			clientInput.seq = ++inputSequence;
+			pendingInputs.push({ "seq": clientInput.seq, "up": clientInput.up, "down": clientInput.down,
+				"left": clientInput.left, "right": clientInput.right });
+			if (pendingInputs.length > INPUT_RATE) {
+				pendingInputs.shift();
+			}
+		}
+
 		// Send any input to the server.
-		json = JSON.stringify(clientInput);
-		if (json !== "{}") {
-			webSocket.send(json);
+		if (binaryProtocol) {
+			var message = encodeInput(clientInput);
+			if (message !== null) {
+				webSocket.send(message);
+			}
+			delete clientInput.ack;
+			delete clientInput.resync;
+			delete clientInput.seq;
+		} else {
+			json = JSON.stringify(clientInput);
+			delete clientInput.ack;
+			delete clientInput.resync;
+			delete clientInput.seq;
+			if (json !== "{}") {
+				webSocket.send(json);
+			}
 		}
 
 		if (!clientInput.isFiring) {
@@ -463,6 +541,169 @@ function sendFrameInput() {
 	}
 }
 
+/** Encodes the movement, aim, acknowledgement and sequence number of an input, or returns
+null if there are none. Names and chat messages are always sent as JSON. */
+function encodeInput(input) {
+	var flags = (input.up ? 1 : 0) | (input.down ? 2 : 0) | (input.left ? 4 : 0) |
+		(input.right ? 8 : 0) | (input.isFiring ? 16 : 0) |
+		(input.angle !== undefined ? 32 : 0) | (input.ack !== undefined ? 64 : 0) |
+		(input.resync ? 128 : 0);
+	if (flags === 0) {
+		return null;
+	}
+	var bytes = [PROTOCOL_VERSION, MESSAGE_INPUT, flags];
+	function pushVarint(value) {
+		while (value >= 128) {
+			bytes.push((value % 128) | 128);
+			value = Math.floor(value / 128);
+		}
+		bytes.push(value);
+	}
+	if (input.angle !== undefined) {
+		// Wrap into [-pi, pi) and quantize to a signed 16-bit integer.
+		var angle = input.angle - 2 * Math.PI * Math.floor((input.angle + Math.PI) / (2 * Math.PI));
+		var quantized = Math.round(angle * ANGLE_SCALE) & 0xFFFF;
+		bytes.push(quantized >> 8, quantized & 0xFF);
+	}
+	if (input.ack !== undefined) {
+		pushVarint(input.ack);
+	}
+	pushVarint(input.seq !== undefined ? input.seq : 0);
+	return new Uint8Array(bytes).buffer;
+}
+
+/** Reads a binary state frame into the same structure as a JSON one, with IDs as strings. */
+function decodeStateFrame(buffer) {
+	var view = new DataView(buffer);
+	var offset = 0;
+
+	function readByte() {
+		return view.getUint8(offset++);
+	}
+	function readShort() {
+		var value = view.getInt16(offset);
+		offset += 2;
+		return value;
+	}
+	function readVarint() {
+		// Arithmetic rather than bitwise, so values above 2^31 survive.
+		var value = 0;
+		var scale = 1;
+		var b;
+		do {
+			b = readByte();
+			value += (b & 0x7F) * scale;
+			scale *= 128;
+		} while (b & 0x80);
+		return value;
+	}
+	function readSvarint() {
+		var value = readVarint();
+		return value % 2 === 0 ? value / 2 : -(value + 1) / 2;
+	}
+	function readFloat() {
+		var value = view.getFloat32(offset);
+		offset += 4;
+		return value;
+	}
+	// The tick is that of the frame for projectiles, whose position is a trajectory.
+	function readEntities(tick) {
+		var entities = [];
+		var count = readVarint();
+		for (var i = 0; i < count; i++) {
+			// The low bit of the ID marks a coarse position and angle.
+			var id = readVarint();
+			var coarse = id % 2 === 1;
+			var entity = { "id": String(Math.floor(id / 2)) };
+			var fields = readByte();
+			if ((fields & FIELD_POSITION) && tick !== undefined) {
+				entity.originX = readShort() / POSITION_SCALE;
+				entity.originY = readShort() / POSITION_SCALE;
+				entity.vx = readFloat();
+				entity.vy = readFloat();
+				entity.launchTick = tick - readVarint();
+			} else if ((fields & FIELD_POSITION) && coarse) {
+				entity.x = readSvarint();
+				entity.y = readSvarint();
+			} else if (fields & FIELD_POSITION) {
+				entity.x = readShort() / POSITION_SCALE;
+				entity.y = readShort() / POSITION_SCALE;
+			}
+			if ((fields & FIELD_ANGLE) && coarse) {
+				entity.angle = view.getInt8(offset++) * 256 / ANGLE_SCALE;
+			} else if (fields & FIELD_ANGLE) {
+				entity.angle = readShort() / ANGLE_SCALE;
+			}
+			if (fields & FIELD_HEALTH) {
+				entity.health = readSvarint();
+			}
+			if (fields & FIELD_MAX_HEALTH) {
+				entity.maxHealth = readSvarint();
+			}
+			if (fields & FIELD_POINTS) {
+				entity.points = readSvarint();
+				entity.pointsLeft = readSvarint();
+			}
+			if (fields & FIELD_TEAM) {
+				var rgb = readByte() * 65536 + (readShort() & 0xFFFF);
+				entity.color = "0x" + padString(rgb.toString(16).toUpperCase(), "0", 6);
+			}
+			if (fields & FIELD_SIZE) {
+				entity.size = readFloat();
+			}
+			if (fields & FIELD_NAME) {
+				var length = readVarint();
+				entity.name = new TextDecoder("utf-8").decode(new Uint8Array(buffer, offset, length));
+				offset += length;
+			}
+			entities.push(entity);
+		}
+		return entities;
+	}
+	function readIDs() {
+		var ids = [];
+		var count = readVarint();
+		for (var i = 0; i < count; i++) {
+			ids.push({ "id": String(readVarint()) });
+		}
+		return ids;
+	}
+
+	var version = readByte();
+	var type = readByte();
+	if (version !== PROTOCOL_VERSION || type !== MESSAGE_STATE) {
+		throw new Error("Unsupported binary message " + version + "/" + type);
+	}
+	var frame = {};
+	frame.tick = readVarint();
+	frame.baseline = readSvarint();
+	frame.keyframe = readByte() !== 0;
+	frame.inputSeq = readVarint();
+	frame.vx = readFloat();
+	frame.vy = readFloat();
+	frame.spawnedPlayerAgents = readEntities();
+	frame.spawnedNPCAgents = readEntities();
+	frame.spawnedProjectiles = readEntities(frame.tick);
+	frame.playerAgents = readEntities();
+	frame.npcAgents = readEntities();
+	frame.projectiles = readEntities(frame.tick);
+	frame.despawnedPlayerAgents = readIDs();
+	frame.despawnedNPCAgents = readIDs();
+	frame.despawnedProjectiles = readIDs();
+	frame.hitProjectiles = readIDs();
+	frame.culled = readIDs();
+	if (offset < buffer.byteLength) {
+		frame.messages = [];
+		var count = readVarint();
+		for (var i = 0; i < count; i++) {
+			var length = readVarint();
+			frame.messages.push(new TextDecoder("utf-8").decode(new Uint8Array(buffer, offset, length)));
+			offset += length;
+		}
+	}
+	return frame;
+}
+
 // Sends the value of the text input to the server.
 function sendChatMessage() {
 	var text = document.getElementById("messageInput").value;
@@ -493,84 +734,123 @@ function gameOver() {
 
 /** Updates entities on the screen, using a JSON object. */
 function updateStage(json) {
-	var playerAgents = json.playerAgents;
-	var npcAgents = json.npcAgents;
-	var projectiles = json.projectiles;
-
-	var despawnedPlayerAgents = json.despawnedPlayerAgents;
-	var despawnedNPCAgents = json.despawnedNPCAgents;
-	var despawnedProjectiles = json.despawnedProjectiles;
+	// Each frame is one simulation tick; never draw an older tick over a newer one.
+	if (json.tick <= lastTick) {
+		return;
+	}
+	lastTick = json.tick;
 
-	// Get the player agent corresponding to this client
-	var thisPlayer = null;
-	for (var i = 0; i < playerAgents.length; i++) {
-		var agent = playerAgents[i];
-		if (agent.id === playerAgentID) {
-			thisPlayer = agent;
-			break;
-		}
+	// A keyframe lists every entity, so anything missing from it is gone.
+	if (json.keyframe) {
+		removeMissingEntities(playerStates, json.spawnedPlayerAgents.concat(json.playerAgents));
+		removeMissingEntities(npcStates, json.spawnedNPCAgents.concat(json.npcAgents));
+		removeMissingEntities(projectileStates, json.spawnedProjectiles.concat(json.projectiles));
 	}
 
+	spawnEntityStates(playerStates, json.spawnedPlayerAgents);
+	spawnEntityStates(npcStates, json.spawnedNPCAgents);
+	spawnEntityStates(projectileStates, json.spawnedProjectiles);
+	mergeEntityStates(playerStates, json.playerAgents);
+	mergeEntityStates(npcStates, json.npcAgents);
+	mergeEntityStates(projectileStates, json.projectiles);
 
 	// Iterate through despawned player agents
-	for (var i = 0; i < despawnedPlayerAgents.length; i++) {
-		var player = gameEntities[despawnedPlayerAgents[i].id];
-		fadeOut(player);
-
-		if (despawnedPlayerAgents[i].id === playerAgentID) {
-			gameOver();
+	for (var i = 0; i < json.despawnedPlayerAgents.length; i++) {
+		var id = json.despawnedPlayerAgents[i].id;
+		if (playerStates[id] !== undefined) {
+			delete playerStates[id];
+			fadeOut(removeEntity(id));
+
+			if (id === playerAgentID) {
+				gameOver();
+			}
 		}
 	}
 
 	// Iterate through despawned NPC agents
-	for (var i = 0; i < despawnedNPCAgents.length; i++) {
-		var npc = gameEntities[despawnedNPCAgents[i].id];
-		fadeOut(npc);
+	for (var i = 0; i < json.despawnedNPCAgents.length; i++) {
+		var id = json.despawnedNPCAgents[i].id;
+		if (npcStates[id] !== undefined) {
+			delete npcStates[id];
+			fadeOut(removeEntity(id));
+		}
 	}
 
 	// Iterate through despawned projectiles
-	for (var i = 0; i < despawnedProjectiles.length; i++) {
-		var projectile = gameEntities[despawnedProjectiles[i].id];
-		if (projectile !== undefined) {
-			fadeOutAndShrink(projectile);
+	for (var i = 0; i < json.despawnedProjectiles.length; i++) {
+		var id = json.despawnedProjectiles[i].id;
+		if (projectileStates[id] !== undefined) {
+			delete projectileStates[id];
+			fadeOutAndShrink(removeEntity(id));
 		}
 	}
 
-	if (thisPlayer === null) {
+	// Projectiles that hit something disappear at once.
+	for (var i = 0; i < json.hitProjectiles.length; i++) {
+		var id = json.hitProjectiles[i].id;
+		if (projectileStates[id] !== undefined) {
+			delete projectileStates[id];
+			var entity = removeEntity(id);
+			if (entity !== undefined) {
+				stage.removeChild(entity);
+			}
+		}
+	}
+
+	// Entities that left this client's area of interest still exist, so just drop them.
+	for (var i = 0; i < json.culled.length; i++) {
+		var id = json.culled[i].id;
+		delete playerStates[id];
+		delete npcStates[id];
+		delete projectileStates[id];
+		var entity = removeEntity(id);
+		if (entity !== undefined) {
+			stage.removeChild(entity);
+		}
+	}
+
+	// Get the player agent corresponding to this client
+	var thisPlayer = playerStates[playerAgentID];
+	if (thisPlayer === undefined) {
 		return;
 	}
 
+	// This player is drawn where it will be once the server applies the inputs it has
+	// not yet, at the center of the screen, and everything else around it.
+	var center = predictPlayer(thisPlayer, json.inputSeq, json.vx, json.vy);
+
 	// Iterate through player agents
-	for (var i = 0; i < playerAgents.length; i++) {
-		setScreenCoordinates(playerAgents[i], thisPlayer);
-		var player = drawPlayer(playerAgents[i]);
+	for (var id in playerStates) {
+		setScreenCoordinates(playerStates[id], id === playerAgentID ? playerStates[id] : center);
+		var player = drawPlayer(playerStates[id]);
 
 		player.visible = isOnScreen(player);
 	}
 
 	// Iterate through NPC agents
-	for (var i = 0; i < npcAgents.length; i++) {
-		setScreenCoordinates(npcAgents[i], thisPlayer);
-		var npcAgent = drawNpc(npcAgents[i]);
+	for (var id in npcStates) {
+		setScreenCoordinates(npcStates[id], center);
+		var npcAgent = drawNpc(npcStates[id]);
 
 		npcAgent.visible = isOnScreen(npcAgent);
 	}
 
 	// Iterate through projectiles
-	for (var i = 0; i < projectiles.length; i++) {
-		setScreenCoordinates(projectiles[i], thisPlayer);
-		var projectile = drawProjectile(projectiles[i]);
+	for (var id in projectileStates) {
+		extrapolateProjectile(projectileStates[id], json.tick);
+		setScreenCoordinates(projectileStates[id], center);
+		var projectile = drawProjectile(projectileStates[id]);
 
 		projectile.visible = isOnScreen(projectile);
 	}
 
 	// Update the background tile position based on how far the player moved.
-	var bgOffsetX = thisPlayer.x - playerX;
-	var bgOffsetY = thisPlayer.y - playerY;
-	playerX = thisPlayer.x;
-	playerY = thisPlayer.y;
+	var bgOffsetX = center.x - playerX;
+	var bgOffsetY = center.y - playerY;
+	playerX = center.x;
+	playerY = center.y;
 
-	bgTile._tint = calculateTint(thisPlayer.x, thisPlayer.y);
+	bgTile._tint = calculateTint(center.x, center.y);
 
 	bgTile.tilePosition.x -= bgOffsetX;
 	bgTile.tilePosition.y += bgOffsetY;
@@ -585,6 +865,97 @@ function updateStage(json) {
 	renderer.render(stage);
 }
 
+/** Returns roughly where this player will be once the server applies the inputs it sent
+that the frame does not reflect yet, starting from the velocity the frame carries and
+following PlayerAgent.move for each of them. Each frame corrects the prediction. */
+function predictPlayer(thisPlayer, inputSeq, vx, vy) {
+	while (pendingInputs.length > 0 && pendingInputs[0].seq <= inputSeq) {
+		pendingInputs.shift();
+	}
+
+	// The haste grows with the level, which the points needed for the next one tell.
+	var level = Math.round(Math.sqrt(thisPlayer.points + thisPlayer.pointsLeft - 100)) - 1;
+	var haste = 0.005 * level + 0.3;
+	var speed = Math.min(Math.sqrt(vx * vx + vy * vy), haste * MAX_SPEED_MULTIPLE);
+	var heading = Math.atan2(vy, vx);
+	var x = thisPlayer.x, y = thisPlayer.y;
+	for (var i = 0; i < pendingInputs.length; i++) {
+		var input = pendingInputs[i];
+		var horizontal = (input.right ? 1 : 0) - (input.left ? 1 : 0);
+		var vertical = (input.up ? 1 : 0) - (input.down ? 1 : 0);
+		if (horizontal !== 0 || vertical !== 0) {
+			var inputAngle = Math.atan2(vertical, horizontal);
+			var ax = speed * Math.cos(heading) + haste * Math.cos(inputAngle);
+			var ay = speed * Math.sin(heading) + haste * Math.sin(inputAngle);
+			heading = Math.atan2(ay, ax);
+			speed = Math.min(Math.sqrt(ax * ax + ay * ay), haste * MAX_SPEED_MULTIPLE);
+		} else {
+			speed = Math.max(speed - haste / 3.0, 0);
+		}
+		x += speed * Math.cos(heading);
+		y += speed * Math.sin(heading);
+	}
+
+	// Agents are kept within the barrier.
+	var distance = Math.sqrt(x * x + y * y);
+	if (distance > RADIUS - 30) {
+		x *= (RADIUS - 30) / distance;
+		y *= (RADIUS - 30) / distance;
+	}
+	return { "x": x, "y": y };
+}
+
+/** Moves a projectile along the trajectory it was spawned with to where it is at the tick. */
+function extrapolateProjectile(projectile, tick) {
+	var elapsed = tick - projectile.launchTick;
+	projectile.x = projectile.originX + elapsed * projectile.vx;
+	projectile.y = projectile.originY + elapsed * projectile.vy;
+}
+
+/** Replaces the known state of each spawned entity, which carries every field. */
+function spawnEntityStates(states, entities) {
+	for (var i = 0; i < entities.length; i++) {
+		states[entities[i].id] = entities[i];
+	}
+}
+
+/** Copies the fields updated for each entity onto its known state. An update for an
+entity this client does not know means it lost track, so it asks for a resync. */
+function mergeEntityStates(states, entities) {
+	for (var i = 0; i < entities.length; i++) {
+		var state = states[entities[i].id];
+		if (state === undefined) {
+			resyncRequested = true;
+		} else {
+			Object.assign(state, entities[i]);
+		}
+	}
+}
+
+/** Removes every known entity that is not in the list, without fading. */
+function removeMissingEntities(states, entities) {
+	var present = new Set();
+	for (var i = 0; i < entities.length; i++) {
+		present.add(entities[i].id);
+	}
+	for (var id in states) {
+		if (!present.has(id)) {
+			delete states[id];
+			var entity = removeEntity(id);
+			if (entity !== undefined) {
+				stage.removeChild(entity);
+			}
+		}
+	}
+}
+
+/** Forgets the drawn object of an entity and returns it. */
+function removeEntity(id) {
+	var entity = gameEntities[id];
+	delete gameEntities[id];
+	return entity;
+}
+
 function calculateTint(x, y) {
 	dec = Math.round(255 * Math.sqrt(x * x + y * y) / (RADIUS - 30)) + 125;
 	dec = Math.min(dec, 255);
@@ -907,6 +1278,9 @@ function updateProjectile(projectileObject) {
 }
 
 function fadeOut(entity, stepSize = 0.05) {
+	if (entity === undefined) {
+		return;
+	}
 	if (!fadingEntities.has(entity)) {
 		fadingEntities.add(entity);
 	}
@@ -917,12 +1291,15 @@ function fadeOut(entity, stepSize = 0.05) {
 			fadeOut(entity, stepSize);
 		});
 	} else {
-		entity.visible = false;
+		stage.removeChild(entity);
 		fadingEntities.delete(entity);
 	}
 }
 
 function fadeOutAndShrink(entity, stepSize = 0.05) {
+	if (entity === undefined) {
+		return;
+	}
 	if (!fadingEntities.has(entity)) {
 		fadingEntities.add(entity);
 	}
@@ -935,7 +1312,7 @@ function fadeOutAndShrink(entity, stepSize = 0.05) {
 			fadeOutAndShrink(entity, stepSize);
 		});
 	} else {
-		entity.visible = false;
+		stage.removeChild(entity);
 		fadingEntities.delete(entity);
 	}
 }
@@ -0,0 +1,100 @@
+package test.java.benchmark;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import main.java.agent.NPCAgent;
+import main.java.agent.PlayerAgent;
+import main.java.environment.Environment;
+import main.java.misc.Vector2D;
+import main.java.projectile.Projectile;
+import main.java.web.BinaryProtocol;
+import main.java.web.ClientView;
+import main.java.web.GameState;
+import main.java.web.JsonFrameWriter;
+import main.java.web.StateFrame;
+
+/**
+ * Measures how many state frames per second each encoder produces, for a
+ * keyframe of one client's area of interest. The GC profiler's
+ * gc.alloc.rate.norm column is the bytes allocated per frame.
+ *
+ * Run the main method with the test classpath, e.g. from the IDE.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameEncodingBenchmark {
+
+	@Param({"10", "100"})
+	private int npcAgents;
+
+	private StateFrame frame;
+	private JsonFrameWriter jsonWriter;
+
+	@Setup
+	public void setUp() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		PlayerAgent player = environment.spawnPlayer(new Point2D.Double(0, 0));
+		List<NPCAgent> npcs = new ArrayList<>();
+		for (int i = 0; i < npcAgents; i++) {
+			npcs.add(environment.spawnScout(new Point2D.Double(i * 7.3, -i * 3.1)));
+		}
+		List<Projectile> projectiles = new ArrayList<>();
+		for (int i = 0; i < npcAgents / 2; i++) {
+			projectiles.add(new Projectile(environment, player,
+				new Point2D.Double(i * 1.7, i * 2.9), new Vector2D(1, 0), 10, 1));
+		}
+		frame = new ClientView(null, player).buildFrame(new GameState(
+			environment.getCurrentTick(), Collections.singletonList(player), npcs, projectiles));
+		jsonWriter = new JsonFrameWriter();
+	}
+
+	@Benchmark
+	public int writeJson() {
+		return jsonWriter.write(frame).length();
+	}
+
+	/** Includes copying the text out, as sending it as a String does. */
+	@Benchmark
+	public String writeJsonString() {
+		return jsonWriter.write(frame).toString();
+	}
+
+	@Benchmark
+	public int encodeBinary() {
+		return BinaryProtocol.encode(frame).remaining();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+			.include(FrameEncodingBenchmark.class.getSimpleName())
+			.addProfiler(GCProfiler.class)
+			.build();
+		new Runner(options).run();
+	}
+}
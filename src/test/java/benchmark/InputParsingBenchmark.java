@@ -0,0 +1,92 @@
+package test.java.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.gson.Gson;
+
+import main.java.web.BinaryProtocol;
+import main.java.web.ClientInput;
+import main.java.web.InputParser;
+
+/**
+ * Measures how many client inputs per second one core decodes, with the input
+ * parser, with Gson as the sockets used to, and in the binary protocol. The GC
+ * profiler's gc.alloc.rate.norm column is the bytes allocated per input.
+ *
+ * Run the main method with the test classpath, e.g. from the IDE.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(1)
+@Fork(1)
+public class InputParsingBenchmark {
+
+	/** What a client sends each frame while moving and aiming, and when chatting. */
+	@Param({
+		"{\"up\":true,\"left\":true,\"angle\":-2.356194490192345,\"ack\":123456}",
+		"{\"message\":\"Hello, <b>everyone</b>!\"}"
+	})
+	private String message;
+
+	private InputParser parser;
+	private ClientInput input;
+	private byte[] binary;
+
+	@Setup
+	public void setUp() {
+		parser = new InputParser();
+		input = new ClientInput();
+		parser.parse(message, input);
+		ByteBuffer encoded = BinaryProtocol.encode(input);
+		binary = new byte[encoded.remaining()];
+		encoded.get(binary);
+	}
+
+	@Benchmark
+	public ClientInput parse() {
+		parser.parse(message, input);
+		return input;
+	}
+
+	@Benchmark
+	public ClientInput parseWithGson() {
+		return new Gson().fromJson(message, ClientInput.class);
+	}
+
+	/** Names and chat are always sent as JSON, so this only decodes the movement. */
+	@Benchmark
+	public ClientInput decodeBinary() {
+		BinaryProtocol.decodeInput(ByteBuffer.wrap(binary), input);
+		return input;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+			.include(InputParsingBenchmark.class.getSimpleName())
+			.addProfiler(GCProfiler.class)
+			.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,147 @@
+package test.java.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import main.java.environment.Environment;
+import main.java.web.BinaryProtocol;
+import main.java.web.GameSerializer;
+import main.java.web.GameSocket;
+
+/**
+ * Measures how many ticks' worth of frames per second GameSerializer builds,
+ * encodes and queues, against the number of sessions and of encoding threads.
+ * Multiply by the session count for frames per second. Writes complete at once,
+ * so no frame is skipped for a backlog, and clients never acknowledge, so every
+ * frame spawns everything around them up to the frame budget.
+ *
+ * Run the main method with the test classpath, e.g. from the IDE. Parallelism
+ * above the machine's core count only shows the cost of the extra threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelBroadcastBenchmark {
+
+	@Param({"10", "100", "500"})
+	private int sessions;
+
+	@Param({"1", "2", "4", "8"})
+	private int parallelism;
+
+	@Param({"json", "binary"})
+	private String format;
+
+	private List<GameSocket> sockets;
+	private GameSerializer serializer;
+	private long tick;
+
+	@Setup
+	public void setUp() {
+		sockets = new ArrayList<>();
+		String protocol = format.equals("binary") ? "binary-" + BinaryProtocol.VERSION : "json";
+		for (int i = 0; i < sessions; i++) {
+			GameSocket socket = new GameSocket(false);
+			socket.onWebSocketConnect(getSession());
+			socket.onWebSocketText("{\"name\":\"Player " + i + "\",\"protocols\":[\"" + protocol + "\"]}");
+			sockets.add(socket);
+		}
+		// Stop the simulation, so that only the benchmark builds frames.
+		Environment environment = sockets.get(0).getEnvironment();
+		environment.setGameplayOccurring(false);
+		for (int i = 0; i < sessions * 2; i++) {
+			environment.spawnScout();
+		}
+		serializer = new GameSerializer(sockets.get(0), environment, 1, parallelism);
+		environment.removeTickListener(serializer);
+		serializer.setSendRateBounds(Environment.TICK_RATE, Environment.TICK_RATE);
+		tick = environment.getTick();
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (GameSocket socket : sockets) {
+			socket.onWebSocketClose(0, null);
+		}
+	}
+
+	@Benchmark
+	public void broadcast() {
+		serializer.broadcastGameState(++tick);
+	}
+
+	/**
+	 * Returns a session whose writes complete as soon as they are made. It is a plain
+	 * proxy rather than a mock, since mocks record every call made on them.
+	 */
+	private static Session getSession() {
+		final InetSocketAddress address = new InetSocketAddress(0);
+		final RemoteEndpoint endpoint = (RemoteEndpoint) Proxy.newProxyInstance(
+			RemoteEndpoint.class.getClassLoader(), new Class<?>[] {RemoteEndpoint.class},
+			new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if (args != null && args.length == 2 && args[1] instanceof WriteCallback) {
+						((WriteCallback) args[1]).writeSuccess();
+					}
+					return null;
+				}
+			});
+		return (Session) Proxy.newProxyInstance(
+			Session.class.getClassLoader(), new Class<?>[] {Session.class},
+			new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					switch (method.getName()) {
+					case "isOpen":
+						return true;
+					case "getRemote":
+						return endpoint;
+					case "getRemoteAddress":
+						return address;
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "equals":
+						return proxy == args[0];
+					default:
+						return null;
+					}
+				}
+			});
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+			.include(ParallelBroadcastBenchmark.class.getSimpleName())
+			.build();
+		new Runner(options).run();
+	}
+}
@@ -3,6 +3,7 @@ package test.java.junit.agent_test;
 import main.java.agent.Agent;
 import main.java.agent.PlayerAgent;
 import main.java.environment.Environment;
+import main.java.misc.ChangeTracker;
 
 import java.awt.geom.Point2D;
 import java.lang.Math;
@@ -16,7 +17,7 @@ public class AgentTest {
 	@Test
 	public void testGetPosition() {
 		Environment environment = new Environment(false);
-		Agent agent = new PlayerAgent(environment, new Point2D.Double(0, 0), "Agent");
+		PlayerAgent agent = new PlayerAgent(environment, new Point2D.Double(0, 0), "Agent");
 		Point2D.Double point = agent.getPosition();
 		point.setLocation(1, 1); // moves the point in both x and y directions
 
@@ -26,7 +27,7 @@ public class AgentTest {
 	
 	public void testSetPosition() {
 		Environment environment = new Environment(false);
-		Agent agent = new PlayerAgent(environment, new Point2D.Double(0, 0), "Agent");
+		PlayerAgent agent = new PlayerAgent(environment, new Point2D.Double(0, 0), "Agent");
 		Point2D.Double point = agent.getPosition();
 		agent.setPosition(0, environment.getRadius() + 10); //set outside of radius
 		Assert.assertEquals(new Point2D.Double(0, environment.getRadius()), agent.getPosition());
@@ -37,7 +38,7 @@ public class AgentTest {
 	@Test
 	public void testSetHealth() {
 		Environment environment = new Environment(false);
-		Agent agent = new PlayerAgent(environment, new Point2D.Double(0, 0), "Agent");
+		PlayerAgent agent = new PlayerAgent(environment, new Point2D.Double(0, 0), "Agent");
 		agent.setMaxHealth(100);
 		agent.setHealth(999);
 
@@ -48,7 +49,7 @@ public class AgentTest {
 	@Test
 	public void testSetMaxHealth() {
 		Environment environment = new Environment(false);
-		Agent agent = new PlayerAgent(environment, new Point2D.Double(0, 0), "Agent");
+		PlayerAgent agent = new PlayerAgent(environment, new Point2D.Double(0, 0), "Agent");
 		agent.setMaxHealth(100);
 		agent.setHealth(100);
 		agent.setMaxHealth(50);
@@ -60,14 +61,14 @@ public class AgentTest {
 	@Test(expected = IllegalArgumentException.class)
 	public void testSetMaxHealthInvalid() {
 		Environment environment = new Environment(false);
-		Agent agent = new PlayerAgent(environment, new Point2D.Double(0, 0), "Agent");
+		PlayerAgent agent = new PlayerAgent(environment, new Point2D.Double(0, 0), "Agent");
 		agent.setMaxHealth(0);
 	}
 
 	@Test
 	public void testApplyDamage() {
 		Environment environment = new Environment(false);
-		Agent agent = new PlayerAgent(environment, new Point2D.Double(0, 0), "Agent");
+		PlayerAgent agent = new PlayerAgent(environment, new Point2D.Double(0, 0), "Agent");
 		int initialHealth = 100;
 		agent.setHealth(initialHealth);
 		agent.applyDamage(5);
@@ -85,4 +86,28 @@ public class AgentTest {
 		Assert.assertEquals(-Math.PI / 2, agent1.getAngleTo(new Point2D.Double(0, 1)), ERROR_MARGIN);
 		Assert.assertEquals(-Math.PI / 2, agent1.getAngleTo(0, 10), ERROR_MARGIN);
 	}
+
+	/** Tests that setters record a change only when the value actually changes */
+	@Test
+	public void testChangeTracking() throws InterruptedException {
+		Environment environment = new Environment(false);
+		PlayerAgent agent = new PlayerAgent(environment, new Point2D.Double(0, 0), "Agent");
+		long spawnTick = agent.getChanges().getSpawnTick();
+
+		// wait for the spawn tick to complete so that later changes get a later stamp
+		long deadline = System.currentTimeMillis() + 5000;
+		while (environment.getTick() < spawnTick && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+
+		agent.setHealth(agent.getHealth());
+		agent.setPosition(agent.getPosition());
+		agent.setName("Agent");
+		Assert.assertEquals(0, agent.getChanges().changedFieldsSince(spawnTick));
+
+		agent.applyDamage(10);
+		agent.setAngle(1);
+		Assert.assertEquals(ChangeTracker.HEALTH | ChangeTracker.ANGLE,
+			agent.getChanges().changedFieldsSince(spawnTick));
+	}
 }
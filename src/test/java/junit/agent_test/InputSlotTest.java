@@ -0,0 +1,49 @@
+package test.java.junit.agent_test;
+
+import main.java.agent.InputSlot;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class InputSlotTest {
+
+	@Test
+	/** Tests that the latest directions win, and only count on the tick after they arrive. */
+	public void testCoalescing() {
+		InputSlot slot = new InputSlot();
+		slot.offer(1, InputSlot.UP, false, false, 0);
+		slot.offer(2, InputSlot.DOWN | InputSlot.LEFT, false, true, 1.5);
+		slot.offer(3, InputSlot.DOWN, false, false, 0);
+
+		long state = slot.take();
+		Assert.assertEquals(InputSlot.DOWN, InputSlot.getDirections(state));
+		Assert.assertTrue(InputSlot.isAimed(state));
+		Assert.assertEquals(1.5, slot.getAngle(), 0);
+		Assert.assertEquals(3, InputSlot.getSequence(state));
+
+		state = slot.take();
+		Assert.assertEquals(0, InputSlot.getDirections(state));
+		Assert.assertFalse(InputSlot.isAimed(state));
+		Assert.assertEquals(3, InputSlot.getSequence(state));
+	}
+
+	@Test
+	/** Tests that a shot fires once, even if a later input between ticks released the trigger. */
+	public void testFireLatch() {
+		InputSlot slot = new InputSlot();
+		slot.offer(1, 0, true, false, 0);
+		slot.offer(2, 0, false, false, 0);
+		Assert.assertTrue(InputSlot.isFiring(slot.take()));
+		Assert.assertFalse(InputSlot.isFiring(slot.take()));
+	}
+
+	@Test
+	/** Tests that inputs the client did not number keep the last sequence number. */
+	public void testSequence() {
+		InputSlot slot = new InputSlot();
+		Assert.assertEquals(0, InputSlot.getSequence(slot.take()));
+		slot.offer(41, InputSlot.LEFT, false, false, 0);
+		slot.offer(-1, 0, false, false, 0);
+		Assert.assertEquals(41, InputSlot.getSequence(slot.take()));
+	}
+}
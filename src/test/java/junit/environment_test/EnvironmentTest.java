@@ -5,14 +5,21 @@ import main.java.agent.PlayerAgent;
 import main.java.agent.Pulsar;
 import main.java.agent.Scout;
 import main.java.environment.Environment;
+import main.java.environment.TickListener;
+import main.java.misc.ChangeTracker;
 import main.java.misc.Vector2D;
 import main.java.projectile.Projectile;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import java.awt.geom.Point2D;
 
 import java.lang.Math;
+import java.lang.reflect.Method;
 
 import org.junit.Test;
 import org.junit.Assert;
@@ -137,6 +144,39 @@ public class EnvironmentTest {
 		Assert.assertFalse(collisions.contains(npc2));
 	}
 
+	/** Tests that a lagging player's shots hit agents where they were when it saw them,
+	 *  rewound by at most the maximum rewind */
+	@Test
+	public void testLagCompensation() throws Exception {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		PlayerAgent shooter = environment.spawnPlayer(new Point2D.Double(1000, 1000));
+		PlayerAgent target = environment.spawnPlayer(new Point2D.Double(0, 0));
+		Assert.assertNotEquals(shooter.getTeam(), target.getTeam());
+
+		// Run five ticks, the target moving away after the first.
+		Method update = Environment.class.getDeclaredMethod("update");
+		update.setAccessible(true);
+		update.invoke(environment);
+		target.setPosition(200, 0);
+		for (int i = 0; i < 4; i++) {
+			update.invoke(environment);
+		}
+
+		Projectile shot = new Projectile(environment, shooter,
+			new Point2D.Double(0, 0), new Vector2D(0.0, 0.0), 1, 1);
+		Assert.assertFalse(environment.checkCollision(shot).contains(target));
+
+		// 125 ms is five ticks, back to the first.
+		shooter.setLatency(125);
+		Assert.assertEquals(5, environment.getRewindTicks(shooter));
+		Assert.assertTrue(environment.checkCollision(shot).contains(target));
+
+		environment.setMaxRewind(50);
+		Assert.assertEquals(2, environment.getRewindTicks(shooter));
+		Assert.assertFalse(environment.checkCollision(shot).contains(target));
+	}
+
 	/** Tests that checkRadius correctly returns distance from origin */
 	@Test
 	public void testCheckRadius() {
@@ -195,4 +235,44 @@ public class EnvironmentTest {
 		Assert.assertEquals(p1.getX(), p2.getX(), ERROR_MARGIN);
 		Assert.assertEquals(p1.getY(), p2.getY(), ERROR_MARGIN);
 	}
+
+	/** Tests that tick listeners are called once per tick with consecutive tick numbers */
+	@Test
+	public void testTickListener() throws InterruptedException {
+		Environment environment = new Environment(false);
+		List<Long> ticks = new CopyOnWriteArrayList<>();
+		CountDownLatch latch = new CountDownLatch(3);
+		environment.addTickListener(new TickListener() {
+			@Override
+			public void onTick(long tick) {
+				ticks.add(tick);
+				latch.countDown();
+			}
+		});
+
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		for (int i = 1; i < ticks.size(); i++) {
+			Assert.assertEquals(ticks.get(i - 1) + 1, (long) ticks.get(i));
+		}
+		Assert.assertTrue(environment.getTick() >= ticks.get(ticks.size() - 1));
+	}
+
+	/** Tests that changedSince() returns only entities modified after the given tick */
+	@Test
+	public void testChangedSince() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		Scout moved = environment.spawnScout(new Point2D.Double(0, 0));
+		Scout idle = environment.spawnScout(new Point2D.Double(10, 10));
+		long spawnTick = idle.getChanges().getSpawnTick();
+
+		Assert.assertTrue(environment.changedSince(spawnTick - 1).contains(idle));
+		Assert.assertFalse(environment.changedSince(Math.max(spawnTick, moved.getChanges().getSpawnTick()))
+			.contains(idle));
+
+		// a change in a later tick is reported relative to the earlier baseline
+		moved.getChanges().mark(ChangeTracker.POSITION, spawnTick + 1);
+		Assert.assertTrue(environment.changedSince(spawnTick).contains(moved));
+		Assert.assertFalse(environment.changedSince(spawnTick + 1).contains(moved));
+	}
 }
@@ -0,0 +1,36 @@
+package test.java.junit.environment_test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import main.java.environment.PositionHistory;
+
+/** Tests that PositionHistory remembers the last ticks, and clamps older and newer ones. */
+public class PositionHistoryTest {
+
+	@Test
+	public void testRing() {
+		PositionHistory history = new PositionHistory(4);
+		Assert.assertTrue(history.isEmpty());
+		for (long tick = 10; tick <= 15; tick++) {
+			history.record(tick, tick, -tick);
+		}
+		Assert.assertEquals(15, history.getLastTick());
+		Assert.assertEquals(13, history.getX(13), 0);
+		Assert.assertEquals(-13, history.getY(13), 0);
+
+		// Ticks 10 and 11 were overwritten, so the oldest remembered stands in for them.
+		Assert.assertEquals(12, history.getX(10), 0);
+		Assert.assertEquals(15, history.getX(20), 0);
+	}
+
+	@Test
+	/** Tests that ticks before the first recorded are answered with the first. */
+	public void testBeforeFirstTick() {
+		PositionHistory history = new PositionHistory(8);
+		history.record(3, 1, 2);
+		history.record(4, 5, 6);
+		Assert.assertEquals(1, history.getX(0), 0);
+		Assert.assertEquals(6, history.getY(4), 0);
+	}
+}
@@ -0,0 +1,55 @@
+package test.java.junit.environment_test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import main.java.environment.SpatialGrid;
+
+/** Tests the range queries of SpatialGrid. */
+public class SpatialGridTest {
+
+	@Test
+	/** Tests that a query returns exactly the items within its radius, across cells. */
+	public void testQuery() {
+		SpatialGrid<String> grid = new SpatialGrid<>(1000, 100);
+		grid.add("origin", 0, 0);
+		grid.add("near", 150, 0);
+		grid.add("diagonal", 150, 150);
+		grid.add("far", -800, 800);
+		grid.build();
+
+		List<String> found = grid.query(0, 0, 200, new ArrayList<String>());
+		Assert.assertEquals(new HashSet<>(Arrays.asList("origin", "near")), new HashSet<>(found));
+		Assert.assertEquals(4, grid.query(0, 0, 5000, new ArrayList<String>()).size());
+	}
+
+	@Test
+	/** Tests that items outside of the grid are still found, and that clearing empties it. */
+	public void testOutOfBoundsAndClear() {
+		SpatialGrid<String> grid = new SpatialGrid<>(100, 50);
+		grid.add("outside", 250, -250);
+		grid.build();
+		Assert.assertEquals(Arrays.asList("outside"), grid.query(240, -240, 20, new ArrayList<String>()));
+
+		grid.clear();
+		grid.build();
+		Assert.assertTrue(grid.query(240, -240, 20, new ArrayList<String>()).isEmpty());
+		Assert.assertEquals(0, grid.size());
+	}
+
+	@Test
+	/** Tests that the grid grows past its initial capacity. */
+	public void testGrowth() {
+		SpatialGrid<Integer> grid = new SpatialGrid<>(1000, 100);
+		for (int i = 0; i < 500; i++) {
+			grid.add(i, i % 20 * 10, i / 20 * 10);
+		}
+		grid.build();
+		Assert.assertEquals(500, grid.query(100, 100, 1000, new ArrayList<Integer>()).size());
+	}
+}
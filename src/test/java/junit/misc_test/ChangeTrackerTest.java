@@ -0,0 +1,53 @@
+package test.java.junit.misc_test;
+
+import main.java.misc.ChangeTracker;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class ChangeTrackerTest {
+
+	/** Tests that every field counts as changed in the spawn tick */
+	@Test
+	public void testSpawnMarksAllFields() {
+		ChangeTracker changes = new ChangeTracker(5);
+		Assert.assertEquals(ChangeTracker.ALL, changes.changedFieldsSince(4));
+		Assert.assertEquals(0, changes.changedFieldsSince(5));
+		Assert.assertFalse(changes.changedSince(5));
+	}
+
+	/** Tests that changedFieldsSince() reports each field relative to any baseline */
+	@Test
+	public void testChangedFieldsSince() {
+		ChangeTracker changes = new ChangeTracker(1);
+		changes.mark(ChangeTracker.POSITION, 3);
+		changes.mark(ChangeTracker.HEALTH | ChangeTracker.ANGLE, 6);
+
+		Assert.assertEquals(ChangeTracker.POSITION | ChangeTracker.HEALTH | ChangeTracker.ANGLE,
+			changes.changedFieldsSince(2));
+		Assert.assertEquals(ChangeTracker.HEALTH | ChangeTracker.ANGLE, changes.changedFieldsSince(3));
+		Assert.assertEquals(0, changes.changedFieldsSince(6));
+		Assert.assertEquals(6, changes.getLastModified());
+		Assert.assertEquals(3, changes.getLastModified(ChangeTracker.POSITION));
+	}
+
+	/** Tests that a late mark with an older tick does not move a stamp backwards */
+	@Test
+	public void testMarkIsMonotonic() {
+		ChangeTracker changes = new ChangeTracker(1);
+		changes.mark(ChangeTracker.SIZE, 8);
+		changes.mark(ChangeTracker.SIZE, 7);
+		Assert.assertEquals(8, changes.getLastModified(ChangeTracker.SIZE));
+	}
+
+	/** Tests that the despawn tick is recorded once */
+	@Test
+	public void testDespawn() {
+		ChangeTracker changes = new ChangeTracker(1);
+		Assert.assertFalse(changes.isDespawned());
+		changes.markDespawned(4);
+		changes.markDespawned(9);
+		Assert.assertTrue(changes.isDespawned());
+		Assert.assertEquals(4, changes.getDespawnTick());
+	}
+}
@@ -53,4 +53,23 @@ public class ProjectileTest {
 		projectile.update();
 		Assert.assertNotEquals(oldPosition, projectile.getPosition());
 	}
+
+	/** Tests that the position follows from the trajectory that clients are sent */
+	@Test
+	public void testTrajectory() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		Projectile projectile = new Projectile(environment, null, new Point2D.Double(5, -5), new Vector2D(2, Math.PI / 2), 1, 1);
+		Assert.assertEquals(environment.getCurrentTick(), projectile.getLaunchTick());
+		Assert.assertEquals(0, projectile.getVelocityX(), ERROR_MARGIN);
+		Assert.assertEquals(-2, projectile.getVelocityY(), ERROR_MARGIN);
+
+		for (int i = 0; i < 3; i++) {
+			projectile.update();
+		}
+		Assert.assertEquals(new Point2D.Double(5, -5), projectile.getOrigin());
+		Assert.assertEquals(5 + 3 * projectile.getVelocityX(), projectile.getPosition().getX(), ERROR_MARGIN);
+		Assert.assertEquals(-11, projectile.getPosition().getY(), ERROR_MARGIN);
+		Assert.assertFalse(projectile.isHit());
+	}
 }
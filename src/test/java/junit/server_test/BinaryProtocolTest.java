@@ -0,0 +1,216 @@
+package test.java.junit.server_test;
+
+import java.awt.geom.Point2D;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import main.java.agent.NPCAgent;
+import main.java.agent.PlayerAgent;
+import main.java.agent.Scout;
+import main.java.environment.Environment;
+import main.java.misc.ChangeTracker;
+import main.java.misc.Vector2D;
+import main.java.projectile.Projectile;
+import main.java.web.BinaryProtocol;
+import main.java.web.ClientInput;
+import main.java.web.ClientView;
+import main.java.web.JsonFrameWriter;
+import main.java.web.GameState;
+import main.java.web.StateFrame;
+import main.java.web.WireFormat;
+
+/** Tests that the binary protocol round-trips frames and inputs. */
+public class BinaryProtocolTest {
+	private static final double POSITION_ERROR = 0.5 / BinaryProtocol.POSITION_SCALE;
+	private static final double ANGLE_ERROR = 0.5 / BinaryProtocol.ANGLE_SCALE;
+
+	@Test
+	/** Tests that a decoded frame matches the JSON frame, within the quantization error. */
+	public void testStateFrameRoundTrip() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		PlayerAgent player = environment.spawnPlayer(new Point2D.Double(-1234.56, 789.01));
+		player.setName("Zoë Triangle");
+		player.setAngle(-2.5);
+		player.awardPoints(42);
+		Scout scout = environment.spawnScout(new Point2D.Double(3999.9, -3999.9));
+		Scout despawned = environment.spawnScout(new Point2D.Double(500, 500));
+		Projectile projectile = new Projectile(environment, player,
+			new Point2D.Double(0.06, -0.06), new Vector2D(3, 0.5), 10, 1.5);
+		projectile.update();
+		projectile.update();
+		ClientView view = new ClientView(null, player);
+		long tick = environment.getCurrentTick();
+
+		view.buildFrame(new GameState(tick, Collections.singletonList(player),
+			Arrays.<NPCAgent>asList(scout, despawned), Collections.singletonList(projectile)));
+		environment.despawnNPCAgent(despawned);
+		ClientInput numbered = new ClientInput();
+		numbered.setSequence(300);
+		player.addPlayerEvent(numbered);
+		player.update();
+		StateFrame frame = view.buildFrame(new GameState(tick + 1, Collections.singletonList(player),
+			Collections.<NPCAgent>singletonList(scout), Collections.singletonList(projectile)));
+
+		JsonObject expected = new JsonParser().parse(new JsonFrameWriter().write(frame).toString()).getAsJsonObject();
+		JsonObject decoded = BinaryProtocol.decodeFrame(BinaryProtocol.encode(frame));
+
+		Assert.assertEquals(tick + 1, decoded.get("tick").getAsLong());
+		Assert.assertEquals(expected.get("baseline"), decoded.get("baseline"));
+		Assert.assertEquals(expected.get("keyframe"), decoded.get("keyframe"));
+		Assert.assertEquals(300, expected.get("inputSeq").getAsLong());
+		Assert.assertEquals(expected.get("inputSeq"), decoded.get("inputSeq"));
+		Assert.assertEquals(expected.get("vx").getAsFloat(), decoded.get("vx").getAsFloat(), 0);
+		Assert.assertEquals(expected.get("vy").getAsFloat(), decoded.get("vy").getAsFloat(), 0);
+		assertEntitiesMatch(expected.getAsJsonArray("spawnedPlayerAgents"),
+			decoded.getAsJsonArray("spawnedPlayerAgents"), player.getNetID());
+		assertEntitiesMatch(expected.getAsJsonArray("spawnedNPCAgents"),
+			decoded.getAsJsonArray("spawnedNPCAgents"), scout.getNetID());
+		assertEntitiesMatch(expected.getAsJsonArray("spawnedProjectiles"),
+			decoded.getAsJsonArray("spawnedProjectiles"), projectile.getNetID());
+		Assert.assertEquals(0, decoded.getAsJsonArray("playerAgents").size());
+		Assert.assertEquals(despawned.getNetID(),
+			decoded.getAsJsonArray("despawnedNPCAgents").get(0).getAsJsonObject().get("id").getAsInt());
+		Assert.assertEquals(0, decoded.getAsJsonArray("culled").size());
+		Assert.assertNull(decoded.get("messages"));
+
+		// Messages that ride on the frame follow the culled entities.
+		ByteBuffer encoded = BinaryProtocol.encode(frame);
+		ByteBuffer withMessages = ByteBuffer.allocate(encoded.remaining() + 8);
+		withMessages.put(encoded).put(new byte[] {1, 5}).put("Zoë!".getBytes(StandardCharsets.UTF_8)).flip();
+		decoded = BinaryProtocol.decodeFrame(withMessages);
+		Assert.assertEquals("Zoë!", decoded.getAsJsonArray("messages").get(0).getAsString());
+	}
+
+	/** Asserts that two single-entity arrays hold the same fields, apart from the ID. */
+	private static void assertEntitiesMatch(JsonArray expectedArray, JsonArray decodedArray, int netID) {
+		Assert.assertEquals(1, decodedArray.size());
+		JsonObject expected = expectedArray.get(0).getAsJsonObject();
+		JsonObject decoded = decodedArray.get(0).getAsJsonObject();
+		Assert.assertEquals(netID, decoded.get("id").getAsInt());
+		Assert.assertEquals(expected.entrySet().size(), decoded.entrySet().size());
+
+		for (Map.Entry<String, JsonElement> field : expected.entrySet()) {
+			String key = field.getKey();
+			JsonElement value = decoded.get(key);
+			Assert.assertNotNull(key, value);
+			if (key.equals("id")) {
+				continue;
+			} else if (key.equals("x") || key.equals("y") || key.equals("originX") || key.equals("originY")) {
+				Assert.assertEquals(key, field.getValue().getAsDouble(), value.getAsDouble(), POSITION_ERROR);
+			} else if (key.equals("angle")) {
+				Assert.assertEquals(key, field.getValue().getAsDouble(), value.getAsDouble(), ANGLE_ERROR);
+			} else if (key.equals("vx") || key.equals("vy")) {
+				Assert.assertEquals(key, field.getValue().getAsDouble(), value.getAsDouble(), 1e-5);
+			} else if (key.equals("size")) {
+				Assert.assertEquals(key, field.getValue().getAsDouble(), value.getAsDouble(), 1e-6);
+			} else {
+				Assert.assertEquals(key, field.getValue().getAsString(), value.getAsString());
+			}
+		}
+	}
+
+	@Test
+	/** Tests that coarse positions and angles round-trip to the same whole pixels as JSON, and nearly the same angle. */
+	public void testCoarseRoundTrip() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		PlayerAgent player = environment.spawnPlayer(new Point2D.Double(0, 0));
+		Scout scout = environment.spawnScout(new Point2D.Double(300.4, -200.6));
+		scout.setAngle(3.14);
+		ClientView view = new ClientView(null, player);
+		view.setDetailRadii(0, 1000, 1000);
+		long tick = environment.getCurrentTick();
+		view.buildFrame(new GameState(tick, Collections.singletonList(player),
+			Collections.<NPCAgent>singletonList(scout), Collections.<Projectile>emptyList()));
+		view.acknowledge(tick);
+
+		StateFrame frame = null;
+		while (frame == null || frame.getNpcAgents().isEmpty()) {
+			tick++;
+			scout.getChanges().mark(ChangeTracker.POSITION | ChangeTracker.ANGLE, tick);
+			frame = view.buildFrame(new GameState(tick, Collections.singletonList(player),
+				Collections.<NPCAgent>singletonList(scout), Collections.<Projectile>emptyList()));
+		}
+		Assert.assertTrue(frame.getNpcAgents().get(0).isCoarse());
+
+		JsonObject expected = new JsonParser().parse(new JsonFrameWriter().write(frame).toString())
+			.getAsJsonObject().getAsJsonArray("npcAgents").get(0).getAsJsonObject();
+		JsonObject decoded = BinaryProtocol.decodeFrame(BinaryProtocol.encode(frame))
+			.getAsJsonArray("npcAgents").get(0).getAsJsonObject();
+		Assert.assertEquals(scout.getNetID(), decoded.get("id").getAsInt());
+		Assert.assertEquals(300, expected.get("x").getAsDouble(), 0);
+		Assert.assertEquals(-201, expected.get("y").getAsDouble(), 0);
+		Assert.assertEquals(expected.get("x").getAsDouble(), decoded.get("x").getAsDouble(), 0);
+		Assert.assertEquals(expected.get("y").getAsDouble(), decoded.get("y").getAsDouble(), 0);
+		Assert.assertEquals(3.14, expected.get("angle").getAsDouble(), 0);
+		// 3.14 is within half a coarse step of PI, so it wraps around to -PI.
+		Assert.assertEquals(-Math.PI, decoded.get("angle").getAsDouble(), 1e-9);
+	}
+
+	@Test
+	/** Tests that inputs round-trip, with the angle wrapped into [-PI, PI). */
+	public void testInputRoundTrip() {
+		ClientInput input = new ClientInput();
+		input.setUp(true);
+		input.setRight(true);
+		input.setIsFiring(true);
+		input.setAngle(Math.PI);
+		input.setAck(123456789012L);
+		input.setResync(true);
+		input.setSequence(4321);
+
+		ClientInput decoded = BinaryProtocol.decodeInput(BinaryProtocol.encode(input));
+		Assert.assertTrue(decoded.isUp());
+		Assert.assertFalse(decoded.isDown());
+		Assert.assertFalse(decoded.isLeft());
+		Assert.assertTrue(decoded.isRight());
+		Assert.assertTrue(decoded.isFiring());
+		Assert.assertEquals(-Math.PI, decoded.getAngle(), ANGLE_ERROR);
+		Assert.assertEquals(123456789012L, decoded.getAck());
+		Assert.assertTrue(decoded.isResync());
+		Assert.assertEquals(4321, decoded.getSequence());
+
+		ClientInput empty = BinaryProtocol.decodeInput(BinaryProtocol.encode(new ClientInput()));
+		Assert.assertFalse(empty.isMoving());
+		Assert.assertFalse(empty.hasAngle());
+		Assert.assertFalse(empty.hasAck());
+		Assert.assertFalse(empty.isResync());
+		Assert.assertFalse(empty.hasSequence());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	/** Tests that messages of another version are rejected. */
+	public void testUnsupportedVersion() {
+		BinaryProtocol.decodeInput(ByteBuffer.wrap(new byte[] {
+			BinaryProtocol.VERSION + 1, BinaryProtocol.TYPE_INPUT, 0}));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	/** Tests that truncated messages are rejected. */
+	public void testTruncatedInput() {
+		BinaryProtocol.decodeInput(ByteBuffer.wrap(new byte[] {
+			BinaryProtocol.VERSION, BinaryProtocol.TYPE_INPUT, (byte) BinaryProtocol.INPUT_ANGLE}));
+	}
+
+	@Test
+	/** Tests that the first supported format the client offers is chosen, falling back to JSON. */
+	public void testNegotiation() {
+		Assert.assertEquals(WireFormat.BINARY,
+			WireFormat.negotiate(new String[] {"binary-999", WireFormat.BINARY.getName(), "json"}));
+		Assert.assertEquals(WireFormat.JSON, WireFormat.negotiate(new String[] {"json", WireFormat.BINARY.getName()}));
+		Assert.assertEquals(WireFormat.JSON, WireFormat.negotiate(new String[] {"binary-999"}));
+		Assert.assertEquals(WireFormat.JSON, WireFormat.negotiate(null));
+	}
+}
@@ -0,0 +1,76 @@
+package test.java.junit.server_test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import main.java.web.BufferPool;
+import main.java.web.PooledBuffer;
+
+public class BufferPoolTest {
+
+	@Test
+	/** Tests that a released buffer is handed out again instead of allocating a new one. */
+	public void testReuse() {
+		BufferPool pool = new BufferPool();
+		PooledBuffer first = pool.acquire(1000);
+		Assert.assertEquals(1024, first.getBuffer().capacity());
+		Assert.assertTrue(first.getBuffer().isDirect());
+		first.getBuffer().put((byte) 1);
+		first.release();
+		Assert.assertEquals(0, pool.getOutstanding());
+
+		PooledBuffer second = pool.acquire(600);
+		Assert.assertSame(first, second);
+		Assert.assertEquals(0, second.getBuffer().position());
+		Assert.assertEquals(1024, second.getBuffer().limit());
+
+		Assert.assertEquals(2048, pool.acquire(1025).getBuffer().capacity());
+		Assert.assertEquals((1 << 20) + 1, pool.acquire((1 << 20) + 1).getBuffer().capacity());
+		Assert.assertEquals(3, pool.getOutstanding());
+	}
+
+	@Test
+	/** Tests that a buffer is only returned once every send holding it has completed. */
+	public void testReferenceCounting() {
+		BufferPool pool = new BufferPool();
+		PooledBuffer buffer = pool.acquire(10);
+		buffer.retain();
+		buffer.retain();
+		buffer.release();
+		Assert.assertEquals(2, buffer.getReferenceCount());
+		buffer.writeSuccess();
+		Assert.assertEquals(1, pool.getOutstanding());
+		buffer.writeFailed(new Exception());
+		Assert.assertEquals(0, pool.getOutstanding());
+
+		try {
+			buffer.release();
+			Assert.fail("Releasing a returned buffer should throw");
+		} catch (IllegalStateException e) {
+		}
+		try {
+			buffer.retain();
+			Assert.fail("Retaining a returned buffer should throw");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	/** Tests that a buffer dropped without being released is reported as a leak. */
+	public void testLeakDetection() throws InterruptedException {
+		BufferPool pool = new BufferPool(true);
+		pool.acquire(10);
+		Assert.assertEquals(1, pool.getOutstanding());
+
+		for (int i = 0; i < 50 && pool.getLeakCount() == 0; i++) {
+			System.gc();
+			Thread.sleep(20);
+			pool.reportLeaks();
+		}
+		Assert.assertEquals(1, pool.getLeakCount());
+		Assert.assertEquals(0, pool.getOutstanding());
+
+		pool.acquire(10).release();
+		Assert.assertEquals(1, pool.getLeakCount());
+	}
+}
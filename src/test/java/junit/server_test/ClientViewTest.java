@@ -0,0 +1,316 @@
+package test.java.junit.server_test;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import main.java.agent.NPCAgent;
+import main.java.agent.PlayerAgent;
+import main.java.agent.Scout;
+import main.java.environment.Environment;
+import main.java.misc.ChangeTracker;
+import main.java.misc.Vector2D;
+import main.java.projectile.Projectile;
+import main.java.web.ClientView;
+import main.java.web.DetailLevel;
+import main.java.web.GameState;
+import main.java.web.StateFrame;
+import main.java.web.WireFormat;
+
+/** Tests the per-client delta frames built by ClientView. */
+public class ClientViewTest {
+
+	private static GameState state(long tick, PlayerAgent player, NPCAgent... npcs) {
+		return new GameState(tick, Collections.singletonList(player),
+			new ArrayList<>(Arrays.asList(npcs)), new ArrayList<Projectile>());
+	}
+
+	@Test
+	/** Tests that frames spawn every entity until the client acknowledges one. */
+	public void testKeyframeUntilAcknowledged() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		PlayerAgent player = environment.spawnPlayer(new Point2D.Double(0, 0));
+		Scout scout = environment.spawnScout(new Point2D.Double(10, 10));
+		long tick = environment.getCurrentTick();
+		ClientView view = new ClientView(null, player);
+
+		StateFrame first = view.buildFrame(state(tick, player, scout));
+		StateFrame second = view.buildFrame(state(tick + 1, player, scout));
+
+		Assert.assertTrue(first.isKeyframe());
+		Assert.assertTrue(second.isKeyframe());
+		Assert.assertTrue(second.getNpcAgents().isEmpty());
+		Assert.assertEquals(ChangeTracker.ALL, second.getSpawnedNPCAgents().get(0).getFields());
+	}
+
+	@Test
+	/** Tests that only changed entities and fields are sent after an acknowledgement. */
+	public void testDeltaAgainstAcknowledgedFrame() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		PlayerAgent player = environment.spawnPlayer(new Point2D.Double(0, 0));
+		Scout moving = environment.spawnScout(new Point2D.Double(10, 10));
+		Scout idle = environment.spawnScout(new Point2D.Double(20, 20));
+		long tick = environment.getCurrentTick();
+		ClientView view = new ClientView(null, player);
+
+		view.buildFrame(state(tick, player, moving, idle));
+		view.acknowledge(tick);
+		moving.getChanges().mark(ChangeTracker.POSITION, tick + 1);
+
+		StateFrame delta = view.buildFrame(state(tick + 1, player, moving, idle));
+		Assert.assertFalse(delta.isKeyframe());
+		Assert.assertEquals(tick, delta.getBaseline());
+		Assert.assertTrue(delta.getPlayerAgents().isEmpty());
+		Assert.assertEquals(1, delta.getNpcAgents().size());
+		Assert.assertSame(moving, delta.getNpcAgents().get(0).getEntity());
+		Assert.assertEquals(ChangeTracker.POSITION, delta.getNpcAgents().get(0).getFields());
+	}
+
+	@Test
+	/** Tests that a removal is repeated until a frame carrying it is acknowledged. */
+	public void testRemovalRepeatedUntilAcknowledged() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		PlayerAgent player = environment.spawnPlayer(new Point2D.Double(0, 0));
+		Scout scout = environment.spawnScout(new Point2D.Double(10, 10));
+		long tick = environment.getCurrentTick();
+		ClientView view = new ClientView(null, player);
+
+		view.buildFrame(state(tick, player, scout));
+		view.acknowledge(tick);
+		environment.despawnNPCAgent(scout);
+
+		StateFrame removed = view.buildFrame(state(tick + 1, player));
+		StateFrame repeated = view.buildFrame(state(tick + 2, player));
+		view.acknowledge(tick + 1);
+		StateFrame acknowledged = view.buildFrame(state(tick + 3, player));
+
+		Assert.assertEquals(Collections.singletonList(scout), removed.getDespawnedNPCAgents());
+		Assert.assertEquals(Collections.singletonList(scout), repeated.getDespawnedNPCAgents());
+		Assert.assertTrue(acknowledged.getDespawnedNPCAgents().isEmpty());
+	}
+
+	@Test
+	/** Tests that entities enter the area of interest within its radius, and are culled
+	 *  rather than despawned once they leave the state. */
+	public void testAreaOfInterest() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		PlayerAgent player = environment.spawnPlayer(new Point2D.Double(0, 0));
+		Scout near = environment.spawnScout(new Point2D.Double(100, 0));
+		Scout far = environment.spawnScout(new Point2D.Double(600, 0));
+		long tick = environment.getCurrentTick();
+		ClientView view = new ClientView(null, player);
+
+		StateFrame first = view.buildFrame(state(tick, player, near, far), 500);
+		Assert.assertEquals(1, first.getSpawnedNPCAgents().size());
+		Assert.assertSame(near, first.getSpawnedNPCAgents().get(0).getEntity());
+
+		// A known entity stays in view while the state still holds it.
+		near.setPosition(550, 0);
+		StateFrame second = view.buildFrame(state(tick + 1, player, near, far), 500);
+		Assert.assertEquals(1, second.getSpawnedNPCAgents().size());
+		Assert.assertTrue(second.getCulled().isEmpty());
+
+		StateFrame third = view.buildFrame(state(tick + 2, player, far), 500);
+		Assert.assertEquals(Collections.singletonList(near), third.getCulled());
+		Assert.assertTrue(third.getDespawnedNPCAgents().isEmpty());
+	}
+
+	@Test
+	/** Tests that static fields are only sent with spawns, and that a change to one spawns again. */
+	public void testStaticFieldsOnlyInSpawns() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		PlayerAgent player = environment.spawnPlayer(new Point2D.Double(0, 0));
+		Scout scout = environment.spawnScout(new Point2D.Double(10, 10));
+		long tick = environment.getCurrentTick();
+		ClientView view = new ClientView(null, player);
+		view.setKeyframeInterval(2);
+
+		view.buildFrame(state(tick, player, scout));
+		view.acknowledge(tick);
+		StateFrame keyframe = view.buildFrame(state(tick + 2, player, scout));
+		Assert.assertTrue(keyframe.isKeyframe());
+		Assert.assertTrue(keyframe.getSpawnedNPCAgents().isEmpty());
+		Assert.assertEquals(ChangeTracker.DYNAMIC, keyframe.getNpcAgents().get(0).getFields());
+
+		scout.getChanges().mark(ChangeTracker.TEAM, tick + 3);
+		StateFrame respawn = view.buildFrame(state(tick + 3, player, scout));
+		Assert.assertTrue(respawn.getNpcAgents().isEmpty());
+		Assert.assertEquals(ChangeTracker.ALL, respawn.getSpawnedNPCAgents().get(0).getFields());
+	}
+
+	@Test
+	/** Tests that a resync spawns every entity again in a keyframe. */
+	public void testResync() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		PlayerAgent player = environment.spawnPlayer(new Point2D.Double(0, 0));
+		Scout scout = environment.spawnScout(new Point2D.Double(10, 10));
+		long tick = environment.getCurrentTick();
+		ClientView view = new ClientView(null, player);
+
+		view.buildFrame(state(tick, player, scout));
+		view.acknowledge(tick);
+		Assert.assertTrue(view.buildFrame(state(tick + 1, player, scout)).getSpawnedNPCAgents().isEmpty());
+
+		view.resync();
+		StateFrame resync = view.buildFrame(state(tick + 2, player, scout));
+		Assert.assertTrue(resync.isKeyframe());
+		Assert.assertEquals(-1, view.getAckedTick());
+		Assert.assertEquals(1, resync.getSpawnedPlayerAgents().size());
+		Assert.assertEquals(1, resync.getSpawnedNPCAgents().size());
+	}
+
+	@Test
+	/** Tests that frames are filled up to the budget in order of priority, and that the
+	 *  changes of a deferred entity are not lost when a frame leaving it out is acknowledged. */
+	public void testFrameBudget() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		PlayerAgent player = environment.spawnPlayer(new Point2D.Double(0, 0));
+		Scout near = environment.spawnScout(new Point2D.Double(50, 0));
+		Scout far = environment.spawnScout(new Point2D.Double(1000, 0));
+		long tick = environment.getCurrentTick();
+		ClientView view = new ClientView(null, player);
+		view.setDetailRadii(2000, 2000, 2000);
+		WireFormat format = view.getWireFormat();
+		view.setFrameBudget(format.estimateFrameSize() + format.estimateEntitySize(player, ChangeTracker.ALL)
+			+ format.estimateEntitySize(near, ChangeTracker.ALL));
+
+		StateFrame first = view.buildFrame(state(tick, player, far, near));
+		Assert.assertEquals(1, first.getSpawnedPlayerAgents().size());
+		Assert.assertEquals(1, first.getSpawnedNPCAgents().size());
+		Assert.assertSame(near, first.getSpawnedNPCAgents().get(0).getEntity());
+		Assert.assertEquals(1, view.getDeferredEntities());
+		view.acknowledge(tick);
+
+		StateFrame second = view.buildFrame(state(tick + 1, player, far, near));
+		Assert.assertEquals(1, second.getSpawnedNPCAgents().size());
+		Assert.assertSame(far, second.getSpawnedNPCAgents().get(0).getEntity());
+		view.acknowledge(tick + 1);
+
+		view.setFrameBudget(format.estimateFrameSize() + format.estimateEntitySize(near, ChangeTracker.POSITION));
+		near.getChanges().mark(ChangeTracker.POSITION, tick + 2);
+		far.getChanges().mark(ChangeTracker.POSITION, tick + 2);
+		StateFrame third = view.buildFrame(state(tick + 2, player, far, near));
+		Assert.assertEquals(1, third.getNpcAgents().size());
+		Assert.assertSame(near, third.getNpcAgents().get(0).getEntity());
+		view.acknowledge(tick + 2);
+
+		StateFrame fourth = view.buildFrame(state(tick + 3, player, far, near));
+		Assert.assertEquals(1, fourth.getNpcAgents().size());
+		Assert.assertSame(far, fourth.getNpcAgents().get(0).getEntity());
+		Assert.assertEquals(ChangeTracker.POSITION, fourth.getNpcAgents().get(0).getFields());
+		view.acknowledge(tick + 3);
+		Assert.assertTrue(view.buildFrame(state(tick + 4, player, far, near)).getNpcAgents().isEmpty());
+	}
+
+	@Test
+	/** Tests that far entities are updated less often and coarsely, with the changes left out
+	 *  held until they are sent, and that they are sent precisely again once they come near. */
+	public void testDetailLevels() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		PlayerAgent player = environment.spawnPlayer(new Point2D.Double(0, 0));
+		Scout near = environment.spawnScout(new Point2D.Double(100, 0));
+		Scout far = environment.spawnScout(new Point2D.Double(1500, 0));
+		long tick = environment.getCurrentTick();
+		ClientView view = new ClientView(null, player);
+		Assert.assertEquals(DetailLevel.FAR, view.getDetailLevel(1500));
+
+		view.buildFrame(state(tick, player, near, far));
+		view.acknowledge(tick);
+		far.getChanges().mark(ChangeTracker.HEALTH, tick + 1);
+		int nearUpdates = 0;
+		int farUpdates = 0;
+		for (int i = 1; i <= DetailLevel.FAR.getUpdateInterval(); i++) {
+			near.getChanges().mark(ChangeTracker.POSITION, tick + i);
+			far.getChanges().mark(ChangeTracker.POSITION, tick + i);
+			StateFrame frame = view.buildFrame(state(tick + i, player, near, far));
+			view.acknowledge(tick + i);
+			for (StateFrame.Entry<NPCAgent> entry : frame.getNpcAgents()) {
+				if (entry.getEntity() == near) {
+					nearUpdates++;
+					Assert.assertFalse(entry.isCoarse());
+				} else {
+					farUpdates++;
+					Assert.assertTrue(entry.isCoarse());
+					Assert.assertEquals(ChangeTracker.POSITION, entry.getFields());
+				}
+			}
+		}
+		Assert.assertEquals(DetailLevel.FAR.getUpdateInterval(), nearUpdates);
+		Assert.assertEquals(1, farUpdates);
+
+		far.setPosition(150, 0);
+		long next = tick + DetailLevel.FAR.getUpdateInterval() + 1;
+		StateFrame frame = view.buildFrame(state(next, player, near, far));
+		Assert.assertEquals(1, frame.getNpcAgents().size());
+		Assert.assertFalse(frame.getNpcAgents().get(0).isCoarse());
+		Assert.assertEquals(ChangeTracker.POSITION | ChangeTracker.ANGLE | ChangeTracker.HEALTH,
+			frame.getNpcAgents().get(0).getFields());
+	}
+
+	@Test
+	/** Tests that projectiles are spawned with their trajectory, then only listed in keyframes,
+	 *  and that those that hit are told apart from those that expire. */
+	public void testProjectiles() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		PlayerAgent player = environment.spawnPlayer(new Point2D.Double(0, 0));
+		Projectile hitting = new Projectile(environment, player,
+			new Point2D.Double(100, 0), new Vector2D(5, 0), 1, 1);
+		Projectile expiring = new Projectile(environment, player,
+			new Point2D.Double(-100, 0), new Vector2D(5, Math.PI), 1, 1);
+		long tick = environment.getCurrentTick();
+		ClientView view = new ClientView(null, player);
+		view.setKeyframeInterval(3);
+
+		StateFrame spawn = view.buildFrame(projectiles(tick, player, hitting, expiring));
+		Assert.assertEquals(2, spawn.getSpawnedProjectiles().size());
+		Assert.assertEquals(ChangeTracker.ALL, spawn.getSpawnedProjectiles().get(0).getFields());
+		view.acknowledge(tick);
+
+		hitting.update();
+		expiring.update();
+		Assert.assertTrue(view.buildFrame(projectiles(tick + 1, player, hitting, expiring)).getProjectiles().isEmpty());
+		StateFrame keyframe = view.buildFrame(projectiles(tick + 3, player, hitting, expiring));
+		Assert.assertEquals(2, keyframe.getProjectiles().size());
+		Assert.assertEquals(0, keyframe.getProjectiles().get(0).getFields());
+
+		environment.spawnScout(new Point2D.Double(115, 0));
+		hitting.update();
+		Assert.assertTrue(hitting.isHit());
+		expiring.despawn();
+		StateFrame removed = view.buildFrame(projectiles(tick + 4, player));
+		Assert.assertEquals(Collections.singletonList(hitting), removed.getHitProjectiles());
+		Assert.assertEquals(Collections.singletonList(expiring), removed.getDespawnedProjectiles());
+	}
+
+	private static GameState projectiles(long tick, PlayerAgent player, Projectile... projectiles) {
+		return new GameState(tick, Collections.singletonList(player),
+			new ArrayList<NPCAgent>(), new ArrayList<>(Arrays.asList(projectiles)));
+	}
+
+	@Test
+	/** Tests that acknowledgements for frames that were never sent are ignored. */
+	public void testAcknowledgeUnsentFrame() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		PlayerAgent player = environment.spawnPlayer(new Point2D.Double(0, 0));
+		long tick = environment.getCurrentTick();
+		ClientView view = new ClientView(null, player);
+
+		view.buildFrame(state(tick, player));
+		view.acknowledge(tick + 100);
+		Assert.assertEquals(-1, view.getAckedTick());
+	}
+}
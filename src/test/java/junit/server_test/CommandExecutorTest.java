@@ -0,0 +1,67 @@
+package test.java.junit.server_test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import main.java.environment.Environment;
+import main.java.web.CommandExecutor;
+
+public class CommandExecutorTest {
+
+	@Test
+	/** Tests that a session's commands run in order, the mutating ones on the simulation thread. */
+	public void testOrdering() throws InterruptedException {
+		Environment environment = new Environment(false);
+		CommandExecutor executor = new CommandExecutor(environment);
+		CommandExecutor.SessionQueue queue = executor.newQueue();
+		List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch done = new CountDownLatch(4);
+
+		queue.submit(false, new Recorder(threads, done));
+		queue.submit(true, new Recorder(threads, done));
+		queue.submit(false, new Recorder(threads, done));
+		queue.submit(true, new Recorder(threads, done));
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+		Assert.assertTrue(threads.get(0).startsWith("Command Worker"));
+		Assert.assertEquals("Environment Timer", threads.get(1));
+		Assert.assertTrue(threads.get(2).startsWith("Command Worker"));
+		Assert.assertEquals("Environment Timer", threads.get(3));
+	}
+
+	@Test
+	/** Tests that changes are still made while the game is paused. */
+	public void testPaused() throws InterruptedException {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		CommandExecutor executor = new CommandExecutor(environment);
+		List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch done = new CountDownLatch(1);
+		executor.newQueue().submit(true, new Recorder(threads, done));
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals("Environment Timer", threads.get(0));
+	}
+
+	/** Records the thread it ran on. */
+	private static class Recorder implements Runnable {
+		private final List<String> threads;
+		private final CountDownLatch done;
+
+		Recorder(List<String> threads, CountDownLatch done) {
+			this.threads = threads;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			threads.add(Thread.currentThread().getName());
+			done.countDown();
+		}
+	}
+}
@@ -1,13 +1,30 @@
 package test.java.junit.server_test;
 
+import org.junit.After;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 
 import main.java.web.Command;
+import main.java.web.GameSocket;
 
 /** Test commands that a player can perform through the chat window. */
 public class CommandsTest {
 	
+	/**
+	 * Pauses the game, so that the players are not shot between a command and the
+	 * test's check of it. Commands that change the world still run while paused.
+	 */
+	@Before
+	public void pause() {
+		new GameSocket(false).getEnvironment().setGameplayOccurring(false);
+	}
+	
+	@After
+	public void resume() {
+		new GameSocket(false).getEnvironment().setGameplayOccurring(true);
+	}
+	
 	@Test
 	/** Tests running "/help" without any arguments. */
 	public void testHelp() {
@@ -304,6 +321,7 @@ public class CommandsTest {
 		
 		// Set the player's position so we know where they are
 		user2.sendMessage("{\"message\":\"/goto 0 0\"}");
+		Assert.assertTrue(user2.awaitCommands());
 		
 		user1.sendMessage("{\"message\":\"/where Test2\"}");
 
@@ -321,9 +339,11 @@ public class CommandsTest {
 		
 		// Set the first player's position so we know where they are
 		user1.sendMessage("{\"message\":\"/goto 0 0\"}");
+		Assert.assertTrue(user1.awaitCommands());
 		
 		// Bring the second player to the first
 		user1.sendMessage("{\"message\":\"/bring Test2\"}");
+		Assert.assertTrue(user1.awaitCommands());
 		
 		// Check where the second player is
 		user1.sendMessage("{\"message\":\"/where Test2\"}");
@@ -344,9 +364,11 @@ public class CommandsTest {
 		
 		// Set the third player's position so we know where they are
 		user3.sendMessage("{\"message\":\"/goto 0 0\"}");
+		Assert.assertTrue(user3.awaitCommands());
 		
 		// Have the first player bring the second to the third
 		user1.sendMessage("{\"message\":\"/bring Test2 Test3\"}");
+		Assert.assertTrue(user1.awaitCommands());
 		
 		// Check where the second player is
 		user1.sendMessage("{\"message\":\"/where Test2\"}");
@@ -367,6 +389,7 @@ public class CommandsTest {
 		
 		// Bring the second player to the point
 		user1.sendMessage("{\"message\":\"/bring Test2 0 0\"}");
+		Assert.assertTrue(user1.awaitCommands());
 		
 		// Check where the second player is
 		user1.sendMessage("{\"message\":\"/where Test2\"}");
@@ -386,9 +409,11 @@ public class CommandsTest {
 		
 		// The second player goes to a certain point.
 		user2.sendMessage("{\"message\":\"/goto 0 0\"}");
+		Assert.assertTrue(user2.awaitCommands());
 		
 		// The first player goes to the first player.
 		user1.sendMessage("{\"message\":\"/goto Test2\"}");
+		Assert.assertTrue(user1.awaitCommands());
 
 		// Verify that the first player is where it should be.
 		user1.sendMessage("{\"message\":\"/where\"}");
@@ -455,6 +480,7 @@ public class CommandsTest {
 		
 		// Call /givexp Test2 from Test1.
 		user1.sendMessage("{\"message\":\"/givexp Test2\"}");
+		Assert.assertTrue(user1.awaitCommands());
 		
 		// Verify that Test2 rose to level 1.
 		user2.sendMessage("{\"message\":\"/status\"}");
@@ -478,6 +504,7 @@ public class CommandsTest {
 		
 		// Call /givexp Test2 from Test1.
 		user1.sendMessage("{\"message\":\"/givexp Test2 10\"}");
+		Assert.assertTrue(user1.awaitCommands());
 		
 		user2.clearOutput();
 		
@@ -516,6 +543,7 @@ public class CommandsTest {
 		MockConnection user2 = new MockConnection("Test2");
 		// Apply 10 damage to the second user.
 		user1.sendMessage("{\"message\":\"/heal Test2 -10\"}");
+		Assert.assertTrue(user1.awaitCommands());
 		
 		user2.sendMessage("{\"message\":\"/status\"}");
 		Assert.assertTrue(user2.receivedMessage("Health: 90/100"));
@@ -524,6 +552,7 @@ public class CommandsTest {
 		
 		// Heal the second user to max health.
 		user1.sendMessage("{\"message\":\"/heal Test2\"}");
+		Assert.assertTrue(user1.awaitCommands());
 		
 		// Verify that the user is back to full health.
 		user2.sendMessage("{\"message\":\"/status\"}");
@@ -550,6 +579,23 @@ public class CommandsTest {
 		user2.close();
 	}
 	
+	@Test
+	/** Tests running "/netstats" on yourself and on another player. */
+	public void testNetStats() {
+		MockConnection user1 = new MockConnection("Test1");
+		MockConnection user2 = new MockConnection("Test2");
+
+		user1.sendMessage("{\"message\":\"/netstats\"}");
+		Assert.assertTrue(user1.receivedMessage("<strong>Test1</strong><br>"));
+		Assert.assertTrue(user1.receivedMessage("dropped: 0"));
+
+		user1.sendMessage("{\"message\":\"/netstats test2\"}");
+		Assert.assertTrue(user1.receivedMessage("<strong>Test2</strong><br>"));
+
+		user1.close();
+		user2.close();
+	}
+
 	@Test
 	public void testPing() {
 		MockConnection user = new MockConnection("Test");
@@ -592,6 +638,7 @@ public class CommandsTest {
 		
 		// The first user kicks the second.
 		user1.sendMessage("{\"message\":\"/kick Test2\"}");
+		Assert.assertTrue(user1.awaitCommands());
 		
 		Assert.assertFalse(user2.getSession().isOpen());
 
@@ -614,6 +661,7 @@ public class CommandsTest {
 		Assert.assertEquals(1, players);
 		
 		user.sendMessage("{\"message\":\"/spawn player 0 0\"}");
+		Assert.assertTrue(user.awaitCommands());
 		players = user.getSocket().getEnvironment().getActivePlayerAgents().size();
 		Assert.assertEquals(2, players);
 		
@@ -629,6 +677,7 @@ public class CommandsTest {
 		
 		// Spawn a scout
 		user.sendMessage("{\"message\":\"/spawn scout\"}");
+		Assert.assertTrue(user.awaitCommands());
 		int npcs = user.getSocket().getEnvironment().getActiveNPCAgents().size();
 		Assert.assertTrue(startingNPCs+1 <= npcs);
 		
@@ -644,6 +693,7 @@ public class CommandsTest {
 		
 		// Spawn a pulsar
 		user.sendMessage("{\"message\":\"/spawn pulsar\"}");
+		Assert.assertTrue(user.awaitCommands());
 		int npcs = user.getSocket().getEnvironment().getActiveNPCAgents().size();
 		Assert.assertTrue(startingNPCs+1 <= npcs);
 		
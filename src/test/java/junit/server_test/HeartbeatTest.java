@@ -0,0 +1,35 @@
+package test.java.junit.server_test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import main.java.web.Heartbeat;
+
+public class HeartbeatTest {
+	private static final long SECOND = 1_000_000_000L;
+
+	@Test
+	/** Tests that only a quiet client is pinged, once per interval. */
+	public void testPingDue() {
+		Heartbeat heartbeat = new Heartbeat(0);
+		Assert.assertFalse(heartbeat.isPingDue(SECOND, 2 * SECOND));
+		Assert.assertTrue(heartbeat.isPingDue(2 * SECOND, 2 * SECOND));
+		Assert.assertFalse(heartbeat.isPingDue(3 * SECOND, 2 * SECOND));
+		Assert.assertTrue(heartbeat.isPingDue(4 * SECOND, 2 * SECOND));
+
+		heartbeat.heard(5 * SECOND);
+		Assert.assertFalse(heartbeat.isPingDue(6 * SECOND, 2 * SECOND));
+		Assert.assertTrue(heartbeat.isPingDue(7 * SECOND, 2 * SECOND));
+	}
+
+	@Test
+	/** Tests that a client expires once it has been quiet for longer than the deadline. */
+	public void testExpiry() {
+		Heartbeat heartbeat = new Heartbeat(0);
+		Assert.assertFalse(heartbeat.isExpired(10 * SECOND, 10 * SECOND));
+		Assert.assertTrue(heartbeat.isExpired(10 * SECOND + 1, 10 * SECOND));
+		heartbeat.heard(10 * SECOND);
+		Assert.assertFalse(heartbeat.isExpired(15 * SECOND, 10 * SECOND));
+		Assert.assertEquals(10 * SECOND, heartbeat.getLastHeard());
+	}
+}
@@ -0,0 +1,78 @@
+package test.java.junit.server_test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import main.java.web.InboundLimiter;
+import main.java.web.TokenBucket;
+
+public class InboundLimiterTest {
+	private static final long SECOND = 1_000_000_000L;
+
+	@Test
+	/** Tests that a bucket allows its burst at once, and then its rate. */
+	public void testTokenBucket() {
+		TokenBucket bucket = new TokenBucket(2, 3);
+		for (int i = 0; i < 3; i++) {
+			Assert.assertTrue(bucket.tryTake(0));
+		}
+		Assert.assertFalse(bucket.tryTake(0));
+		Assert.assertTrue(bucket.tryTake(SECOND / 2));
+		Assert.assertFalse(bucket.tryTake(SECOND / 2));
+		// Refilling stops at the burst.
+		for (int i = 0; i < 3; i++) {
+			Assert.assertTrue(bucket.tryTake(100 * SECOND));
+		}
+		Assert.assertFalse(bucket.tryTake(100 * SECOND));
+	}
+
+	@Test
+	/** Tests that a client sending one input per tick is never refused. */
+	public void testSteadyInput() {
+		InboundLimiter limiter = new InboundLimiter();
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertTrue(limiter.allowInput(i * SECOND / 40));
+		}
+		Assert.assertEquals(0, limiter.getDroppedInputs());
+		Assert.assertFalse(limiter.isOffender());
+	}
+
+	@Test
+	/** Tests that each kind of traffic has its own budget, and excess is counted. */
+	public void testSeparateBudgets() {
+		InboundLimiter limiter = new InboundLimiter();
+		int chats = 0;
+		for (int i = 0; i < 10; i++) {
+			if (limiter.allowChat(0)) {
+				chats++;
+			}
+		}
+		Assert.assertEquals((int) InboundLimiter.CHAT_BURST, chats);
+		Assert.assertEquals(10 - chats, limiter.getDroppedChats());
+		Assert.assertTrue(limiter.allowCommand(0));
+		Assert.assertTrue(limiter.allowInput(0));
+		Assert.assertFalse(limiter.allowSize(InboundLimiter.MAX_MESSAGE_SIZE + 1, 0));
+		Assert.assertEquals(1, limiter.getOversizedMessages());
+		Assert.assertFalse(limiter.isOffender());
+	}
+
+	@Test
+	/** Tests that a client refused too often becomes an offender, but occasional excess is forgiven. */
+	public void testOffender() {
+		InboundLimiter limiter = new InboundLimiter();
+		long now = 0;
+		// A few refused commands every few seconds.
+		for (int i = 0; i < 20; i++) {
+			now += 10 * SECOND;
+			for (int j = 0; j < InboundLimiter.COMMAND_BURST + 3; j++) {
+				limiter.allowCommand(now);
+			}
+		}
+		Assert.assertFalse(limiter.isOffender());
+
+		for (int i = 0; i < 1000 && !limiter.isOffender(); i++) {
+			limiter.allowInput(now);
+		}
+		Assert.assertTrue(limiter.isOffender());
+	}
+}
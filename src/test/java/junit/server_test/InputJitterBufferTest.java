@@ -0,0 +1,115 @@
+package test.java.junit.server_test;
+
+import java.awt.geom.Point2D;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import main.java.agent.PlayerAgent;
+import main.java.environment.Environment;
+import main.java.web.ClientInput;
+import main.java.web.InputJitterBuffer;
+
+public class InputJitterBufferTest {
+	private static final long TICK = 1_000_000_000L / Environment.TICK_RATE;
+
+	@Test
+	/** Tests that inputs arriving once a tick are released at once, one a tick. */
+	public void testSteadyInputs() {
+		InputJitterBuffer buffer = new InputJitterBuffer();
+		PlayerAgent agent = newAgent();
+		for (int i = 1; i <= 20; i++) {
+			buffer.offer(input(i), i * TICK, agent);
+			buffer.release(i * TICK, agent);
+			agent.update();
+			Assert.assertEquals(i, agent.getInputSequence());
+		}
+		Assert.assertEquals(0, buffer.getJitter(), 0);
+		Assert.assertEquals(0, buffer.getDepth());
+		Assert.assertEquals(0, buffer.getBuffered());
+		Assert.assertEquals(0, buffer.getUnderruns());
+		Assert.assertEquals(0, buffer.getOverflows());
+	}
+
+	@Test
+	/** Tests that jittery inputs deepen the buffer, and are then released one a tick however they arrive. */
+	public void testJitteryInputs() {
+		InputJitterBuffer buffer = new InputJitterBuffer();
+		PlayerAgent agent = newAgent();
+		long now = 0;
+		int sequence = 0;
+		// Inputs arrive in pairs every other tick.
+		for (int i = 0; i < 100; i++) {
+			now += TICK;
+			if (i % 2 == 0) {
+				buffer.offer(input(++sequence), now, agent);
+				buffer.offer(input(++sequence), now, agent);
+			}
+			buffer.release(now, agent);
+		}
+		Assert.assertTrue(buffer.getJitter() > 20);
+		Assert.assertEquals(2, buffer.getDepth());
+
+		long released = releasedSequence(agent);
+		for (int i = 0; i < 20; i++) {
+			now += TICK;
+			if (i % 2 == 0) {
+				buffer.offer(input(++sequence), now, agent);
+				buffer.offer(input(++sequence), now, agent);
+			}
+			buffer.release(now, agent);
+			long next = releasedSequence(agent);
+			Assert.assertEquals(released + 1, next);
+			released = next;
+		}
+		Assert.assertTrue(buffer.getDelay() > 0);
+	}
+
+	@Test
+	/** Tests that a burst beyond the buffer's capacity releases the oldest inputs early. */
+	public void testOverflow() {
+		InputJitterBuffer buffer = new InputJitterBuffer();
+		PlayerAgent agent = newAgent();
+		for (int i = 1; i <= InputJitterBuffer.CAPACITY + 4; i++) {
+			buffer.offer(input(i), 0, agent);
+		}
+		Assert.assertEquals(InputJitterBuffer.CAPACITY, buffer.getBuffered());
+		Assert.assertEquals(4, buffer.getOverflows());
+		Assert.assertEquals(4, releasedSequence(agent));
+	}
+
+	@Test
+	/** Tests that running dry counts as an underrun only if inputs were flowing and go on. */
+	public void testUnderrun() {
+		InputJitterBuffer buffer = new InputJitterBuffer();
+		PlayerAgent agent = newAgent();
+		buffer.offer(input(1), TICK, agent);
+		buffer.release(TICK, agent);
+		buffer.release(2 * TICK, agent);
+		buffer.offer(input(2), 3 * TICK, agent);
+		Assert.assertEquals(1, buffer.getUnderruns());
+
+		// A pause in input is not an underrun.
+		buffer.release(3 * TICK, agent);
+		buffer.release(4 * TICK, agent);
+		buffer.offer(input(3), 60 * TICK, agent);
+		Assert.assertEquals(1, buffer.getUnderruns());
+	}
+
+	private static PlayerAgent newAgent() {
+		return new PlayerAgent(new Environment(false), new Point2D.Double(0, 0), "Player");
+	}
+
+	private static ClientInput input(long sequence) {
+		ClientInput input = new ClientInput();
+		input.setUp(true);
+		input.setSequence(sequence);
+		return input;
+	}
+
+	/** Applies the inputs released to the agent, and returns the sequence number of the latest. */
+	private static long releasedSequence(PlayerAgent agent) {
+		agent.update();
+		return agent.getInputSequence();
+	}
+}
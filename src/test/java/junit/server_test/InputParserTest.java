@@ -0,0 +1,65 @@
+package test.java.junit.server_test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import main.java.web.ClientInput;
+import main.java.web.InputParser;
+
+/** Tests that the input parser reads what clients send, and rejects what they don't. */
+public class InputParserTest {
+	private final InputParser parser = new InputParser();
+
+	@Test
+	/** Tests a movement input, with the aim as browsers print it. */
+	public void testMovement() {
+		ClientInput input = new ClientInput();
+		parser.parse("{\"up\":true,\"left\":false,\"isFiring\":true,\"angle\":-2.356194490192345,\"ack\":1234,\"seq\":77}", input);
+		Assert.assertTrue(input.isUp());
+		Assert.assertFalse(input.isLeft());
+		Assert.assertTrue(input.isFiring());
+		Assert.assertTrue(input.hasAngle());
+		Assert.assertEquals(-2.356194490192345, input.getAngle(), Math.ulp(2.356194490192345));
+		Assert.assertEquals(1234, input.getAck());
+		Assert.assertEquals(77, input.getSequence());
+		Assert.assertNull(input.getName());
+
+		// The input is reused, so nothing of the last one is left over.
+		parser.parse(" { \"right\" : true , \"angle\" : 1e-3 } ", input);
+		Assert.assertFalse(input.isUp());
+		Assert.assertTrue(input.isRight());
+		Assert.assertEquals(0.001, input.getAngle(), 0);
+		Assert.assertFalse(input.hasAck());
+		Assert.assertFalse(input.hasSequence());
+	}
+
+	@Test
+	/** Tests the name and chat messages, with escapes, and that unknown keys and nulls are skipped. */
+	public void testTextAndUnknownKeys() {
+		ClientInput input = new ClientInput();
+		parser.parse("{\"name\":\"Zo\\u00eb \\\"Z\\\"\",\"protocols\":[\"binary-5\", \"json\"],"
+			+ "\"extra\":{\"a\":[1,null,{}],\"b\":\"}\"},\"message\":null,\"resync\":true}", input);
+		Assert.assertEquals("Zoë \"Z\"", input.getName());
+		Assert.assertArrayEquals(new String[] {"binary-5", "json"}, input.getProtocols());
+		Assert.assertNull(input.getMessage());
+		Assert.assertTrue(input.isResync());
+
+		parser.parse("{\"message\":\"/pm B a\\\\b\\n\"}", input);
+		Assert.assertEquals("/pm B a\\b\n", input.getMessage());
+		Assert.assertNull(input.getProtocols());
+	}
+
+	@Test
+	public void testMalformed() {
+		String[] malformed = {"", "[]", "{\"up\":tru}", "{\"up\":1}", "{\"angle\":\"1\"}", "{\"ack\":1.5}",
+			"{\"seq\":-1}", "{\"name\":\"a}", "{\"up\":true,}", "{\"up\":true} x", "{\"message\":\"\\q\"}"};
+		for (String text : malformed) {
+			try {
+				parser.parse(text, new ClientInput());
+				Assert.fail("parsed " + text);
+			} catch (IllegalArgumentException e) {
+				// Expected.
+			}
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package test.java.junit.server_test;
+
+import java.awt.geom.Point2D;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import main.java.agent.Agent;
+import main.java.agent.NPCAgent;
+import main.java.agent.PlayerAgent;
+import main.java.agent.Scout;
+import main.java.environment.Environment;
+import main.java.misc.ChangeTracker;
+import main.java.misc.Tracked;
+import main.java.misc.Vector2D;
+import main.java.projectile.Projectile;
+import main.java.web.ClientView;
+import main.java.web.GameState;
+import main.java.web.JsonFrameWriter;
+import main.java.web.StateFrame;
+
+/** Tests that JsonFrameWriter prints exactly what the Gson tree serialization printed. */
+public class JsonFrameWriterTest {
+
+	@Test
+	/** Tests a keyframe and a delta with removals against Gson's output for the same frames. */
+	public void testMatchesGson() {
+		Environment environment = new Environment(false);
+		environment.setGameplayOccurring(false);
+		PlayerAgent player = environment.spawnPlayer(new Point2D.Double(-1234.5678, 1e-7));
+		player.setName("\"Quoted\" \\ tab\t line\u2028 bell\u0007 é \uD83D\uDE00 \uD800");
+		player.setAngle(Math.PI / 3);
+		Scout scout = environment.spawnScout(new Point2D.Double(3999.9, -0.0));
+		Scout despawned = environment.spawnScout(new Point2D.Double(10, 10));
+		Projectile projectile = new Projectile(environment, player,
+			new Point2D.Double(1e10, -3), new Vector2D(1, 0), 10, 1.5);
+		ClientView view = new ClientView(null, player);
+		JsonFrameWriter writer = new JsonFrameWriter(16);
+		long tick = environment.getCurrentTick();
+
+		StateFrame keyframe = view.buildFrame(new GameState(tick, Collections.singletonList(player),
+			Arrays.<NPCAgent>asList(scout, despawned), Collections.singletonList(projectile)));
+		Assert.assertEquals(toGson(keyframe), writer.write(keyframe).toString());
+
+		ByteBuffer utf8 = ByteBuffer.allocate(writer.utf8Length());
+		writer.encodeUtf8(utf8);
+		Assert.assertFalse(utf8.hasRemaining());
+		Assert.assertArrayEquals(writer.toString().getBytes(StandardCharsets.UTF_8), utf8.array());
+
+		view.acknowledge(tick);
+		environment.despawnNPCAgent(despawned);
+		scout.setPosition(-5, 5);
+		scout.getChanges().mark(ChangeTracker.POSITION, tick + 1);
+		StateFrame delta = view.buildFrame(new GameState(tick + 1, Collections.singletonList(player),
+			Collections.<NPCAgent>singletonList(scout), Collections.<Projectile>emptyList()));
+		Assert.assertEquals(toGson(delta), writer.write(delta).toString());
+		Assert.assertEquals(writer.toString().length(), writer.length());
+
+		view.acknowledge(tick + 1);
+		view.setKeyframeInterval(1);
+		view.setDetailRadii(0, 5000, 5000);
+		StateFrame coarse = view.buildFrame(new GameState(tick + 2, Collections.singletonList(player),
+			Collections.<NPCAgent>singletonList(scout), Collections.<Projectile>emptyList()));
+		Assert.assertTrue(coarse.getNpcAgents().get(0).isCoarse());
+		Assert.assertEquals(toGson(coarse), writer.write(coarse).toString());
+	}
+
+	/** The Gson tree serialization that JsonFrameWriter replaced. */
+	private static String toGson(StateFrame frame) {
+		JsonObject element = new JsonObject();
+		element.add("tick", new JsonPrimitive(frame.getTick()));
+		element.add("baseline", new JsonPrimitive(frame.getBaseline()));
+		element.add("keyframe", new JsonPrimitive(frame.isKeyframe()));
+		element.add("inputSeq", new JsonPrimitive(frame.getInputSequence()));
+		element.add("vx", new JsonPrimitive(frame.getVelocityX()));
+		element.add("vy", new JsonPrimitive(frame.getVelocityY()));
+		element.add("spawnedPlayerAgents", playerAgentsToGson(frame.getSpawnedPlayerAgents()));
+		element.add("spawnedNPCAgents", npcAgentsToGson(frame.getSpawnedNPCAgents()));
+		element.add("spawnedProjectiles", projectilesToGson(frame.getSpawnedProjectiles()));
+		element.add("playerAgents", playerAgentsToGson(frame.getPlayerAgents()));
+		element.add("npcAgents", npcAgentsToGson(frame.getNpcAgents()));
+		element.add("projectiles", projectilesToGson(frame.getProjectiles()));
+
+		element.add("despawnedPlayerAgents", toGson(frame.getDespawnedPlayerAgents()));
+		element.add("despawnedNPCAgents", toGson(frame.getDespawnedNPCAgents()));
+		element.add("despawnedProjectiles", toGson(frame.getDespawnedProjectiles()));
+		element.add("hitProjectiles", toGson(frame.getHitProjectiles()));
+		element.add("culled", toGson(frame.getCulled()));
+		return element.toString();
+	}
+
+	private static JsonArray playerAgentsToGson(List<StateFrame.Entry<PlayerAgent>> entries) {
+		JsonArray playerAgents = new JsonArray();
+		for (StateFrame.Entry<PlayerAgent> entry : entries) {
+			PlayerAgent src = entry.getEntity();
+			int fields = entry.getFields();
+			JsonObject player = new JsonObject();
+			player.add("id", new JsonPrimitive(src.getID().toString()));
+			if ((fields & ChangeTracker.NAME) != 0) {
+				player.add("name", new JsonPrimitive(src.getName()));
+			}
+			addHealth(player, src, fields);
+			if ((fields & ChangeTracker.POINTS) != 0) {
+				player.add("points", new JsonPrimitive(src.getPoints()));
+				player.add("pointsLeft", new JsonPrimitive(src.getPointsUntilLevelUp()));
+			}
+			addPosition(player, src, fields, entry.isCoarse());
+			addAngle(player, src, fields, entry.isCoarse());
+			if ((fields & ChangeTracker.TEAM) != 0) {
+				player.add("color", new JsonPrimitive(src.getHexColor()));
+			}
+			playerAgents.add(player);
+		}
+		return playerAgents;
+	}
+
+	private static JsonArray npcAgentsToGson(List<StateFrame.Entry<NPCAgent>> entries) {
+		JsonArray npcAgents = new JsonArray();
+		for (StateFrame.Entry<NPCAgent> entry : entries) {
+			NPCAgent src = entry.getEntity();
+			int fields = entry.getFields();
+			JsonObject npc = new JsonObject();
+			npc.add("id", new JsonPrimitive(src.getID().toString()));
+			if ((fields & ChangeTracker.SIZE) != 0) {
+				npc.add("size", new JsonPrimitive(src.getSize()));
+			}
+			addHealth(npc, src, fields);
+			addPosition(npc, src, fields, entry.isCoarse());
+			addAngle(npc, src, fields, entry.isCoarse());
+			if ((fields & ChangeTracker.TEAM) != 0) {
+				npc.add("color", new JsonPrimitive(src.getHexColor()));
+			}
+			npcAgents.add(npc);
+		}
+		return npcAgents;
+	}
+
+	private static JsonArray projectilesToGson(List<StateFrame.Entry<Projectile>> entries) {
+		JsonArray projectiles = new JsonArray();
+		for (StateFrame.Entry<Projectile> entry : entries) {
+			Projectile src = entry.getEntity();
+			int fields = entry.getFields();
+			JsonObject projectile = new JsonObject();
+			projectile.add("id", new JsonPrimitive(src.getID().toString()));
+			if ((fields & ChangeTracker.SIZE) != 0) {
+				projectile.add("size", new JsonPrimitive(src.getSize()));
+			}
+			if ((fields & ChangeTracker.POSITION) != 0) {
+				projectile.add("originX", new JsonPrimitive(src.getOrigin().getX()));
+				projectile.add("originY", new JsonPrimitive(src.getOrigin().getY()));
+				projectile.add("vx", new JsonPrimitive(src.getVelocityX()));
+				projectile.add("vy", new JsonPrimitive(src.getVelocityY()));
+				projectile.add("launchTick", new JsonPrimitive(src.getLaunchTick()));
+			}
+			if ((fields & ChangeTracker.TEAM) != 0) {
+				projectile.add("color", new JsonPrimitive(src.getHexColor()));
+			}
+			projectiles.add(projectile);
+		}
+		return projectiles;
+	}
+
+	private static void addHealth(JsonObject element, Agent src, int fields) {
+		if ((fields & ChangeTracker.HEALTH) != 0) {
+			element.add("health", new JsonPrimitive(src.getHealth()));
+		}
+		if ((fields & ChangeTracker.MAX_HEALTH) != 0) {
+			element.add("maxHealth", new JsonPrimitive(src.getMaxHealth()));
+		}
+	}
+
+	private static void addPosition(JsonObject element, Tracked src, int fields, boolean coarse) {
+		if ((fields & ChangeTracker.POSITION) != 0 && coarse) {
+			element.add("x", new JsonPrimitive(Math.round(src.getPosition().getX())));
+			element.add("y", new JsonPrimitive(Math.round(src.getPosition().getY())));
+		} else if ((fields & ChangeTracker.POSITION) != 0) {
+			element.add("x", new JsonPrimitive(src.getPosition().getX()));
+			element.add("y", new JsonPrimitive(src.getPosition().getY()));
+		}
+	}
+
+	private static void addAngle(JsonObject element, Agent src, int fields, boolean coarse) {
+		if ((fields & ChangeTracker.ANGLE) != 0) {
+			element.add("angle", new JsonPrimitive(coarse ? Math.round(src.getAngle() * 100) / 100.0 : src.getAngle()));
+		}
+	}
+
+	private static JsonArray toGson(List<? extends Tracked> entities) {
+		JsonArray array = new JsonArray();
+		for (Tracked entity : entities) {
+			JsonObject element = new JsonObject();
+			element.add("id", new JsonPrimitive(entity.getID().toString()));
+			array.add(element);
+		}
+		return array;
+	}
+}
@@ -2,21 +2,35 @@ package test.java.junit.server_test;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 
 import org.eclipse.jetty.websocket.api.RemoteEndpoint;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
 import main.java.web.GameSocket;
 
 /** Represents a mock client that connects to the web server. */
 public class MockConnection {
 	private GameSocket socket;
 	private List<String> output = new LinkedList<>();
+	/** Only this many of the latest state frames are kept. */
+	private static final int MAX_FRAMES = 64;
+	/** How long receivedMessage waits for a message, in nanoseconds. */
+	private static final long MESSAGE_TIMEOUT = 500_000_000L;
+	/** How long awaitCommands waits, in nanoseconds. Commands that change the world wait for a tick. */
+	private static final long COMMAND_TIMEOUT = 5_000_000_000L;
+	/** The latest JSON state frames received, which are kept apart from the other messages. */
+	private List<String> frames = new LinkedList<>();
 	private Session session;
 	private boolean connected = true;
 	
@@ -27,7 +41,7 @@ public class MockConnection {
 	public MockConnection(String name, boolean verbose) {
 		socket = new GameSocket(verbose);
 		
-		session = getMockSession(output);
+		session = getMockSession(output, frames);
 		socket.onWebSocketConnect(session);
 		
 		String nameJSON = " {\"name\":\"" + name + "\"}";
@@ -37,6 +51,22 @@ public class MockConnection {
 	public List<String> getOutput() {
 		return output;
 	}
+
+	public List<String> getFrames() {
+		return frames;
+	}
+
+	/** Returns true if a state frame of the given tick was received. */
+	public boolean receivedFrame(long tick) {
+		synchronized(frames) {
+			for (String frame : frames) {
+				if (frame.startsWith("{\"tick\":" + tick + ",")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
 	
 	public Session getSession() {
 		return session;
@@ -46,23 +76,66 @@ public class MockConnection {
 		return socket;
 	}
 	
+	/**
+	 * Returns true if a message containing the string was received. Messages may be
+	 * on their way with a frame the simulation thread is sending, so this waits for
+	 * them a little before giving up.
+	 */
 	public boolean receivedMessage(String string) {
+		return receivedMessages(string, 1, MESSAGE_TIMEOUT);
+	}
+
+	/**
+	 * Returns true if at least count messages containing the string were received
+	 * within the timeout, in nanoseconds.
+	 */
+	private boolean receivedMessages(String string, int count, long timeout) {
+		long deadline = System.nanoTime() + timeout;
+		do {
+			if (countMessages(string) >= count) {
+				return true;
+			}
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		} while (System.nanoTime() < deadline);
+		return false;
+	}
+
+	/** Returns how many of the messages received contain the string. */
+	private int countMessages(String string) {
+		int count = 0;
 		synchronized(output) {
 			for (String listItem : output) {
 				if (listItem.contains(string)) {
-					return true;
+					count++;
 				}
 			}
 		}
-		return false;
+		return count;
 	}
 	
 	public void close() {
 		close(0, null);
 	}
 	
+	/** Sends the message, and sends the replies it caused as the end of the tick would. */
 	public void sendMessage(String message) {
 		socket.onWebSocketText(message);
+		socket.flushMessages();
+	}
+	
+	/**
+	 * Waits until the commands this client sent so far have been performed. A
+	 * client's commands run in order, so once a later /ping is answered they are.
+	 */
+	public boolean awaitCommands() {
+		int pongs = countMessages("PONG");
+		sendMessage("{\"message\":\"/ping\"}");
+		return receivedMessages("PONG", pongs + 1, COMMAND_TIMEOUT);
 	}
 	
 	public void close(int reason, String message) {
@@ -76,7 +149,7 @@ public class MockConnection {
 		}
 	}
 	
-	private Session getMockSession(List<String> output) {
+	private Session getMockSession(List<String> output, List<String> frames) {
 		Session session = Mockito.mock(Session.class);
 		InetSocketAddress mockAddress = new InetSocketAddress(0);
 		Mockito.when(session.getRemoteAddress()).thenReturn(mockAddress);
@@ -90,7 +163,7 @@ public class MockConnection {
 		
 		Mockito.when(session.getRemote()).thenAnswer(new Answer<RemoteEndpoint>() {
 			public RemoteEndpoint answer(InvocationOnMock invocation) throws Throwable {
-				return getMockEndpoint(output);
+				return getMockEndpoint(output, frames);
 			}
 		});
 		
@@ -106,7 +179,7 @@ public class MockConnection {
 		return session;
 	}
 
-	private static RemoteEndpoint getMockEndpoint(List<String> output) throws IOException {
+	private static RemoteEndpoint getMockEndpoint(List<String> output, List<String> frames) throws IOException {
 		RemoteEndpoint endpoint = Mockito.mock(RemoteEndpoint.class);
 		
 		Mockito.doAnswer(new Answer<Void>() {
@@ -136,6 +209,42 @@ public class MockConnection {
 				return null;
 			}
 		}).when(endpoint).sendStringByFuture(Mockito.anyString());
+
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				String message = (String) invocation.getArguments()[0];
+				if (message.startsWith("{\"tick\":")) {
+					synchronized(frames) {
+						if (frames.size() == MAX_FRAMES) {
+							frames.remove(0);
+						}
+						frames.add(message);
+					}
+				}
+				// Chat and other messages come with a frame or in an envelope of their own.
+				if (message.contains("\"messages\":[")) {
+					JsonObject envelope = new JsonParser().parse(message).getAsJsonObject();
+					for (JsonElement element : envelope.getAsJsonArray("messages")) {
+						if (!element.getAsString().startsWith("{")) {
+							synchronized(output) {
+								output.add(element.getAsString());
+							}
+						}
+					}
+				}
+				((WriteCallback) invocation.getArguments()[1]).writeSuccess();
+				return null;
+			}
+		}).when(endpoint).sendString(Mockito.anyString(), Mockito.any(WriteCallback.class));
+
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				((WriteCallback) invocation.getArguments()[1]).writeSuccess();
+				return null;
+			}
+		}).when(endpoint).sendBytes(Mockito.any(ByteBuffer.class), Mockito.any(WriteCallback.class));
 		
 		return endpoint;
 	}
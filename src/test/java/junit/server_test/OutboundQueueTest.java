@@ -0,0 +1,226 @@
+package test.java.junit.server_test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import main.java.web.BufferPool;
+import main.java.web.OutboundQueue;
+import main.java.web.PooledBuffer;
+
+/** Tests the per-session outbound queue against a client that only completes writes when told to. */
+public class OutboundQueueTest {
+	private BufferPool pool;
+	private Session session;
+	private OutboundQueue queue;
+	/** What was handed to the endpoint, in order. */
+	private List<String> sent;
+	/** The callbacks of writes that have not completed yet. */
+	private List<WriteCallback> pending;
+
+	@Before
+	public void setUp() {
+		pool = new BufferPool();
+		sent = new ArrayList<>();
+		pending = new ArrayList<>();
+
+		RemoteEndpoint endpoint = Mockito.mock(RemoteEndpoint.class);
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				sent.add((String) invocation.getArguments()[0]);
+				pending.add((WriteCallback) invocation.getArguments()[1]);
+				return null;
+			}
+		}).when(endpoint).sendString(Mockito.anyString(), Mockito.any(WriteCallback.class));
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				ByteBuffer data = (ByteBuffer) invocation.getArguments()[0];
+				sent.add("binary:" + StandardCharsets.UTF_8.decode(data));
+				pending.add((WriteCallback) invocation.getArguments()[1]);
+				return null;
+			}
+		}).when(endpoint).sendBytes(Mockito.any(ByteBuffer.class), Mockito.any(WriteCallback.class));
+
+		session = Mockito.mock(Session.class);
+		Mockito.when(session.isOpen()).thenReturn(true);
+		Mockito.when(session.getRemote()).thenReturn(endpoint);
+		queue = new OutboundQueue(session, pool);
+	}
+
+	@Test
+	/** Tests that only one write is outstanding, and that a newer frame replaces an unsent one. */
+	public void testNewerFrameReplacesUnsentFrame() {
+		offerFrame("frame 1");
+		offerFrame("frame 2");
+		offerFrame("frame 3");
+		Assert.assertEquals(1, sent.size());
+		Assert.assertEquals(2, queue.getDepth());
+		Assert.assertEquals(1, queue.getDroppedFrames());
+
+		completeWrite();
+		Assert.assertEquals(2, sent.size());
+		Assert.assertEquals("binary:frame 3", sent.get(1));
+		completeWrite();
+		Assert.assertEquals(0, queue.getDepth());
+		Assert.assertEquals(2, queue.getSentFrames());
+		Assert.assertEquals(0, pool.getOutstanding());
+	}
+
+	@Test
+	/** Tests that messages wait for a frame and go out in it, in order, and are not dropped with it. */
+	public void testMessagesRideWithFrames() {
+		offerFrame("{\"tick\":1}", false);
+		offerMessage("chat 1");
+		offerFrame("{\"tick\":2}", false);
+		offerMessage("say \"hi\"");
+		offerFrame("{\"tick\":3}", false);
+		Assert.assertEquals(1, sent.size());
+		Assert.assertEquals(2, queue.getDepth());
+
+		while (!pending.isEmpty()) {
+			completeWrite();
+		}
+		String[] expected = {"{\"tick\":1}", "{\"tick\":3,\"messages\":[\"chat 1\",\"say \\\"hi\\\"\"]}"};
+		Assert.assertArrayEquals(expected, sent.toArray());
+		Assert.assertEquals(2, queue.getSentMessages());
+		Assert.assertEquals(1, queue.getDroppedFrames());
+		Assert.assertEquals(0, pool.getOutstanding());
+	}
+
+	@Test
+	/** Tests that messages without a frame wait for the flush, and then go out in one envelope. */
+	public void testMessagesAreCoalesced() {
+		offerMessage("chat 1");
+		offerMessage("line 1\nline 2");
+		Assert.assertEquals(0, sent.size());
+		Assert.assertEquals(1, queue.getDepth());
+
+		queue.flushMessages();
+		Assert.assertEquals("{\"messages\":[\"chat 1\",\"line 1\\u000aline 2\"]}", sent.get(0));
+		offerMessage("chat 2");
+		queue.flushMessages();
+		Assert.assertEquals(1, sent.size());
+		completeWrite();
+		Assert.assertEquals("{\"messages\":[\"chat 2\"]}", sent.get(1));
+
+		// A binary frame ends with the messages it carries.
+		offerMessage("chat 3");
+		completeWrite();
+		offerFrame("frame", true);
+		Assert.assertEquals("binary:frame\u0001\u0006chat 3", sent.get(2));
+		completeWrite();
+		Assert.assertEquals(0, queue.getDepth());
+		Assert.assertEquals(0, pool.getOutstanding());
+	}
+
+	@Test
+	/** Tests that closing the queue releases everything waiting, and that failed writes move on. */
+	public void testCloseAndFailure() {
+		offerMessage("chat 1");
+		queue.flushMessages();
+		offerMessage("chat 2");
+		offerFrame("frame", true);
+		pending.remove(0).writeFailed(new Exception("test"));
+		Assert.assertEquals(1, queue.getFailedWrites());
+		Assert.assertEquals("binary:frame\u0001\u0006chat 2", sent.get(1));
+
+		offerMessage("chat 3");
+		queue.close();
+		offerMessage("chat 4");
+		queue.flushMessages();
+		Assert.assertEquals(1, queue.getDepth());
+		completeWrite();
+		Assert.assertEquals(2, sent.size());
+		Assert.assertEquals(0, queue.getDepth());
+		Assert.assertEquals(0, pool.getOutstanding());
+	}
+
+	@Test
+	/** Tests that a session closed after a last message is only closed once that message was written. */
+	public void testCloseWhenSent() {
+		offerFrame("frame");
+		offerMessage("You were kicked");
+		queue.closeWhenSent();
+		offerMessage("chat");
+		Mockito.verify(session, Mockito.never()).close();
+
+		completeWrite();
+		Assert.assertEquals("{\"messages\":[\"You were kicked\"]}", sent.get(1));
+		Mockito.verify(session, Mockito.never()).close();
+		completeWrite();
+		Mockito.verify(session).close();
+		Assert.assertEquals(2, sent.size());
+		Assert.assertEquals(0, pool.getOutstanding());
+	}
+
+	@Test
+	/** Tests that a session that stops reading is closed once its messages fill the queue, instead of dropping them. */
+	public void testOverflowClosesSession() {
+		offerMessage("chat 1");
+		queue.flushMessages();
+		// The client never completes this write, so everything after it waits.
+		Assert.assertEquals(1, pending.size());
+
+		String chat = new String(new char[1000]).replace('\0', 'x');
+		int fit = OutboundQueue.MAX_QUEUED_BYTES / chat.length();
+		for (int i = 0; i < fit; i++) {
+			offerMessage(chat);
+		}
+		Assert.assertEquals(fit * chat.length(), queue.getQueuedBytes());
+		Assert.assertEquals(0, queue.getOverflows());
+		Mockito.verify(session, Mockito.never()).close(Mockito.anyInt(), Mockito.anyString());
+
+		offerMessage(chat);
+		Assert.assertEquals(1, queue.getOverflows());
+		Assert.assertEquals(0, queue.getQueuedBytes());
+		Mockito.verify(session).close(Mockito.eq(StatusCode.POLICY_VIOLATION), Mockito.anyString());
+
+		// Only the write in progress is still held, until Jetty gives up on it.
+		Assert.assertEquals(1, pool.getOutstanding());
+		pending.remove(0).writeFailed(new Exception("test"));
+		offerMessage(chat);
+		Assert.assertEquals(1, queue.getOverflows());
+		Assert.assertEquals(1, sent.size());
+		Assert.assertEquals(0, pool.getOutstanding());
+	}
+
+	private void offerMessage(String text) {
+		PooledBuffer payload = encode(text);
+		queue.offerMessage(payload);
+		payload.release();
+	}
+
+	private void offerFrame(String text) {
+		offerFrame(text, true);
+	}
+
+	private void offerFrame(String text, boolean binary) {
+		PooledBuffer payload = encode(text);
+		queue.offerFrame(payload, binary);
+		payload.release();
+	}
+
+	private PooledBuffer encode(String text) {
+		PooledBuffer payload = pool.acquire(text.length());
+		payload.getBuffer().put(text.getBytes(StandardCharsets.UTF_8)).flip();
+		return payload;
+	}
+
+	private void completeWrite() {
+		pending.remove(0).writeSuccess();
+	}
+}
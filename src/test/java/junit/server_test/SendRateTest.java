@@ -0,0 +1,66 @@
+package test.java.junit.server_test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import main.java.web.SendRate;
+
+public class SendRateTest {
+	private static final double OPPORTUNITIES = 40;
+
+	@Test
+	/** Tests that a prompt client is sent every frame, with rates above the tick rate capped. */
+	public void testFastClient() {
+		SendRate rate = new SendRate();
+		Assert.assertEquals(40, countSent(rate, 0, 10, 60, 40));
+		Assert.assertEquals(0, rate.getSkippedFrames());
+		Assert.assertEquals(60, rate.getRate(), 0);
+	}
+
+	@Test
+	/** Tests that a backlogged client is slowed to the minimum rate, and recovers once it drains. */
+	public void testBacklog() {
+		SendRate rate = new SendRate();
+		countSent(rate, 2, 10, 60, 40);
+		Assert.assertEquals(10, rate.getRate(), 0);
+		int sent = countSent(rate, 0, 10, 60, 40);
+		Assert.assertTrue(sent > 10 && sent < 40);
+
+		countSent(rate, 0, 10, 60, 200);
+		Assert.assertEquals(60, rate.getRate(), 0);
+	}
+
+	@Test
+	/** Tests that a long round trip caps the rate between the bounds. */
+	public void testRoundTrip() {
+		SendRate rate = new SendRate();
+		Assert.assertTrue(Double.isNaN(rate.getRoundTrip()));
+		rate.recordRoundTrip(250_000_000L);
+		Assert.assertEquals(250, rate.getRoundTrip(), 1e-9);
+		countSent(rate, 0, 10, 40, 40);
+		Assert.assertEquals(25, rate.getRate(), 1e-9);
+		Assert.assertEquals(25, countSent(rate, 0, 10, 40, 40), 1);
+
+		rate.recordRoundTrip(50_000_000L);
+		Assert.assertEquals(250 + (50 - 250) / 8.0, rate.getRoundTrip(), 1e-9);
+	}
+
+	@Test
+	public void testPingInterval() {
+		SendRate rate = new SendRate();
+		Assert.assertTrue(rate.isPingDue(0));
+		Assert.assertFalse(rate.isPingDue(SendRate.PING_INTERVAL - 1));
+		Assert.assertTrue(rate.isPingDue(SendRate.PING_INTERVAL));
+	}
+
+	/** Runs the given number of send opportunities at a fixed queue depth, returning how many frames were sent. */
+	private static int countSent(SendRate rate, int queueDepth, double min, double max, int opportunities) {
+		int sent = 0;
+		for (int i = 0; i < opportunities; i++) {
+			if (rate.shouldSend(queueDepth, OPPORTUNITIES, min, max)) {
+				sent++;
+			}
+		}
+		return sent;
+	}
+}
@@ -1,9 +1,15 @@
 package test.java.junit.server_test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import main.java.environment.Environment;
 import main.java.web.ClientInput;
+import main.java.web.GameSerializer;
+import main.java.web.HeartbeatMonitor;
 
 public class ServerTest {
 	
@@ -91,6 +97,44 @@ public class ServerTest {
 		user.close();
 	}
 	
+	@Test
+	/** Tests that a client that stops answering is reaped, and the others are told it left. */
+	public void testReaping() throws InterruptedException {
+		MockConnection ghost = new MockConnection("Ghost");
+		long ghostHeard = System.nanoTime();
+		Thread.sleep(5);
+		MockConnection user = new MockConnection("Watcher");
+		HeartbeatMonitor monitor = user.getSocket().getHeartbeatMonitor();
+		long reaped = monitor.getReapedSessions();
+
+		// Sweep once the ghost's deadline has passed, but not the user's.
+		monitor.sweep(ghostHeard + monitor.getDeadline() + 1_000_000L);
+		Assert.assertTrue(monitor.getReapedSessions() > reaped);
+		user.sendMessage("{\"message\":\"/players\"}");
+		Assert.assertTrue(user.receivedMessage("Ghost left the game."));
+		Assert.assertTrue(user.receivedMessage("1 player: Watcher"));
+
+		// Jetty's close of the reaped session finds nothing left to do.
+		ghost.close();
+		user.close();
+	}
+
+	@Test
+	/** Tests that a client flooding the chat is told so, and the others only get its budget. */
+	public void testChatFlood() {
+		MockConnection flooder = new MockConnection("Flooder");
+		MockConnection user = new MockConnection("Reader");
+		for (int i = 0; i < 10; i++) {
+			flooder.sendMessage("{\"message\":\"Spam " + i + "\"}");
+		}
+		Assert.assertTrue(flooder.receivedMessage("You are sending messages too quickly."));
+		Assert.assertTrue(user.receivedMessage("Spam 0"));
+		Assert.assertFalse(user.receivedMessage("Spam 9"));
+
+		flooder.close();
+		user.close();
+	}
+
 	@Test
 	public void testClientInputMoving() {
 		ClientInput ci = new ClientInput();
@@ -108,4 +152,32 @@ public class ServerTest {
 		ci.setLeft(false);
 		Assert.assertFalse(ci.isMoving());
 	}
-}
\ No newline at end of file
+
+	@Test
+	/** Tests that every client is sent a frame when the sessions are split across worker threads. */
+	public void testParallelBroadcast() throws InterruptedException {
+		List<MockConnection> users = new ArrayList<>();
+		users.add(new MockConnection("Parallel0"));
+		// Stop the simulation first, so that it spawns no NPCs for the new players.
+		Environment environment = users.get(0).getSocket().getEnvironment();
+		environment.setGameplayOccurring(false);
+		for (int i = 1; i < 12; i++) {
+			users.add(new MockConnection("Parallel" + i));
+		}
+		GameSerializer serializer = new GameSerializer(users.get(0).getSocket(), environment, 1, 4);
+		try {
+			// Let a tick in progress finish.
+			Thread.sleep(100);
+			serializer.broadcastGameState(1_000_000L);
+			for (MockConnection user : users) {
+				Assert.assertTrue(user.receivedFrame(1_000_000L));
+			}
+		} finally {
+			environment.removeTickListener(serializer);
+			environment.setGameplayOccurring(true);
+			for (MockConnection user : users) {
+				user.close();
+			}
+		}
+	}
+}
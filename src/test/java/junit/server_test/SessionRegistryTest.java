@@ -0,0 +1,99 @@
+package test.java.junit.server_test;
+
+import java.awt.geom.Point2D;
+import java.util.List;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import main.java.agent.PlayerAgent;
+import main.java.environment.Environment;
+import main.java.web.BufferPool;
+import main.java.web.ClientView;
+import main.java.web.Heartbeat;
+import main.java.web.InboundLimiter;
+import main.java.web.OutboundQueue;
+import main.java.web.SessionRegistry;
+
+public class SessionRegistryTest {
+
+	@Test
+	/** Tests that a session is indexed by its names once it claims one, and forgotten when it leaves. */
+	public void testLifecycle() {
+		SessionRegistry registry = new SessionRegistry();
+		Session session = Mockito.mock(Session.class);
+		registry.connect(session, new OutboundQueue(session, new BufferPool()), new Heartbeat(0),
+			new InboundLimiter());
+		Assert.assertEquals(1, registry.getEntries().size());
+		Assert.assertTrue(registry.getViews().isEmpty());
+		Assert.assertNull(registry.get(session).getName());
+
+		Assert.assertTrue(registry.claimName(session, "Big Bird"));
+		Assert.assertSame(session, registry.getByName("Big Bird").getSession());
+		Assert.assertSame(session, registry.getByShortName("BIGBIRD").getSession());
+		Assert.assertEquals("bigbird", registry.get(session).getShortName());
+
+		PlayerAgent agent = new PlayerAgent(new Environment(false), new Point2D.Double(0, 0), "Big Bird");
+		ClientView view = new ClientView(session, agent);
+		Assert.assertTrue(registry.join(session, agent, view));
+		Assert.assertSame(agent, registry.getByShortName("big bird").getAgent());
+		Assert.assertEquals(1, registry.getViews().size());
+		Assert.assertSame(view, registry.getViews().get(0));
+
+		SessionRegistry.Entry removed = registry.remove(session);
+		Assert.assertSame(agent, removed.getAgent());
+		Assert.assertNull(registry.get(session));
+		Assert.assertNull(registry.getByName("Big Bird"));
+		Assert.assertTrue(registry.getNames().isEmpty());
+		Assert.assertTrue(registry.getEntries().isEmpty());
+		Assert.assertFalse(registry.join(session, agent, view));
+	}
+
+	@Test
+	/** Tests that a name is only claimed once, however it is spaced or capitalized. */
+	public void testDuplicateNames() {
+		SessionRegistry registry = new SessionRegistry();
+		Session first = Mockito.mock(Session.class);
+		Session second = Mockito.mock(Session.class);
+		registry.connect(first, new OutboundQueue(first, new BufferPool()), new Heartbeat(0),
+			new InboundLimiter());
+		registry.connect(second, new OutboundQueue(second, new BufferPool()), new Heartbeat(0),
+			new InboundLimiter());
+
+		Assert.assertTrue(registry.claimName(first, "Oscar"));
+		Assert.assertFalse(registry.claimName(second, " o S c a r\t"));
+		Assert.assertFalse(registry.claimName(first, "Elmo"));
+		Assert.assertTrue(registry.claimName(second, "Elmo"));
+
+		registry.remove(first);
+		Session third = Mockito.mock(Session.class);
+		registry.connect(third, new OutboundQueue(third, new BufferPool()), new Heartbeat(0),
+			new InboundLimiter());
+		Assert.assertTrue(registry.claimName(third, "OSCAR"));
+	}
+
+	@Test
+	/** Tests that a snapshot is unaffected by sessions that connect after it was taken. */
+	public void testSnapshot() {
+		SessionRegistry registry = new SessionRegistry();
+		Session first = Mockito.mock(Session.class);
+		registry.connect(first, new OutboundQueue(first, new BufferPool()), new Heartbeat(0),
+			new InboundLimiter());
+		List<SessionRegistry.Entry> snapshot = registry.getEntries();
+
+		Session second = Mockito.mock(Session.class);
+		registry.connect(second, new OutboundQueue(second, new BufferPool()), new Heartbeat(0),
+			new InboundLimiter());
+		Assert.assertEquals(1, snapshot.size());
+		Assert.assertEquals(2, registry.getEntries().size());
+	}
+
+	@Test
+	public void testShortenName() {
+		Assert.assertEquals("cookiemonster", SessionRegistry.shortenName(" Cookie \t Monster\r\n"));
+		Assert.assertEquals(" cookie monster".replaceAll("\\s+", "").toLowerCase(),
+			SessionRegistry.shortenName(" cookie monster"));
+	}
+}